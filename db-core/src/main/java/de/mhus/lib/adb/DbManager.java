@@ -16,6 +16,7 @@
 package de.mhus.lib.adb;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -311,6 +312,20 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract void createObject(DbConnection con, String registryName, Object object)
             throws MException;
 
+    public abstract void createObjects(Collection<?> objects) throws MException;
+
+    /**
+     * Create all objects in the database. If supported by the dialect the objects of the same type
+     * are inserted with multi row INSERT statements.
+     *
+     * @param con The connection to use or null.
+     * @param registryName The registryName or null if the objects are simple object references
+     * @param objects The objects to create.
+     * @throws MException
+     */
+    public abstract void createObjects(
+            DbConnection con, String registryName, Collection<?> objects) throws MException;
+
     public abstract void saveObject(Object object) throws MException;
 
     public abstract void saveObject(String registryName, Object object) throws MException;
@@ -329,6 +344,35 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract void saveObject(DbConnection con, String registryName, Object object)
             throws MException;
 
+    public abstract void upsertObject(Object object) throws MException;
+
+    public abstract void upsertObject(String registryName, Object object) throws MException;
+
+    /**
+     * Insert the object or update it if it already exists. If supported by the database it's done
+     * in one statement, otherwise it falls back to existsObject and createObject or saveObject.
+     *
+     * @param con The connection to use or null
+     * @param registryName The registryName or null
+     * @param object The object to create or update
+     * @throws MException
+     */
+    public abstract void upsertObject(DbConnection con, String registryName, Object object)
+            throws MException;
+
+    public abstract void upsertObjects(Collection<?> objects) throws MException;
+
+    /**
+     * Insert or update all objects using the same connection and commit once at the end.
+     *
+     * @param con The connection to use or null
+     * @param registryName The registryName or null
+     * @param objects The objects to create or update
+     * @throws MException
+     */
+    public abstract void upsertObjects(
+            DbConnection con, String registryName, Collection<?> objects) throws MException;
+
     public abstract void saveObjectForce(Object object, boolean raw) throws MException;
 
     public abstract void saveObjectForce(String registryName, Object object, boolean raw)
@@ -15,16 +15,27 @@
  */
 package de.mhus.lib.adb;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.mhus.lib.adb.model.Field;
 import de.mhus.lib.adb.model.Table;
 import de.mhus.lib.adb.query.AQuery;
+import de.mhus.lib.adb.transaction.OptimisticLockException;
 import de.mhus.lib.adb.util.DbProperties;
+import de.mhus.lib.adb.util.MappedQuery;
 import de.mhus.lib.adb.util.ParserJdbcDebug;
 import de.mhus.lib.adb.util.Property;
 import de.mhus.lib.annotations.jmx.JmxManaged;
@@ -34,16 +45,16 @@ import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.cfg.CfgBoolean;
-import de.mhus.lib.core.concurrent.Lock;
-import de.mhus.lib.core.concurrent.ThreadLock;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.logging.ITracer;
-import de.mhus.lib.core.util.FallbackMap;
 import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbResult;
 import de.mhus.lib.sql.DbStatement;
+import de.mhus.lib.sql.Dialect;
 import de.mhus.lib.sql.MetadataBundle;
 import de.mhus.lib.sql.SqlDialectCreateContext;
 import io.opentracing.Scope;
@@ -62,20 +73,23 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     public static final String DATABASE_MANAGER_VERSION = "db.manager.version";
 
     public static final String MANAGER_VERSION = "1.0";
+    public static final String DATABASE_STRUCTURE = "db.structure.";
 
-    private static final long MAX_LOCK = 1000 * 60 * 10;
+    private static CfgBoolean CFG_STRUCTURE_FINGERPRINT =
+            new CfgBoolean(DbManagerJdbc.class, "structureFingerprint", true);
+    private static CfgInt CFG_INIT_THREADS = new CfgInt(DbManagerJdbc.class, "initThreads", 1);
+    private static CfgBoolean CFG_LAZY_TABLES =
+            new CfgBoolean(DbManagerJdbc.class, "lazyTables", false);
+    private static CfgBoolean CFG_WARM_UP = new CfgBoolean(DbManagerJdbc.class, "warmUp", false);
+    private static CfgInt CFG_QUERY_CACHE_SIZE =
+            new CfgInt(DbManagerJdbc.class, "queryCacheSize", 1000);
 
     private DbSchema schema;
     private DbPool pool;
     private DbPool poolRo;
-    private HashMap<String, Table> cIndex = new HashMap<String, Table>();
-    private HashMap<String, Object> nameMapping;
-    private Map<String, Object> nameMappingRO;
-
-    private DbProperties schemaPersistence;
-    private MetadataBundle caoBundle;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile Snapshot loading;
     private MActivator activator;
-    private Lock reloadLock = new ThreadLock("reload");
     private String dataSourceName;
 
     public DbManagerJdbc(String dataSourceName, DbPool pool, DbPool poolRo, DbSchema schema)
@@ -179,9 +193,8 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String qualification,
             Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
-
         Class<?> clazz = schema.findClassForObject(object, this);
+        initLazyTable(clazz);
         String s = createSqlSelect(clazz, "*", qualification);
         log().t("getByQualification", registryName == null ? clazz : registryName, s, attributes);
         return executeQuery(con, object, registryName, s, attributes);
@@ -257,9 +270,8 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String qualification,
             Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
-
         Class<?> clazz = schema.findClassForObject(object, this);
+        initLazyTable(clazz);
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT count(*) AS count FROM $db.").append(getMappingName(clazz)).append("$ ");
         if (MString.isSet(qualification)) {
@@ -311,9 +323,8 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String qualification,
             Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
-
         Class<?> clazz = schema.findClassForObject(object, this);
+        initLazyTable(clazz);
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT max($db.")
                 .append(getMappingName(clazz))
@@ -365,10 +376,9 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             throws MException {
 
         Class<? extends Object> clazz2 = schema.findClassForObject(clazz, this);
+        initLazyTable(clazz2);
         getSchema().authorizeReadAttributes(con, this, clazz, clazz2, registryName, attribute);
 
-        reloadLock.waitWithException(MAX_LOCK);
-
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT $db.")
                 .append(getMappingName(clazz2))
@@ -413,7 +423,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String query,
             Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         try (Scope scope =
                 ITracer.get()
@@ -439,10 +449,10 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 }
                 con = myCon;
             }
-            if (attributes == null) map = nameMappingRO;
-            else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
             try {
-                DbStatement sth = con.createStatement(query);
+                MappedQuery compiled = compileQuery(current, query, attributes);
+                map = compiled.getAttributes(attributes, current.nameMapping);
+                DbStatement sth = compiled.getStatement(con);
                 DbResult res = sth.executeQuery(map);
                 return new DbCollectionImpl<T>(this, con, myCon != null, registryName, clazz, res);
             } catch (Throwable t) {
@@ -451,6 +461,29 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
     }
 
+    /**
+     * Return the compiled query with resolved name mapping. The compiled queries are cached with
+     * the snapshot, the cache is dropped if it grows over the limit. If the attributes override
+     * the name mapping the query is compiled without resolving and not cached.
+     *
+     * @param current
+     * @param query
+     * @param attributes
+     * @return The compiled query
+     * @throws MException
+     */
+    private MappedQuery compileQuery(
+            Snapshot current, String query, Map<String, Object> attributes) throws MException {
+        if (MappedQuery.overridesMapping(attributes)) return new MappedQuery(pool, query, null);
+        MappedQuery compiled = current.queries.get(query);
+        if (compiled != null) return compiled;
+        compiled = new MappedQuery(pool, query, current.nameMapping);
+        if (current == Snapshot.EMPTY) return compiled;
+        if (current.queries.size() >= CFG_QUERY_CACHE_SIZE.value()) current.queries.clear();
+        current.queries.put(query, compiled);
+        return compiled;
+    }
+
     /**
      * Returns a long value out of a query.
      *
@@ -465,7 +498,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     public <T> long executeCountQuery(
             DbConnection con, String attributeName, String query, Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
         try (Scope scope =
                 ITracer.get()
                         .enter(
@@ -488,12 +521,12 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 }
                 con = myCon;
             }
-            if (attributes == null) map = nameMappingRO;
-            else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
             DbStatement sth = null;
             DbResult res = null;
             try {
-                sth = con.createStatement(query);
+                MappedQuery compiled = compileQuery(current, query, attributes);
+                map = compiled.getAttributes(attributes, current.nameMapping);
+                sth = compiled.getStatement(con);
                 res = sth.executeQuery(map);
                 long count = -1;
                 while (res.next()) count = res.getLong(attributeName);
@@ -517,7 +550,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     public <T> List<T> executeAttributeQuery(
             DbConnection con, String alias, String query, Map<String, Object> attributes)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
         try (Scope scope =
                 ITracer.get()
                         .enter(
@@ -540,10 +573,10 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 }
                 con = myCon;
             }
-            if (attributes == null) map = nameMappingRO;
-            else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
             try {
-                DbStatement sth = con.createStatement(query);
+                MappedQuery compiled = compileQuery(current, query, attributes);
+                map = compiled.getAttributes(attributes, current.nameMapping);
+                DbStatement sth = compiled.getStatement(con);
                 DbResult res = sth.executeQuery(map);
                 LinkedList<T> out = new LinkedList<>();
                 while (res.next()) {
@@ -576,8 +609,8 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     @JmxManaged(descrition = "Database Properties of the Schema")
     public DbProperties getSchemaProperties() {
-        reloadLock.waitWithException(MAX_LOCK);
-        return schemaPersistence;
+        Snapshot current = snapshot;
+        return current.schemaPersistence;
     }
 
     @Override
@@ -610,7 +643,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public Object getObject(DbConnection con, String registryName, Object... keys)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         //		registryName = registryName.toLowerCase();
 
@@ -625,7 +658,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
 
         log().t("get", registryName, keys);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -685,7 +718,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public boolean existsObject(DbConnection con, String registryName, Object... keys)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
         log().t("existsObject", registryName, keys);
         //		registryName = registryName.toLowerCase();
 
@@ -699,7 +732,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             }
         }
 
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -734,7 +767,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     void fillObject(String registryName, Object object, DbConnection con, DbResult res)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         if (registryName == null) {
             Class<?> clazz = getSchema().findClassForObject(object, this);
@@ -747,7 +780,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
 
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -783,7 +816,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public void reloadObject(DbConnection con, String registryName, Object object)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -807,7 +840,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
 
         log().t("reload", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -863,7 +896,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public boolean objectChanged(DbConnection con, String registryName, Object object)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -887,7 +920,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
 
         log().t("changed", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -937,7 +970,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public void fillObject(DbConnection con, String registryName, Object object, Object... keys)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -960,7 +993,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
 
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -1009,7 +1042,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public void createObject(DbConnection con, String registryName, Object object)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
         DbConnection myCon = null;
         if (con == null) {
             try {
@@ -1031,7 +1064,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
         log().t("create", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -1064,6 +1097,82 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
     }
 
+    @Override
+    public void createObjects(Collection<?> objects) throws MException {
+        createObjects(null, null, objects);
+    }
+
+    @Override
+    public void createObjects(DbConnection con, String registryName, Collection<?> objects)
+            throws MException {
+        Snapshot current = snapshot;
+        DbConnection myCon = null;
+        if (con == null) {
+            try {
+                myCon = schema.getConnection(pool);
+                con = myCon;
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, t);
+            }
+        }
+
+        try {
+            // group by table, keep the order inside of a table
+            LinkedHashMap<Table, List<Object>> groups = new LinkedHashMap<>();
+            for (Object object : objects) {
+                String objRegistryName = registryName;
+                if (objRegistryName == null) {
+                    Class<?> clazz = schema.findClassForObject(object, this);
+                    if (clazz == null)
+                        throw new MException(
+                                RC.ERROR,
+                                "class definition not found for object",
+                                object.getClass().getCanonicalName());
+                    objRegistryName = getRegistryName(clazz);
+                }
+                Table c = getTable(current, objRegistryName);
+                if (c == null)
+                    throw new MException(
+                            RC.ERROR, "class definition not found in schema", objRegistryName);
+                groups.computeIfAbsent(c, x -> new LinkedList<>()).add(object);
+            }
+
+            for (Map.Entry<Table, List<Object>> group : groups.entrySet()) {
+                Table c = group.getKey();
+                log().t("create", c.getRegistryName(), group.getValue().size());
+                try {
+                    // prepare objects
+                    for (Object object : group.getValue()) {
+                        c.prepareCreate(object);
+                        schema.doPreCreate(c, object, con, this);
+                    }
+
+                    // save objects
+                    c.createObjects(con, group.getValue());
+
+                    for (Object object : group.getValue())
+                        schema.doPostCreate(c, object, con, this);
+
+                } catch (Throwable t) {
+                    throw new MException(RC.STATUS.ERROR, c.getRegistryName(), t);
+                }
+            }
+        } finally {
+            try {
+                if (myCon != null) {
+                    try {
+                        schema.commitConnection(pool, myCon);
+                    } catch (Throwable t) {
+                        throw new MException(RC.STATUS.ERROR, t);
+                    }
+                    schema.closeConnection(pool, myCon);
+                }
+            } catch (Throwable t) {
+                log().w(t);
+            }
+        }
+    }
+
     @Override
     public void saveObject(Object object) throws MException {
         saveObject(null, null, object);
@@ -1089,7 +1198,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
      */
     @Override
     public void saveObject(DbConnection con, String registryName, Object object) throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -1111,16 +1220,21 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
         log().t("save", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
         try {
+            // remember the vstamp before it's changed by pre save
+            Object vstamp = c.getVstamp(object);
+
             // prepare object
             schema.doPreSave(c, object, con, this);
 
             // save object
-            c.saveObject(con, object);
+            c.saveObject(con, object, vstamp);
+        } catch (OptimisticLockException e) {
+            throw e;
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
         } finally {
@@ -1139,6 +1253,106 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         }
     }
 
+    @Override
+    public void upsertObject(Object object) throws MException {
+        upsertObject(null, null, object);
+    }
+
+    @Override
+    public void upsertObject(String registryName, Object object) throws MException {
+        upsertObject(null, registryName, object);
+    }
+
+    @Override
+    public void upsertObject(DbConnection con, String registryName, Object object)
+            throws MException {
+        upsertObjects(con, registryName, Collections.singletonList(object));
+    }
+
+    @Override
+    public void upsertObjects(Collection<?> objects) throws MException {
+        upsertObjects(null, null, objects);
+    }
+
+    @Override
+    public void upsertObjects(DbConnection con, String registryName, Collection<?> objects)
+            throws MException {
+        Snapshot current = snapshot;
+
+        DbConnection myCon = null;
+        if (con == null) {
+            try {
+                myCon = schema.getConnection(pool);
+                con = myCon;
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, t);
+            }
+        }
+
+        try {
+            for (Object object : objects) {
+                String objRegistryName = registryName;
+                if (objRegistryName == null) {
+                    Class<?> clazz = schema.findClassForObject(object, this);
+                    if (clazz == null)
+                        throw new MException(
+                                RC.ERROR,
+                                "class definition not found for object",
+                                object.getClass().getCanonicalName());
+                    objRegistryName = getRegistryName(clazz);
+                }
+                log().t("upsert", objRegistryName, object);
+                Table c = getTable(current, objRegistryName);
+                if (c == null)
+                    throw new MException(
+                            RC.ERROR, "class definition not found in schema", objRegistryName);
+
+                try {
+                    if (!c.isUpsertSupported()) {
+                        // createObject prepares the object itself
+                        if (c.existsObject(con, c.getPrimaryKeyValues(object)))
+                            saveObject(con, objRegistryName, object);
+                        else createObject(con, objRegistryName, object);
+                        continue;
+                    }
+
+                    boolean persistent =
+                            object instanceof DbObject && ((DbObject) object).isAdbPersistent();
+
+                    // prepare object
+                    if (persistent) schema.doPreSave(c, object, con, this);
+                    else {
+                        c.prepareCreate(object);
+                        schema.doPreCreate(c, object, con, this);
+                    }
+
+                    // save object
+                    c.upsertObject(con, object, persistent);
+
+                    if (!persistent) schema.doPostCreate(c, object, con, this);
+
+                } catch (MException | OptimisticLockException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new MException(RC.STATUS.ERROR, objRegistryName, t);
+                }
+            }
+        } finally {
+            try {
+                if (myCon != null) {
+                    try {
+                        schema.commitConnection(pool, myCon);
+                    } catch (Throwable t) {
+                        throw new MException(RC.STATUS.ERROR, t);
+                    }
+                    schema.closeConnection(pool, myCon);
+                }
+            } catch (Throwable t) {
+                log().w(t);
+            }
+        }
+    }
+
     @Override
     public void saveObjectForce(Object object, boolean raw) throws MException {
         saveObjectForce(null, null, object, raw);
@@ -1167,7 +1381,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public void saveObjectForce(DbConnection con, String registryName, Object object, boolean raw)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -1189,7 +1403,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
         log().t("save force", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -1245,7 +1459,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             boolean raw,
             String... attributeNames)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
 
         DbConnection myCon = null;
         if (con == null) {
@@ -1267,7 +1481,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
         log().t("save force", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -1321,7 +1535,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     public void deleteObject(DbConnection con, String registryName, Object object)
             throws MException {
-        reloadLock.waitWithException(MAX_LOCK);
+        Snapshot current = snapshot;
         DbConnection myCon = null;
         if (con == null) {
             try {
@@ -1342,7 +1556,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             registryName = getRegistryName(clazz);
         }
         log().t("delete", registryName, object);
-        Table c = cIndex.get(registryName);
+        Table c = getTable(current, registryName);
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
@@ -1376,7 +1590,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
 
     @Override
     public boolean isConnected() {
-        return nameMapping != null;
+        return snapshot != Snapshot.EMPTY;
     }
 
     @Override
@@ -1391,24 +1605,30 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     public void disconnect() {
         log().i("disconnect");
         synchronized (this) {
-            if (nameMapping == null) return;
-            cIndex.clear();
-
-            nameMapping = null;
-            nameMappingRO = null;
-            caoBundle = null;
-            schemaPersistence = null;
+            snapshot = Snapshot.EMPTY;
         }
     }
 
+    /**
+     * Load the schema again and replace the current one in a single step. Concurrent calls are
+     * served by the previous schema until the new one is published.
+     */
     @Override
     public void reconnect() throws MException {
-        try {
-            reloadLock.lockWithException(MAX_LOCK);
-            disconnect();
-            connect();
-        } finally {
-            reloadLock.unlockHard();
+        reconnect(false);
+    }
+
+    /**
+     * Reconnect, if force is set all table structures are validated even if the structure
+     * fingerprint is not changed.
+     *
+     * @param force
+     * @throws MException
+     */
+    public void reconnect(boolean force) throws MException {
+        log().i("reconnect", force);
+        synchronized (this) {
+            loadDatabase(false, force);
         }
     }
 
@@ -1419,8 +1639,12 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
      */
     protected void initDatabase(boolean cleanup) throws MException {
 
-        if (nameMapping != null) return;
+        if (snapshot != Snapshot.EMPTY) return;
+
+        loadDatabase(cleanup, false);
+    }
 
+    private void loadDatabase(boolean cleanup, boolean force) throws MException {
         try (Scope scope =
                 ITracer.get()
                         .enter("initDatabase", "cleanup", cleanup, "dataSource", dataSourceName)) {
@@ -1430,36 +1654,64 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             DbConnection con = pool.getConnection();
             if (con == null) return;
 
-            cIndex.clear();
-            nameMapping = new HashMap<String, Object>();
-            nameMappingRO = Collections.unmodifiableMap(nameMapping);
-            caoBundle = new MetadataBundle();
-
-            // schema info
-            if (schema.hasPersistentInfo()) {
-                addClass(
-                        schema.getSchemaName(),
-                        getRegistryName(schema.getClass()),
-                        Property.class,
-                        con,
-                        cleanup);
-                schemaPersistence = new DbProperties(this, getRegistryName(schema.getClass()));
-            }
+            Snapshot next = new Snapshot(new MetadataBundle());
+            next.lazy = CFG_LAZY_TABLES.value();
+            next.cleanup = cleanup;
+            loading = next;
+
+            Dialect dialect = pool.getDialect();
+            dialect.startStructure(con);
+            try {
+                // schema info
+                if (schema.hasPersistentInfo()) {
+                    addClass(
+                            schema.getSchemaName(),
+                            getRegistryName(schema.getClass()),
+                            Property.class,
+                            con,
+                            cleanup);
+                    next.schemaPersistence =
+                            new DbProperties(this, getRegistryName(schema.getClass()));
+                    if (!force && !cleanup && CFG_STRUCTURE_FINGERPRINT.value())
+                        next.knownFingerprints = loadStructureFingerprints(con);
+                }
 
-            // classes
-            for (Class<? extends Object> clazz : types) {
-                addClass(null, getRegistryName(clazz), clazz, con, cleanup);
+                // classes
+                int threads = Math.min(CFG_INIT_THREADS.value(), types.length);
+                if (next.lazy) {
+                    for (Class<? extends Object> clazz : types) {
+                        String registryName = getRegistryName(clazz);
+                        Table c = schema.createTable(this, clazz, registryName, null);
+                        c.initDefinition();
+                        registerTable(registryName, c);
+                    }
+                } else if (threads > 1) {
+                    addClasses(types, threads, cleanup, con);
+                } else {
+                    for (Class<? extends Object> clazz : types) {
+                        addClass(null, getRegistryName(clazz), clazz, con, cleanup);
+                    }
+                }
+            } finally {
+                dialect.finishStructure(con);
             }
             con.commit();
 
             // fill name mapping
-            for (Table c : cIndex.values()) {
-                c.fillNameMapping(nameMapping);
+            for (Table c : next.tables.values()) {
+                c.fillNameMapping(next.mapping);
             }
 
-            schema.doFillNameMapping(nameMapping);
+            schema.doFillNameMapping(next.mapping);
+
+            // publish, the schema is not modified after this point
+            snapshot = next;
+            loading = null;
 
             // validate and migrate database version
+            DbProperties schemaPersistence = next.schemaPersistence;
+            for (Map.Entry<String, String> entry : next.fingerprints.entrySet())
+                storeStructureFingerprint(next, entry.getKey(), entry.getValue());
             if (schemaPersistence != null) {
                 String dbVersion = schemaPersistence.get(DATABASE_VERSION);
                 if (dbVersion == null) {
@@ -1478,10 +1730,14 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             }
 
             con.close();
+
+            if (next.lazy && CFG_WARM_UP.value()) warmUp(next);
         } catch (MException t) {
             throw t;
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, t);
+        } finally {
+            loading = null;
         }
     }
 
@@ -1492,13 +1748,154 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             DbConnection con,
             boolean cleanup)
             throws Exception {
-        Table c = schema.createTable(this, clazz, registryName, tableName);
-        c.initDatabase(con, cleanup);
+        Table c = initTable(tableName, registryName, clazz, con, cleanup);
         //		c.registryName = registryName;
         //		parseClass(c,tableName);
         //		c.createTable(con);
         //		c.postInit();
-        cIndex.put(registryName, c);
+        registerTable(registryName, c);
+    }
+
+    private Table initTable(
+            String tableName,
+            String registryName,
+            Class<? extends Object> clazz,
+            DbConnection con,
+            boolean cleanup)
+            throws Exception {
+        Table c = schema.createTable(this, clazz, registryName, tableName);
+        Map<String, String> known = loading.knownFingerprints;
+        c.initDatabase(con, cleanup, known == null ? null : known.get(registryName));
+        return c;
+    }
+
+    private void registerTable(String registryName, Table c) {
+        if (c.getStructureFingerprint() != null)
+            loading.fingerprints.put(registryName, c.getStructureFingerprint());
+        loading.tables.put(registryName, c);
+    }
+
+    /**
+     * Initialize the tables concurrently, each worker uses its own connection of the pool. The
+     * tables are registered in the order of the types after all workers are finished. If tables
+     * fail, all failures are collected into one exception. The workers share the metadata loaded
+     * by the dialect for the parent connection.
+     *
+     * @param types
+     * @param threads
+     * @param cleanup
+     * @param parent Connection of the loader, already started with startStructure
+     * @throws Exception
+     */
+    private void addClasses(
+            Class<? extends Object>[] types, int threads, boolean cleanup, DbConnection parent)
+            throws Exception {
+        log().d("init tables parallel", types.length, threads);
+        Snapshot next = loading;
+        Table[] tables = new Table[types.length];
+        Throwable[] errors = new Throwable[types.length];
+        AtomicInteger index = new AtomicInteger();
+
+        LinkedList<Callable<Void>> workers = new LinkedList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(
+                    () -> {
+                        DbConnection con = pool.getConnection();
+                        if (con == null)
+                            throw new MException(RC.STATUS.ERROR, "no connection available");
+                        next.loaders.add(Thread.currentThread());
+                        Dialect dialect = pool.getDialect();
+                        try {
+                            dialect.startStructure(con, parent);
+                            int i;
+                            while ((i = index.getAndIncrement()) < types.length) {
+                                try {
+                                    tables[i] =
+                                            initTable(
+                                                    null,
+                                                    getRegistryName(types[i]),
+                                                    types[i],
+                                                    con,
+                                                    cleanup);
+                                } catch (Throwable e) {
+                                    errors[i] = e;
+                                }
+                            }
+                            con.commit();
+                        } finally {
+                            dialect.finishStructure(con);
+                            con.close();
+                            next.loaders.remove(Thread.currentThread());
+                        }
+                        return null;
+                    });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> future : executor.invokeAll(workers)) future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        MException error = null;
+        for (int i = 0; i < types.length; i++) {
+            if (errors[i] != null) {
+                log().e("init table failed", types[i], errors[i]);
+                if (error == null)
+                    error =
+                            new MException(
+                                    RC.STATUS.ERROR,
+                                    "init table failed",
+                                    getRegistryName(types[i]),
+                                    errors[i]);
+                else error.addSuppressed(errors[i]);
+            } else {
+                registerTable(getRegistryName(types[i]), tables[i]);
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Load the fingerprints of the last structure validation directly from the schema properties
+     * table, the schema is not published at this time.
+     *
+     * @param con
+     * @return The fingerprints by registry name or null
+     */
+    private Map<String, String> loadStructureFingerprints(DbConnection con) {
+        Table properties = loading.tables.get(getRegistryName(schema.getClass()));
+        if (properties == null) return null;
+        String keyName = properties.getField("key").getMappedName();
+        String valueName = properties.getField("value").getMappedName();
+        HashMap<String, Object> attributes = new HashMap<>();
+        attributes.put("prefix", DATABASE_STRUCTURE + "%");
+        HashMap<String, String> out = new HashMap<>();
+        try {
+            DbResult res =
+                    con.createStatement(
+                                    "SELECT "
+                                            + keyName
+                                            + ","
+                                            + valueName
+                                            + " FROM "
+                                            + properties.getTableName()
+                                            + " WHERE "
+                                            + keyName
+                                            + " LIKE $prefix$")
+                            .executeQuery(attributes);
+            while (res.next()) {
+                String key = res.getString(keyName);
+                if (key != null && key.startsWith(DATABASE_STRUCTURE))
+                    out.put(key.substring(DATABASE_STRUCTURE.length()), res.getString(valueName));
+            }
+            res.close();
+        } catch (Throwable t) {
+            log().w("can't load structure fingerprints", t);
+            return null;
+        }
+        return out;
     }
 
     @Override
@@ -1525,34 +1922,115 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     @JmxManaged(descrition = "Current mapping of the table and column names")
     public Map<String, Object> getNameMapping() {
-        reloadLock.waitWithException(MAX_LOCK);
-        return nameMappingRO;
+        return snapshot.nameMapping;
     }
 
     @Override
     public MetadataBundle getCaoMetadata() {
-        reloadLock.waitWithException(MAX_LOCK);
-        return caoBundle;
+        // tables are asking for the metadata while the schema is loading
+        Snapshot next = loading;
+        if (next != null && next.loaders.contains(Thread.currentThread())) return next.caoBundle;
+        return snapshot.caoBundle;
     }
 
     @Override
     @JmxManaged(descrition = "Returns valide registry names")
     public String[] getRegistryNames() {
-        reloadLock.waitWithException(MAX_LOCK);
-        return cIndex.keySet().toArray(new String[0]);
+        return snapshot.tables.keySet().toArray(new String[0]);
     }
 
     @Override
     @JmxManaged(descrition = "Returns the table for the registry name")
     public Table getTable(String registryName) {
-        reloadLock.waitWithException(MAX_LOCK);
-        return cIndex.get(registryName);
+        return getTable(snapshot, registryName);
+    }
+
+    /**
+     * Return the table of the snapshot, lazy tables are initialized with the first access. The
+     * initialization is guarded per table, other tables are not blocked.
+     *
+     * @param current
+     * @param registryName
+     * @return The table or null
+     */
+    private Table getTable(Snapshot current, String registryName) {
+        Table c = current.tables.get(registryName);
+        if (c == null || c.isInitialized()) return c;
+        synchronized (c) {
+            if (c.isInitialized()) return c;
+            log().d("init lazy table", registryName);
+            DbConnection con = null;
+            try {
+                con = pool.getConnection();
+                Map<String, String> known = current.knownFingerprints;
+                c.initStructure(
+                        con, current.cleanup, known == null ? null : known.get(registryName));
+                con.commit();
+            } catch (Throwable t) {
+                throw new MRuntimeException(RC.STATUS.ERROR, "init table failed", registryName, t);
+            } finally {
+                if (con != null) con.close();
+            }
+        }
+        storeStructureFingerprint(current, registryName, c.getStructureFingerprint());
+        return c;
+    }
+
+    /**
+     * Queries are created for a class without touching the table, lazy tables must be initialized
+     * before.
+     *
+     * @param clazz
+     */
+    private void initLazyTable(Class<?> clazz) {
+        Snapshot current = snapshot;
+        if (current.lazy && clazz != null) getTable(current, getRegistryName(clazz));
+    }
+
+    private void storeStructureFingerprint(Snapshot current, String registryName, String value) {
+        if (value == null
+                || current.schemaPersistence == null
+                || !CFG_STRUCTURE_FINGERPRINT.value()) return;
+        String known =
+                current.knownFingerprints == null
+                        ? null
+                        : current.knownFingerprints.get(registryName);
+        if (value.equals(known)) return;
+        try {
+            current.schemaPersistence.set(DATABASE_STRUCTURE + registryName, value);
+        } catch (Throwable t) {
+            log().w("can't store structure fingerprint", registryName, t);
+        }
+    }
+
+    /**
+     * Initialize all lazy tables of the snapshot in the background. Stops if the snapshot is
+     * replaced.
+     *
+     * @param current
+     */
+    private void warmUp(Snapshot current) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            for (String registryName : current.tables.keySet()) {
+                                if (snapshot != current) return;
+                                try {
+                                    getTable(current, registryName);
+                                } catch (Throwable t) {
+                                    log().w("warm up failed", registryName, t);
+                                }
+                            }
+                            log().d("warm up finished", dataSourceName);
+                        },
+                        "adb-warmup-" + dataSourceName);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @Override
     public Object createSchemaObject(String registryName) throws Exception {
-        reloadLock.waitWithException(MAX_LOCK);
-        Table table = cIndex.get(registryName);
+        Table table = getTable(snapshot, registryName);
         if (table == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
         return schema.createObject(table.getClazz(), table.getRegistryName(), null, this, false);
@@ -1560,7 +2038,6 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
 
     @Override
     public String getRegistryName(Object object) {
-        reloadLock.waitWithException(MAX_LOCK);
         if (object instanceof Class<?>) {
             return ((Class<?>) object).getCanonicalName();
         }
@@ -1571,13 +2048,11 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
 
     @Override
     public String getMappingName(Class<?> clazz) {
-        reloadLock.waitWithException(MAX_LOCK);
         return clazz.getSimpleName().toLowerCase();
     }
 
     @Override
     public <T extends Object> T inject(T object) {
-        reloadLock.waitWithException(MAX_LOCK);
         schema.injectObject(object, this, getTable(getRegistryName(object)));
         return object;
     }
@@ -1598,4 +2073,34 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         ret.init(this);
         return ret;
     }
+
+    /**
+     * The loaded schema. The registered tables and the name mapping are filled by the loading
+     * thread and not changed after the snapshot is published, a reload creates a new instance.
+     * Published snapshots are still changed in two thread safe places: lazy tables are initialized
+     * on first use under the monitor of the table and compiled queries are cached in the
+     * concurrent query map.
+     */
+    private static class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(null);
+
+        final Set<Thread> loaders = ConcurrentHashMap.newKeySet();
+        final LinkedHashMap<String, Table> tables = new LinkedHashMap<>();
+        final HashMap<String, Object> mapping = new HashMap<>();
+        final Map<String, Object> nameMapping;
+        final MetadataBundle caoBundle;
+        final HashMap<String, String> fingerprints = new HashMap<>();
+        final ConcurrentHashMap<String, MappedQuery> queries = new ConcurrentHashMap<>();
+        DbProperties schemaPersistence;
+        Map<String, String> knownFingerprints;
+        boolean lazy;
+        boolean cleanup;
+
+        Snapshot(MetadataBundle caoBundle) {
+            if (caoBundle != null) loaders.add(Thread.currentThread());
+            this.caoBundle = caoBundle;
+            this.nameMapping = caoBundle == null ? null : Collections.unmodifiableMap(mapping);
+        }
+    }
 }
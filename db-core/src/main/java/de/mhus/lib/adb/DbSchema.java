@@ -19,6 +19,8 @@ import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.mhus.lib.adb.model.AttributeFeature;
 import de.mhus.lib.adb.model.AttributeFeatureCut;
@@ -56,6 +58,15 @@ public abstract class DbSchema extends MObject implements PojoModelFactory {
     protected String tablePrefix = "";
     private LinkedList<Class<? extends Object>> objectTypes;
     protected LockStrategy lockStrategy; // set this object to enable locking
+    // keyed by the class itself, a refreshed bundle gets a new class and new methods
+    private ClassValue<ConcurrentHashMap<String, Optional<Method>>> uniqueIdMethods =
+            new ClassValue<ConcurrentHashMap<String, Optional<Method>>>() {
+                @Override
+                protected ConcurrentHashMap<String, Optional<Method>> computeValue(
+                        Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
 
     public abstract void findObjectTypes(List<Class<? extends Object>> list);
 
@@ -150,7 +161,10 @@ public abstract class DbSchema extends MObject implements PojoModelFactory {
 
     /**
      * Return a new unique Id for a new entry in the table. Only used for auto_id fields with type
-     * long. The default implementation is not save !!!
+     * long. The default implementation asks the object for a method doCreateUniqueIdFor_[field]
+     * with the manager as parameter. The method is resolved once per class and field. The default
+     * implementation is not save !!! Use the table attribute id_generator=block for a save
+     * generator.
      *
      * @param table
      * @param field
@@ -162,25 +176,31 @@ public abstract class DbSchema extends MObject implements PojoModelFactory {
             Table table, Field field, Object obj, String name, DbManager manager) {
 
         // Ask Object-Class/Object to create an unique Id
+        Optional<Method> helperMethod =
+                uniqueIdMethods
+                        .get(obj.getClass())
+                        .computeIfAbsent(
+                                field.getName(),
+                                k -> {
+                                    try {
+                                        return Optional.of(
+                                                obj.getClass()
+                                                        .getMethod(
+                                                                "doCreateUniqueIdFor_" + k,
+                                                                new Class[] {DbManager.class}));
+                                    } catch (NoSuchMethodException nsme) {
+                                        log().t("method not found", field, nsme);
+                                        return Optional.empty();
+                                    }
+                                });
+        if (!helperMethod.isPresent()) return;
         try {
-            Method helperMethod =
-                    field.getType()
-                            .getMethod(
-                                    "doCreateUniqueIdFor_" + field.getName(),
-                                    new Class[] {DbManager.class});
-            Object res = helperMethod.invoke(obj, new Object[] {manager});
+            Object res = helperMethod.get().invoke(obj, new Object[] {manager});
             if (res == null) return;
             field.set(obj, res);
-            return;
-        } catch (NoSuchMethodException nsme) {
-            log().t("method not found", field, nsme);
         } catch (Throwable t) {
             log().t("create id failed", field, t);
-            return;
         }
-
-        //		long id = base(UniqueId.class).nextUniqueId();
-        //		field.set(obj , id);
     }
 
     /**
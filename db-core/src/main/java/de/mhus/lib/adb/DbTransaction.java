@@ -15,11 +15,15 @@
  */
 package de.mhus.lib.adb;
 
+import java.util.concurrent.Callable;
+
+import de.mhus.lib.adb.transaction.OptimisticLockException;
 import de.mhus.lib.adb.transaction.TransactionLock;
 import de.mhus.lib.adb.transaction.TransactionPool;
 import de.mhus.lib.annotations.adb.DbTransactionable;
 import de.mhus.lib.annotations.adb.TransactionConnection;
 import de.mhus.lib.core.MPeriod;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.core.logging.MLogUtil;
 import de.mhus.lib.errors.MException;
@@ -40,6 +44,9 @@ public class DbTransaction {
     public static final CfgLong CFG_DEFAULT_TIMEOUT =
             new CfgLong(DbTransaction.class, "defaultTimeout", MPeriod.MINUTE_IN_MILLISECONDS * 10);
 
+    public static final CfgInt CFG_OPTIMISTIC_RETRIES =
+            new CfgInt(DbTransaction.class, "optimisticRetries", 3);
+
     /**
      * lock accept only nested locks with already locked objects.
      *
@@ -116,6 +123,49 @@ public class DbTransaction {
         return new DbLock(objects);
     }
 
+    /**
+     * Shared lock, other shared locks of the objects are possible at the same time. Nested locks
+     * must be shared locks of already locked objects.
+     *
+     * @param objects
+     * @return The Lock
+     * @throws de.mhus.lib.errors.TimeoutRuntimeException if any.
+     */
+    public static DbLock readLock(Object... objects) throws TimeoutRuntimeException {
+        return readLock(CFG_DEFAULT_TIMEOUT.value(), objects);
+    }
+
+    /**
+     * Shared lock, other shared locks of the objects are possible at the same time. Nested locks
+     * must be shared locks of already locked objects.
+     *
+     * @param timeout a long.
+     * @param objects
+     * @return The Lock
+     * @throws de.mhus.lib.errors.TimeoutRuntimeException if any.
+     */
+    public static DbLock readLock(long timeout, Object... objects) throws TimeoutRuntimeException {
+        TransactionPool.instance()
+                .lock(timeout, new TransactionLock(false, objects).setShared(true));
+        return new DbLock(objects);
+    }
+
+    /**
+     * Shared lock, other shared locks of the objects are possible at the same time.
+     *
+     * @param manager a {@link de.mhus.lib.adb.DbManager} object.
+     * @param timeout a long.
+     * @param objects
+     * @return The Lock
+     * @throws de.mhus.lib.errors.TimeoutRuntimeException if any.
+     */
+    public static DbLock readLock(DbManager manager, long timeout, Object... objects)
+            throws TimeoutRuntimeException {
+        TransactionPool.instance()
+                .lock(timeout, new TransactionLock(manager, false, objects).setShared(true));
+        return new DbLock(objects);
+    }
+
     /** Release all locked object ids This method will never throw an Throwable. */
     public static void releaseLock() {
         try {
@@ -259,4 +309,54 @@ public class DbTransaction {
             return false;
         }
     }
+
+    /**
+     * Execute the task and retry it if an optimistic update conflict occurs. The task must reload
+     * the objects it modifies, otherwise the retry will fail again.
+     *
+     * @param task The task to execute
+     * @return The result of the task
+     * @throws Exception The last conflict or any other error of the task
+     */
+    public static <T> T retryOptimistic(Callable<T> task) throws Exception {
+        return retryOptimistic(CFG_OPTIMISTIC_RETRIES.value(), task);
+    }
+
+    /**
+     * Execute the task and retry it if an optimistic update conflict occurs. The task must reload
+     * the objects it modifies, otherwise the retry will fail again.
+     *
+     * @param retries Maximum number of retries
+     * @param task The task to execute
+     * @return The result of the task
+     * @throws Exception The last conflict or any other error of the task
+     */
+    public static <T> T retryOptimistic(int retries, Callable<T> task) throws Exception {
+        int cnt = 0;
+        while (true) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (cnt >= retries || !isOptimisticConflict(e)) throw e;
+                cnt++;
+                MLogUtil.log().d("retry optimistic update", cnt, e.getMessage());
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Return true if the exception or one of its causes is an optimistic update conflict.
+     *
+     * @param t The exception
+     * @return true if it's a conflict
+     */
+    public static boolean isOptimisticConflict(Throwable t) {
+        while (t != null) {
+            if (t instanceof OptimisticLockException) return true;
+            if (t.getCause() == t) break;
+            t = t.getCause();
+        }
+        return false;
+    }
 }
@@ -59,4 +59,14 @@ public abstract class Feature extends MObject {
     public void postCreateObject(DbConnection con, Object object) throws Exception {}
 
     public void postSaveObject(DbConnection con, Object object) throws Exception {}
+
+    /**
+     * Return false if the feature needs every object stored before the next object is created. In
+     * this case bulk creates will insert the objects row by row.
+     *
+     * @return true if objects can be inserted with one multi row statement
+     */
+    public boolean isMultiRowCreateSupported() {
+        return true;
+    }
 }
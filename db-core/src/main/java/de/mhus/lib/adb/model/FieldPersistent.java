@@ -26,9 +26,13 @@ import java.util.UUID;
 
 import de.mhus.lib.adb.DbDynamic;
 import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.util.BlockIdGenerator;
+import de.mhus.lib.adb.util.TimeUuidGenerator;
 import de.mhus.lib.annotations.adb.DbType;
+import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.MString;
+import de.mhus.lib.core.cfg.CfgString;
 import de.mhus.lib.core.io.MObjectInputStream;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.pojo.PojoAttribute;
@@ -45,7 +49,13 @@ import de.mhus.lib.sql.DbResult;
  */
 public class FieldPersistent extends Field {
 
+    /** Default generator for auto_id UUIDs: 'random' or 'time' (time ordered) */
+    public static final CfgString CFG_AUTO_UUID =
+            new CfgString(FieldPersistent.class, "autoUuid", "random");
+
     private String autoPrefix;
+    private boolean timeUuid;
+    private BlockIdGenerator idGenerator;
 
     /**
      * Constructor for FieldPersistent.
@@ -116,6 +126,32 @@ public class FieldPersistent extends Field {
         hints = MUri.explodeArray(attr.getString("hints", null));
         if (isPrimary) nullable = false;
 
+        INode tableAttr = table.getAttributes();
+        if (autoId && (attribute.getType() == UUID.class || attribute.getType() == String.class)) {
+            String generator =
+                    attr.getString(
+                            "auto_uuid",
+                            tableAttr == null
+                                    ? CFG_AUTO_UUID.value()
+                                    : tableAttr.getString("auto_uuid", CFG_AUTO_UUID.value()));
+            timeUuid = "time".equals(generator);
+        }
+
+        if (autoId && (attribute.getType() == long.class || attribute.getType() == int.class)) {
+            String generator =
+                    attr.getString(
+                            "id_generator",
+                            tableAttr == null ? null : tableAttr.getString("id_generator", null));
+            if ("block".equals(generator)) {
+                if (manager.getSchema().hasPersistentInfo()) {
+                    int blockSize = BlockIdGenerator.CFG_BLOCK_SIZE.value();
+                    if (tableAttr != null) blockSize = tableAttr.getInt("id_block_size", blockSize);
+                    blockSize = attr.getInt("id_block_size", blockSize);
+                    idGenerator = new BlockIdGenerator(manager, table, this, blockSize);
+                } else log().w("block id generator needs persistent schema info", table, nameOrg);
+            }
+        }
+
         super.init(features);
     }
 
@@ -142,7 +178,7 @@ public class FieldPersistent extends Field {
             if (attribute.getType() == UUID.class) {
                 Object curVal = get(obj);
                 if (curVal == null) {
-                    UUID uuid = UUID.randomUUID();
+                    UUID uuid = createUuid();
                     if (MString.isSet(autoPrefix)) {
                         String uidStr = uuid.toString();
                         uidStr = autoPrefix + uidStr.substring(autoPrefix.length());
@@ -153,7 +189,7 @@ public class FieldPersistent extends Field {
             } else if (attribute.getType() == String.class) {
                 Object curVal = get(obj);
                 if (curVal == null) {
-                    UUID uuid = UUID.randomUUID();
+                    UUID uuid = createUuid();
                     String uidStr = uuid.toString();
                     if (MString.isSet(autoPrefix)) {
                         uidStr = autoPrefix + uidStr.substring(autoPrefix.length());
@@ -161,11 +197,25 @@ public class FieldPersistent extends Field {
                     set(obj, uidStr);
                 }
             } else if (attribute.getType() == long.class || attribute.getType() == int.class) {
-                manager.getSchema().doCreateUniqueIdFor(table, this, obj, name, manager);
+                if (idGenerator == null)
+                    manager.getSchema().doCreateUniqueIdFor(table, this, obj, name, manager);
+                else if (MCast.tolong(get(obj), 0) == 0) {
+                    long id = idGenerator.next();
+                    if (attribute.getType() == int.class) set(obj, (int) id);
+                    else set(obj, id);
+                }
             } else log().w("can't set auto_id to object", name);
         }
     }
 
+    private UUID createUuid() {
+        return timeUuid ? TimeUuidGenerator.next() : UUID.randomUUID();
+    }
+
+    public boolean isTimeUuid() {
+        return timeUuid;
+    }
+
     /** {@inheritDoc} */
     @Override
     public Object getFromTarget(Object obj) throws Exception {
@@ -16,6 +16,7 @@
 package de.mhus.lib.adb.model;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -23,10 +24,13 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbSchema;
+import de.mhus.lib.adb.transaction.OptimisticLockException;
 import de.mhus.lib.annotations.adb.DbIndex;
 import de.mhus.lib.annotations.adb.DbIndex.TYPE;
 import de.mhus.lib.basics.RC;
@@ -34,8 +38,10 @@ import de.mhus.lib.annotations.adb.DbPersistent;
 import de.mhus.lib.annotations.adb.DbPrimaryKey;
 import de.mhus.lib.annotations.adb.DbTable;
 import de.mhus.lib.annotations.adb.DbType;
+import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.core.node.NodeList;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.MNode;
@@ -57,6 +63,13 @@ import de.mhus.lib.sql.Dialect;
  */
 public abstract class Table extends MObject {
 
+    /** Name of the version stamp attribute used for optimistic updates */
+    public static final String VSTAMP = "vstamp";
+
+    private static final String EXPECTED_VSTAMP = "_vstamp";
+    private static final CfgBoolean CFG_OPTIMISTIC =
+            new CfgBoolean(Table.class, "optimistic", false);
+
     protected Class<?> clazz;
     protected String registryName;
     protected DbManager manager;
@@ -75,6 +88,13 @@ public abstract class Table extends MObject {
     private DbPrepared sqlUpdate;
     private DbPrepared sqlUpdateForce;
     private DbPrepared sqlDelete;
+    private DbPrepared sqlUpsert;
+    private String sqlInsertRows;
+    // multi row insert statements by row count, only powers of two
+    private ConcurrentHashMap<Integer, DbPrepared> sqlInsertRowsCache = new ConcurrentHashMap<>();
+    private Field vstamp;
+    private String structureFingerprint;
+    private volatile boolean initialized;
     private LinkedList<Feature> features = new LinkedList<Feature>();
     protected INode attributes;
 
@@ -102,6 +122,31 @@ public abstract class Table extends MObject {
      * @throws java.lang.Exception if any.
      */
     public void initDatabase(DbConnection con, boolean cleanup) throws Exception {
+        initDatabase(con, cleanup, null);
+    }
+
+    /**
+     * Initialize the table, the structure validation is skipped if the fingerprint of the
+     * structure is equals to the known fingerprint.
+     *
+     * @param con
+     * @param cleanup
+     * @param knownFingerprint The fingerprint of the last validation or null
+     * @throws Exception
+     */
+    public void initDatabase(DbConnection con, boolean cleanup, String knownFingerprint)
+            throws Exception {
+        initDefinition();
+        initStructure(con, cleanup, knownFingerprint);
+    }
+
+    /**
+     * Parse the table definition, fields and features. The table is known by name and mapping
+     * after this step but not usable before initStructure is called.
+     *
+     * @throws Exception
+     */
+    public void initDefinition() throws Exception {
 
         DbTable table = MSystem.findAnnotation(clazz, DbTable.class);
         if (tableName != null) {
@@ -132,9 +177,30 @@ public abstract class Table extends MObject {
                 if (feature != null) features.add(feature);
             }
         }
+    }
 
-        createTable(con, cleanup);
+    /**
+     * Validate the structure in the database and prepare the statements.
+     *
+     * @param con
+     * @param cleanup
+     * @param knownFingerprint The fingerprint of the last validation or null
+     * @throws Exception
+     */
+    public void initStructure(DbConnection con, boolean cleanup, String knownFingerprint)
+            throws Exception {
+        createTable(con, cleanup, knownFingerprint);
         postInit();
+        initialized = true;
+    }
+
+    /**
+     * Returns true if the structure is initialized and the table is ready to use.
+     *
+     * @return true if initialized
+     */
+    public boolean isInitialized() {
+        return initialized;
     }
 
     /**
@@ -251,6 +317,120 @@ public abstract class Table extends MObject {
         }
     }
 
+    /**
+     * Create all objects using multi row INSERT statements if supported by the dialect. The
+     * objects must be prepared (prepareCreate) before. The number of rows per statement is limited
+     * by the dialect. If a feature needs per object callbacks the objects are created row by row.
+     *
+     * @param con a {@link de.mhus.lib.sql.DbConnection} object.
+     * @param objects The objects to create
+     * @throws java.lang.Exception if any.
+     */
+    public void createObjects(DbConnection con, List<?> objects) throws Exception {
+
+        Dialect dialect = manager.getPool().getDialect();
+        int maxRows = dialect.getMaxInsertRows();
+        boolean multiRow = maxRows > 1 && objects.size() > 1;
+        for (Feature f : features) if (!f.isMultiRowCreateSupported()) multiRow = false;
+        if (!multiRow) {
+            for (Object object : objects) createObject(con, object);
+            return;
+        }
+
+        int maxLength = dialect.getMaxStatementLength();
+        ArrayList<HashMap<String, Object>> rows = new ArrayList<>(maxRows);
+        int length = sqlInsertRows.length();
+        for (Object object : objects) {
+
+            for (Feature f : features) f.preCreateObject(con, object);
+
+            HashMap<String, Object> attributes = new HashMap<String, Object>();
+            for (Field f : fList) {
+                attributes.put(f.name, f.getFromTarget(object));
+            }
+
+            schema.internalCreateObject(con, name, object, attributes);
+
+            int rowLength = estimateRowLength(attributes);
+            if (rows.size() > 0 && (rows.size() >= maxRows || length + rowLength > maxLength)) {
+                insertRows(con, rows);
+                rows.clear();
+                length = sqlInsertRows.length();
+            }
+            rows.add(attributes);
+            length += rowLength;
+        }
+        if (rows.size() > 0) insertRows(con, rows);
+
+        for (Object object : objects) {
+            for (Feature f : features) f.postCreateObject(con, object);
+
+            for (FieldRelation f : relationList) {
+                f.created(con, object);
+            }
+        }
+    }
+
+    private int estimateRowLength(HashMap<String, Object> attributes) {
+        int length = 3;
+        for (Field f : fList) {
+            if (!f.isPersistent()) continue;
+            Object value = attributes.get(f.name);
+            // quotes, separator and escaping
+            length += value == null ? 5 : String.valueOf(value).length() + 8;
+        }
+        return length;
+    }
+
+    /**
+     * Insert the rows in chunks with a power of two size. This way only log2(maxRows) statements
+     * are prepared and cached for the table.
+     */
+    private void insertRows(DbConnection con, List<HashMap<String, Object>> rows)
+            throws Exception {
+        int offset = 0;
+        while (offset < rows.size()) {
+            int chunk = Integer.highestOneBit(rows.size() - offset);
+            insertChunk(con, rows.subList(offset, offset + chunk));
+            offset += chunk;
+        }
+    }
+
+    private void insertChunk(DbConnection con, List<HashMap<String, Object>> rows)
+            throws Exception {
+        if (rows.size() == 1) {
+            sqlInsert.getStatement(con).execute(rows.get(0));
+            return;
+        }
+        HashMap<String, Object> attributes = new HashMap<String, Object>();
+        int nr = 0;
+        for (HashMap<String, Object> row : rows) {
+            for (Map.Entry<String, Object> entry : row.entrySet())
+                attributes.put(nr + "_" + entry.getKey(), entry.getValue());
+            nr++;
+        }
+        DbPrepared query = sqlInsertRowsCache.get(rows.size());
+        if (query == null) {
+            StringBuilder sql = new StringBuilder(sqlInsertRows);
+            for (nr = 0; nr < rows.size(); nr++) {
+                if (nr > 0) sql.append(",");
+                sql.append("(");
+                int cnt = 0;
+                for (Field f : fList) {
+                    if (f.isPersistent()) {
+                        if (cnt > 0) sql.append(",");
+                        sql.append("$").append(nr).append("_").append(f.name).append("$");
+                        cnt++;
+                    }
+                }
+                sql.append(")");
+            }
+            query = manager.getPool().createStatement(sql.toString());
+            sqlInsertRowsCache.put(rows.size(), query);
+        }
+        query.getStatement(con).execute(attributes);
+    }
+
     /**
      * saveObject.
      *
@@ -259,6 +439,21 @@ public abstract class Table extends MObject {
      * @throws java.lang.Exception if any.
      */
     public void saveObject(DbConnection con, Object object) throws Exception {
+        saveObject(con, object, getVstamp(object));
+    }
+
+    /**
+     * Save the object. If the table is in optimistic mode the update is only done if the vstamp in
+     * the database is the expected one, the vstamp will be incremented by the update statement.
+     *
+     * @param con a {@link de.mhus.lib.sql.DbConnection} object.
+     * @param object a {@link java.lang.Object} object.
+     * @param expectedVstamp The vstamp of the object before pre save, ignored if not optimistic
+     * @throws OptimisticLockException if the object was modified concurrently
+     * @throws java.lang.Exception if any.
+     */
+    public void saveObject(DbConnection con, Object object, Object expectedVstamp)
+            throws Exception {
 
         for (Feature f : features) f.preSaveObject(con, object);
 
@@ -273,9 +468,22 @@ public abstract class Table extends MObject {
 
         schema.internalSaveObject(con, name, object, attributes);
 
+        long expected = 0;
+        if (vstamp != null) {
+            expected = MCast.tolong(expectedVstamp, 0);
+            attributes.put(EXPECTED_VSTAMP, expected);
+        }
+
         int c = sqlUpdate.getStatement(con).executeUpdate(attributes);
+        if (c == 0 && vstamp != null) {
+            // pre save could have changed the vstamp, a retry must send the old value again
+            setVstamp(object, expected);
+            throw new OptimisticLockException(registryName, object, expected);
+        }
         if (c != 1) throw new MException(RC.ERROR, "update failed, updated objects {1}", c);
 
+        if (vstamp != null) setVstamp(object, expected + 1);
+
         for (Feature f : features) f.postSaveObject(con, object);
 
         for (FieldRelation f : relationList) {
@@ -283,6 +491,59 @@ public abstract class Table extends MObject {
         }
     }
 
+    /**
+     * Insert the object or update it if it already exists in one statement. For objects loaded
+     * from the database the save hooks of the features are used, otherwise the create hooks. Use
+     * isUpsertSupported() to check if the dialect supports it.
+     *
+     * @param con a {@link de.mhus.lib.sql.DbConnection} object.
+     * @param object a {@link java.lang.Object} object.
+     * @param persistent true if the object was loaded from the database
+     * @throws java.lang.Exception if any.
+     */
+    public void upsertObject(DbConnection con, Object object, boolean persistent)
+            throws Exception {
+        if (sqlUpsert == null) throw new MException(RC.NOT_SUPPORTED, "upsert not supported", name);
+
+        for (Feature f : features)
+            if (persistent) f.preSaveObject(con, object);
+            else f.preCreateObject(con, object);
+
+        HashMap<String, Object> attributes = new HashMap<String, Object>();
+        for (Field f : fList) {
+            attributes.put(f.name, f.getFromTarget(object));
+        }
+
+        if (persistent) {
+            for (FieldRelation f : relationList) {
+                f.prepareSave(con, object);
+            }
+            schema.internalSaveObject(con, name, object, attributes);
+        } else schema.internalCreateObject(con, name, object, attributes);
+
+        // the update count differs between the databases, do not check it
+        sqlUpsert.getStatement(con).executeUpdate(attributes);
+
+        for (Feature f : features)
+            if (persistent) f.postSaveObject(con, object);
+            else f.postCreateObject(con, object);
+
+        for (FieldRelation f : relationList) {
+            if (persistent) f.saved(con, object);
+            else f.created(con, object);
+        }
+    }
+
+    /**
+     * Return true if upsertObject() is supported by the dialect. Not supported for tables in
+     * optimistic mode.
+     *
+     * @return true if supported
+     */
+    public boolean isUpsertSupported() {
+        return sqlUpsert != null;
+    }
+
     /**
      * saveObjectForce.
      *
@@ -441,23 +702,38 @@ public abstract class Table extends MObject {
 
         sqlInsert = manager.getPool().createStatement(sql);
 
+        sqlInsertRows = sql.substring(0, sql.indexOf(" VALUES (") + 8);
+        sqlInsertRowsCache.clear();
+
         // ------
 
+        vstamp = fIndex.get(VSTAMP);
+        if (vstamp != null
+                && (vstamp.isPrimary
+                        || !vstamp.isPersistent()
+                        || !attributes.getBoolean("optimistic", CFG_OPTIMISTIC.value())))
+            vstamp = null;
+
         sql = "UPDATE " + tableName + " SET ";
         nr = 0;
         for (Field f : fList) {
-            if (!f.isPrimary && f.isPersistent() && !f.isReadOnly()) {
+            if (!f.isPrimary && f.isPersistent() && !f.isReadOnly() && f != vstamp) {
                 if (nr > 0) sql += ",";
                 sql += f.name + "=$" + f.name + "$";
                 nr++;
             }
         }
+        if (vstamp != null) {
+            if (nr > 0) sql += ",";
+            sql += vstamp.name + "=" + vstamp.name + "+1";
+        }
         sql += " WHERE ";
         nr = 0;
         for (Field f : pk) {
             sql += (nr > 0 ? " AND " : "") + f.name + "=$" + f.name + "$";
             nr++;
         }
+        if (vstamp != null) sql += " AND " + vstamp.name + "=$" + EXPECTED_VSTAMP + "$";
 
         sqlUpdate = manager.getPool().createStatement(sql);
 
@@ -491,6 +767,23 @@ public abstract class Table extends MObject {
         }
 
         sqlDelete = manager.getPool().createStatement(sql);
+
+        // ------
+
+        sqlUpsert = null;
+        if (vstamp == null) {
+            ArrayList<String> columns = new ArrayList<>();
+            ArrayList<String> keys = new ArrayList<>();
+            ArrayList<String> updates = new ArrayList<>();
+            for (Field f : fList) {
+                if (!f.isPersistent()) continue;
+                columns.add(f.name);
+                if (!f.isPrimary && !f.isReadOnly()) updates.add(f.name);
+            }
+            for (Field f : pk) keys.add(f.name);
+            sql = manager.getPool().getDialect().createUpsertSql(tableName, columns, keys, updates);
+            if (sql != null) sqlUpsert = manager.getPool().createStatement(sql);
+        }
     }
 
     /**
@@ -693,6 +986,20 @@ public abstract class Table extends MObject {
      * @throws java.lang.Exception if any.
      */
     public void createTable(DbConnection con, boolean cleanup) throws Exception {
+        createTable(con, cleanup, null);
+    }
+
+    /**
+     * Create the tables in the database if the structure fingerprint is not equals to the known
+     * fingerprint.
+     *
+     * @param con
+     * @param cleanup
+     * @param knownFingerprint
+     * @throws Exception
+     */
+    public void createTable(DbConnection con, boolean cleanup, String knownFingerprint)
+            throws Exception {
 
         INode cstr = new MNode();
         INode ctable = cstr.createObject("table");
@@ -744,9 +1051,23 @@ public abstract class Table extends MObject {
             cindex.setString(Dialect.I_FIELDS, fields.toString());
         }
 
-        manager.getPool()
-                .getDialect()
-                .createStructure(cstr, con, manager.getCaoMetadata(), cleanup);
+        Dialect dialect = manager.getPool().getDialect();
+        structureFingerprint = dialect.createStructureFingerprint(cstr);
+        if (!cleanup && structureFingerprint.equals(knownFingerprint)) {
+            log().d("structure not changed", registryName, tableName);
+            dialect.createMetadata(cstr, manager.getCaoMetadata());
+            return;
+        }
+        dialect.createStructure(cstr, con, manager.getCaoMetadata(), cleanup);
+    }
+
+    /**
+     * Returns the fingerprint of the structure definition created by createTable.
+     *
+     * @return The fingerprint or null
+     */
+    public String getStructureFingerprint() {
+        return structureFingerprint;
     }
 
     /**
@@ -770,6 +1091,48 @@ public abstract class Table extends MObject {
         sqlDelete.getStatement(con).execute(attributes);
     }
 
+    /**
+     * Return true if the table is saved in optimistic mode. The mode is enabled with the table
+     * attribute 'optimistic' and needs a persistent 'vstamp' attribute.
+     *
+     * @return true if optimistic
+     */
+    public boolean isOptimistic() {
+        return vstamp != null;
+    }
+
+    /**
+     * Return the values of the primary keys of the object ordered like getPrimaryKeys().
+     *
+     * @param object The object
+     * @return The values
+     * @throws Exception
+     */
+    public Object[] getPrimaryKeyValues(Object object) throws Exception {
+        Object[] out = new Object[pk.size()];
+        int cnt = 0;
+        for (Field f : pk) out[cnt++] = f.getFromTarget(object);
+        return out;
+    }
+
+    private void setVstamp(Object object, long value) throws Exception {
+        Class<?> type = vstamp.getType();
+        if (type == int.class || type == Integer.class) vstamp.set(object, (int) value);
+        else vstamp.set(object, value);
+    }
+
+    /**
+     * Return the current vstamp of the object or null if the table is not in optimistic mode.
+     *
+     * @param object The object
+     * @return The vstamp or null
+     * @throws Exception
+     */
+    public Object getVstamp(Object object) throws Exception {
+        if (vstamp == null) return null;
+        return vstamp.getFromTarget(object);
+    }
+
     /**
      * Getter for the field <code>registryName</code>.
      *
@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.transaction;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.errors.MRuntimeException;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.Dialect;
+
+/**
+ * Lock strategy using the native advisory locks of the database. Acquiring a lock is a single
+ * blocking round-trip, the timeout is handled by the database server. Advisory locks are bound to a
+ * connection, therefore a connection of the pool is reserved for every lock owner as long as the
+ * owner holds locks. Locks are re-entrant like the advisory locks of the session, the connection is
+ * returned to the pool after every hold of the owner is released.
+ *
+ * <p>If the dialect do not support advisory locks (e.g. H2, HSQLDB) the fallback strategy is used.
+ * Default fallback is the MemoryLockStrategy which is fine for embedded databases.
+ */
+public class AdvisoryLockStrategy extends LockStrategy {
+
+    private LockStrategy fallback;
+    private ConcurrentHashMap<String, LockHolder> holders = new ConcurrentHashMap<>();
+
+    public AdvisoryLockStrategy() {
+        this(new MemoryLockStrategy());
+    }
+
+    public AdvisoryLockStrategy(LockStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void lock(Object object, String key, LockBase transaction, long timeout) {
+        DbPool pool = transaction.getDbManager().getPool();
+        if (!pool.getDialect().isAdvisoryLockSupported()) {
+            fallback.lock(object, key, transaction, timeout);
+            return;
+        }
+        acquire(pool, key, transaction, timeout, false);
+    }
+
+    @Override
+    public void lockShared(Object object, String key, LockBase transaction, long timeout) {
+        DbPool pool = transaction.getDbManager().getPool();
+        if (!pool.getDialect().isAdvisoryLockSupported()) {
+            fallback.lockShared(object, key, transaction, timeout);
+            return;
+        }
+        acquire(pool, key, transaction, timeout, pool.getDialect().isAdvisorySharedLockSupported());
+    }
+
+    @Override
+    public void releaseLock(Object object, String key, LockBase transaction) {
+        Dialect dialect = transaction.getDbManager().getPool().getDialect();
+        if (!dialect.isAdvisoryLockSupported()) {
+            fallback.releaseLock(object, key, transaction);
+            return;
+        }
+        release(dialect, key, transaction, false);
+    }
+
+    @Override
+    public void releaseSharedLock(Object object, String key, LockBase transaction) {
+        Dialect dialect = transaction.getDbManager().getPool().getDialect();
+        if (!dialect.isAdvisoryLockSupported()) {
+            fallback.releaseSharedLock(object, key, transaction);
+            return;
+        }
+        release(dialect, key, transaction, dialect.isAdvisorySharedLockSupported());
+    }
+
+    /**
+     * Shared advisory locks depend on the dialect (e.g. MySQL only supports exclusive locks), use
+     * isSharedLockSupported(DbManager) instead.
+     */
+    @Override
+    public boolean isSharedLockSupported() {
+        return false;
+    }
+
+    /**
+     * Return true if the dialect supports shared advisory locks. If the dialect supports exclusive
+     * advisory locks only, shared locks are acquired as exclusive locks and false is returned.
+     */
+    @Override
+    public boolean isSharedLockSupported(DbManager manager) {
+        Dialect dialect = manager.getPool().getDialect();
+        if (!dialect.isAdvisoryLockSupported()) return fallback.isSharedLockSupported(manager);
+        return dialect.isAdvisorySharedLockSupported();
+    }
+
+    private void acquire(
+            DbPool pool, String key, LockBase transaction, long timeout, boolean shared) {
+        Dialect dialect = pool.getDialect();
+        while (true) {
+            LockHolder holder =
+                    holders.computeIfAbsent(transaction.getName(), k -> new LockHolder());
+            synchronized (holder) {
+                if (holders.get(transaction.getName()) != holder) continue; // closed in between
+                try {
+                    if (holder.con == null) holder.con = pool.getConnection();
+                    boolean done =
+                            shared
+                                    ? dialect.advisoryLockShared(holder.con, key, timeout)
+                                    : dialect.advisoryLock(holder.con, key, timeout);
+                    if (!done) throw new TimeoutRuntimeException(key);
+                    holder.keys.computeIfAbsent(key, k -> new Hold()).add(shared, 1);
+                    return;
+                } catch (TimeoutRuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // state of the session is unknown, the lock could be held
+                    holder.discard = true;
+                    throw new MRuntimeException(key, e);
+                } finally {
+                    if (holder.keys.isEmpty()) closeHolder(transaction.getName(), holder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release one hold of the key. Advisory locks are re-entrant per session, the lock is released
+     * as often as it was acquired. If the requested kind of lock is not held the other kind is
+     * released.
+     */
+    private void release(Dialect dialect, String key, LockBase transaction, boolean shared) {
+        LockHolder holder = holders.get(transaction.getName());
+        if (holder == null) {
+            log().w("you are not the lock owner", key, transaction.getName());
+            return;
+        }
+        synchronized (holder) {
+            Hold hold = holder.keys.get(key);
+            if (hold == null) {
+                log().w("you are not the lock owner", key, transaction.getName());
+                return;
+            }
+            if (shared ? hold.shared == 0 : hold.exclusive == 0) shared = !shared;
+            hold.add(shared, -1);
+            if (hold.isEmpty()) holder.keys.remove(key);
+            try {
+                boolean done =
+                        shared
+                                ? dialect.advisoryUnlockShared(holder.con, key)
+                                : dialect.advisoryUnlock(holder.con, key);
+                if (!done) {
+                    log().w("advisory lock was not held", key, transaction.getName());
+                    holder.discard = true;
+                }
+            } catch (Exception e) {
+                log().w("release lock failed", key, e);
+                // the lock is bound to the connection - do not reuse it
+                holder.keys.clear();
+                holder.discard = true;
+            } finally {
+                if (holder.keys.isEmpty()) closeHolder(transaction.getName(), holder);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLocked(Object object, String key, LockBase transaction) {
+        DbPool pool = transaction.getDbManager().getPool();
+        Dialect dialect = pool.getDialect();
+        if (!dialect.isAdvisoryLockSupported())
+            return fallback.isLocked(object, key, transaction);
+        if (isLockedByOwner(object, key, transaction)) return true;
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            return dialect.isAdvisoryLocked(con, key);
+        } catch (Exception e) {
+            log().d(key, e);
+        } finally {
+            if (con != null) con.close();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isLockedByOwner(Object object, String key, LockBase transaction) {
+        if (!transaction.getDbManager().getPool().getDialect().isAdvisoryLockSupported())
+            return fallback.isLockedByOwner(object, key, transaction);
+        LockHolder holder = holders.get(transaction.getName());
+        if (holder == null) return false;
+        synchronized (holder) {
+            return holder.keys.containsKey(key);
+        }
+    }
+
+    public LockStrategy getFallback() {
+        return fallback;
+    }
+
+    private void closeHolder(String owner, LockHolder holder) {
+        holders.remove(owner, holder);
+        if (holder.con != null) {
+            if (holder.discard) {
+                // advisory locks are bound to the session, close the physical connection to
+                // release them, otherwise the next borrower of the pooled connection would own them
+                try {
+                    holder.con.instance().close();
+                } catch (Throwable t) {
+                    log().d("close connection failed", owner, t);
+                }
+            }
+            holder.con.close();
+            holder.con = null;
+        }
+    }
+
+    private static class LockHolder {
+        private DbConnection con;
+        private boolean discard;
+        private HashMap<String, Hold> keys = new HashMap<>();
+    }
+
+    /** Number of exclusive and shared holds of a key by the session. */
+    private static class Hold {
+        private int exclusive;
+        private int shared;
+
+        private void add(boolean isShared, int cnt) {
+            if (isShared) shared += cnt;
+            else exclusive += cnt;
+        }
+
+        private boolean isEmpty() {
+            return exclusive <= 0 && shared <= 0;
+        }
+    }
+}
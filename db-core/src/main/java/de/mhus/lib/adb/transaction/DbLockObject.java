@@ -50,6 +50,10 @@ public class DbLockObject extends DbComfortableObject {
         return created;
     }
 
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
     public String getOwner() {
         return owner;
     }
@@ -15,13 +15,30 @@
  */
 package de.mhus.lib.adb.transaction;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MHousekeeper;
+import de.mhus.lib.core.MHousekeeperTask;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MThread;
 import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.util.FallbackMap;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.lib.errors.TimeoutRuntimeException;
+import de.mhus.lib.sql.DbConnection;
 
 public class DbLockObjectStrategy extends LockStrategy {
 
@@ -31,13 +48,132 @@ public class DbLockObjectStrategy extends LockStrategy {
             new CfgLong(DbLockObjectStrategy.class, "sleepTime", 200);
     private static final CfgBoolean CFG_IGNORE_LOCK_OWNER =
             new CfgBoolean(DbLockObjectStrategy.class, "ignoreLockOwner", false);
+    private static final CfgInt CFG_BATCH_SIZE =
+            new CfgInt(DbLockObjectStrategy.class, "batchSize", 100);
+    private static final CfgLong CFG_SWEEP_INTERVAL =
+            new CfgLong(
+                    DbLockObjectStrategy.class, "sweepInterval", MPeriod.MINUTE_IN_MILLISECONDS);
 
     private long maxLockAge = CFG_MAX_LOCK_AGE.value();
     private long sleepTime = CFG_SLEEP_TIME.value();
     private boolean ignoreLockOwner = CFG_IGNORE_LOCK_OWNER.value();
+    private int batchSize = CFG_BATCH_SIZE.value();
+    private ConcurrentHashMap<DbManager, MHousekeeperTask> sweepers = new ConcurrentHashMap<>();
+    private AtomicLong reclaimed = new AtomicLong();
+
+    /** Separator between the lock key and the owner of shared lock rows */
+    public static final String SHARED_SEPARATOR = "|S|";
+
+    private static final char LIKE_ESCAPE = '!';
 
     @Override
     public void lock(Object object, String key, LockBase transaction, long timeout) {
+        DbManager manager = transaction.getDbManager();
+        // lock free check, the sweeper is created once per manager
+        if (!sweepers.containsKey(manager)) initSweeper(manager);
+        long start = System.currentTimeMillis();
+        lockExclusive(key, transaction, timeout);
+        // wait until all shared locks are released, new shared locks are blocked by the row
+        while (true) {
+            try {
+                if (countSharedLocks(key, manager) == 0) return;
+            } catch (MException e) {
+                releaseLock(object, key, transaction);
+                throw new MRuntimeException(RC.STATUS.ERROR, "count shared locks failed", key, e);
+            }
+            if (System.currentTimeMillis() - start > timeout) {
+                releaseLock(object, key, transaction);
+                throw new TimeoutRuntimeException(key);
+            }
+            MThread.sleep(sleepTime);
+        }
+    }
+
+    @Override
+    public void lockShared(Object object, String key, LockBase transaction, long timeout) {
+        DbManager manager = transaction.getDbManager();
+        if (!sweepers.containsKey(manager)) initSweeper(manager);
+        String sharedKey = key + SHARED_SEPARATOR + transaction.getName();
+        long start = System.currentTimeMillis();
+        while (true) {
+            try {
+                if (!isExclusiveLocked(key, manager)) {
+                    DbLockObject lock = manager.inject(new DbLockObject());
+                    lock.setKey(sharedKey);
+                    lock.setOwner(transaction.getName());
+                    lock.setOwnerStr(transaction.toString());
+                    lock.save();
+                    // check again, a exclusive lock could be created in between
+                    if (!isExclusiveLocked(key, manager)) return;
+                    lock.delete();
+                }
+            } catch (MException e) {
+                log().d(e);
+            }
+            if (System.currentTimeMillis() - start > timeout)
+                throw new TimeoutRuntimeException(key);
+            MThread.sleep(sleepTime);
+        }
+    }
+
+    @Override
+    public void releaseSharedLock(Object object, String key, LockBase transaction) {
+        releaseLock(object, key + SHARED_SEPARATOR + transaction.getName(), transaction);
+    }
+
+    @Override
+    public boolean isSharedLockSupported() {
+        return true;
+    }
+
+    private boolean isExclusiveLocked(String key, DbManager manager) throws MException {
+        DbLockObject obj = manager.getObject(DbLockObject.class, key);
+        return obj != null && obj.getAge() <= maxLockAge;
+    }
+
+    /**
+     * Count not stale shared locks of the key. Wildcards in the key are escaped, so only shared
+     * locks of exactly this key are matched.
+     *
+     * @param key
+     * @param manager
+     * @return Count of shared locks
+     * @throws MException
+     */
+    private long countSharedLocks(String key, DbManager manager) throws MException {
+        return countSharedLocks(Collections.singleton(key), manager);
+    }
+
+    private long countSharedLocks(Collection<String> keys, DbManager manager)
+            throws MException {
+        HashMap<String, Object> attributes = new HashMap<>();
+        StringBuilder sql = new StringBuilder("$db.dblockobject.created$ >= $created$ AND (");
+        attributes.put("created", System.currentTimeMillis() - maxLockAge);
+        int nr = 0;
+        for (String key : keys) {
+            if (nr > 0) sql.append(" OR ");
+            sql.append("$db.dblockobject.key$ like $k")
+                    .append(nr)
+                    .append("$ escape '")
+                    .append(LIKE_ESCAPE)
+                    .append("'");
+            attributes.put("k" + nr, escapeLike(key) + SHARED_SEPARATOR + "%");
+            nr++;
+        }
+        sql.append(")");
+        return manager.getCountByQualification(DbLockObject.class, sql.toString(), attributes);
+    }
+
+    private static String escapeLike(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') out.append(LIKE_ESCAPE);
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private void lockExclusive(String key, LockBase transaction, long timeout) {
         DbLockObject lock = transaction.getDbManager().inject(new DbLockObject());
         //		if (key.length() > 760) key = key.substring(0, 760); // not really a good solution ...!
         lock.setKey(key);
@@ -51,18 +187,13 @@ public class DbLockObjectStrategy extends LockStrategy {
             } catch (MException e) {
                 log().d(e);
             }
-            // check age of lock entry
+            // take over a stale lock, the sweeper could be disabled
             try {
-                DbLockObject obj = transaction.getDbManager().getObject(DbLockObject.class, key);
-                if (obj != null && obj.getAge() > maxLockAge) {
-                    log().i("remove stare lock", obj.getOwner(), obj.getOwnerStr(), key);
-                    obj.delete();
+                if (deleteStale(Collections.singleton(key), transaction.getDbManager()) > 0)
                     continue;
-                }
             } catch (MException e) {
                 log().d(e);
             }
-
             if (System.currentTimeMillis() - start > timeout)
                 throw new TimeoutRuntimeException(key);
             MThread.sleep(sleepTime);
@@ -85,8 +216,267 @@ public class DbLockObjectStrategy extends LockStrategy {
         }
     }
 
-    public void cleanup(DbManager manager) throws MException {
-        for (DbLockObject o : manager.getAll(DbLockObject.class)) o.delete();
+    @Override
+    public boolean isBatchLockSupported() {
+        return true;
+    }
+
+    /**
+     * Insert all lock rows with multi row inserts in one transaction. If one of the keys is already
+     * locked the whole transaction fails with a duplicate key and will be retried. No locks are
+     * held while waiting. Other failures are not retried.
+     */
+    @Override
+    public void lockAll(SortedMap<String, Object> keys, LockBase transaction, long timeout) {
+        if (transaction.isShared()) {
+            super.lockAll(keys, transaction, timeout);
+            return;
+        }
+        DbManager manager = transaction.getDbManager();
+        if (!sweepers.containsKey(manager)) initSweeper(manager);
+        long start = System.currentTimeMillis();
+        while (true) {
+            try {
+                insertAll(keys.keySet(), transaction, manager);
+                break;
+            } catch (Exception e) {
+                if (!manager.getPool().getDialect().isUniqueViolation(e))
+                    throw new MRuntimeException(RC.STATUS.ERROR, "insert locks failed", e);
+                log().d(e);
+            }
+            try {
+                if (deleteStale(keys.keySet(), manager) > 0) continue;
+            } catch (MException e) {
+                log().d(e);
+            }
+            if (System.currentTimeMillis() - start > timeout)
+                throw new TimeoutRuntimeException(keys.keySet());
+            MThread.sleep(sleepTime);
+        }
+        // wait until all shared locks are released
+        while (true) {
+            try {
+                if (countSharedLocks(keys.keySet(), manager) == 0) return;
+            } catch (MException e) {
+                releaseAll(keys, transaction);
+                throw new MRuntimeException(RC.STATUS.ERROR, "count shared locks failed", e);
+            }
+            if (System.currentTimeMillis() - start > timeout) {
+                releaseAll(keys, transaction);
+                throw new TimeoutRuntimeException(keys.keySet());
+            }
+            MThread.sleep(sleepTime);
+        }
+    }
+
+    @Override
+    public void releaseAll(SortedMap<String, Object> keys, LockBase transaction) {
+        if (transaction.isShared()) {
+            super.releaseAll(keys, transaction);
+            return;
+        }
+        DbManager manager = transaction.getDbManager();
+        DbConnection con = null;
+        try {
+            con = manager.getPool().getConnection();
+            List<String> list = new ArrayList<>(keys.keySet());
+            for (int i = 0; i < list.size(); i = i + batchSize) {
+                List<String> chunk = list.subList(i, Math.min(i + batchSize, list.size()));
+                HashMap<String, Object> attributes = new HashMap<>();
+                StringBuilder sql = new StringBuilder("DELETE FROM $db.dblockobject$ WHERE ");
+                if (!ignoreLockOwner) {
+                    sql.append("$db.dblockobject.owner$=$owner$ AND ");
+                    attributes.put("owner", transaction.getName());
+                }
+                appendKeyList(sql, chunk, attributes);
+                int cnt =
+                        con.createStatement(sql.toString())
+                                .executeUpdate(
+                                        new FallbackMap<String, Object>(
+                                                attributes, manager.getNameMapping(), true));
+                if (cnt != chunk.size())
+                    log().w("not all locks released", transaction.getName(), chunk.size(), cnt);
+            }
+            con.commit();
+        } catch (Exception e) {
+            log().w("release locks failed", keys.keySet(), e);
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    private void insertAll(Collection<String> keys, LockBase transaction, DbManager manager)
+            throws Exception {
+        ArrayList<DbLockObject> locks = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            DbLockObject lock = new DbLockObject();
+            lock.setKey(key);
+            lock.setOwner(transaction.getName());
+            lock.setOwnerStr(transaction.toString());
+            locks.add(lock);
+        }
+
+        // multi row inserts are rendered by the table
+        DbConnection con = manager.getPool().getConnection();
+        try {
+            manager.createObjects(con, manager.getRegistryName(DbLockObject.class), locks);
+            con.commit();
+        } catch (Exception e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Remove stale lock rows of the given keys. Used to take over expired locks if the insert
+     * conflicts and the sweeper is not running.
+     *
+     * @param keys
+     * @param manager
+     * @return Count of removed locks
+     * @throws MException
+     */
+    private int deleteStale(Collection<String> keys, DbManager manager) throws MException {
+        DbConnection con = null;
+        try {
+            con = manager.getPool().getConnection();
+            int cnt = 0;
+            List<String> list = new ArrayList<>(keys);
+            for (int i = 0; i < list.size(); i = i + batchSize) {
+                List<String> chunk = list.subList(i, Math.min(i + batchSize, list.size()));
+                HashMap<String, Object> attributes = new HashMap<>();
+                StringBuilder sql =
+                        new StringBuilder("DELETE FROM $db.dblockobject$ WHERE ")
+                                .append("$db.dblockobject.created$ < $created$ AND ");
+                attributes.put("created", System.currentTimeMillis() - maxLockAge);
+                appendKeyList(sql, chunk, attributes);
+                cnt +=
+                        con.createStatement(sql.toString())
+                                .executeUpdate(
+                                        new FallbackMap<String, Object>(
+                                                attributes, manager.getNameMapping(), true));
+            }
+            con.commit();
+            if (cnt > 0) {
+                reclaimed.addAndGet(cnt);
+                log().i("took over stale locks", cnt);
+            }
+            return cnt;
+        } catch (Exception e) {
+            throw new MException(RC.STATUS.ERROR, "delete stale locks failed", e);
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    private void appendKeyList(
+            StringBuilder sql, Collection<String> keys, HashMap<String, Object> attributes) {
+        sql.append("$db.dblockobject.key$ IN (");
+        int nr = 0;
+        for (String key : keys) {
+            if (nr > 0) sql.append(",");
+            sql.append("$k").append(nr).append("$");
+            attributes.put("k" + nr, key);
+            nr++;
+        }
+        sql.append(")");
+    }
+
+    /**
+     * Remove all locks.
+     *
+     * @param manager
+     * @return Count of removed locks
+     * @throws MException
+     */
+    public int cleanup(DbManager manager) throws MException {
+        return delete(manager, null);
+    }
+
+    /**
+     * Remove all stale locks, older then maxLockAge.
+     *
+     * @param manager
+     * @return Count of removed locks
+     * @throws MException
+     */
+    public int sweep(DbManager manager) throws MException {
+        int cnt = delete(manager, System.currentTimeMillis() - maxLockAge);
+        if (cnt > 0) {
+            reclaimed.addAndGet(cnt);
+            log().i("removed stale locks", cnt);
+        }
+        return cnt;
+    }
+
+    private int delete(DbManager manager, Long olderThen) throws MException {
+        DbConnection con = null;
+        try {
+            con = manager.getPool().getConnection();
+            HashMap<String, Object> attributes = new HashMap<>();
+            String sql = "DELETE FROM $db.dblockobject$";
+            if (olderThen != null) {
+                sql = sql + " WHERE $db.dblockobject.created$ < $created$";
+                attributes.put("created", olderThen);
+            }
+            int cnt =
+                    con.createStatement(sql)
+                            .executeUpdate(
+                                    new FallbackMap<String, Object>(
+                                            attributes, manager.getNameMapping(), true));
+            con.commit();
+            return cnt;
+        } catch (Exception e) {
+            throw new MException(RC.STATUS.ERROR, "delete locks failed", e);
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    /**
+     * Start the background sweeper for the manager. Every manager has its own sweeper, the
+     * sweeper stops if the pool of the manager is closed and is started again by the next lock.
+     *
+     * @param manager
+     */
+    protected void initSweeper(DbManager manager) {
+        MHousekeeperTask task =
+                new MHousekeeperTask("DbLockObjectStrategy sweeper") {
+
+                    @Override
+                    public void doit() throws Exception {
+                        if (manager.getPool().isClosed()) {
+                            sweepers.remove(manager, this);
+                            cancel();
+                            return;
+                        }
+                        sweep(manager);
+                    }
+                };
+        if (sweepers.putIfAbsent(manager, task) != null) return;
+        MHousekeeper housekeeper = M.l(MHousekeeper.class);
+        if (housekeeper != null) {
+            housekeeper.register(task, CFG_SWEEP_INTERVAL.value());
+        } else {
+            log().w("Housekeeper not found - stale lock sweeper disabled");
+        }
+    }
+
+    /** Stop the background sweepers. */
+    public void close() {
+        for (MHousekeeperTask task : sweepers.values()) task.cancel();
+        sweepers.clear();
+    }
+
+    /**
+     * Return the count of stale locks removed by the sweeper.
+     *
+     * @return count
+     */
+    public long getReclaimedLocks() {
+        return reclaimed.get();
     }
 
     public long getMaxLockAge() {
@@ -97,6 +487,14 @@ public class DbLockObjectStrategy extends LockStrategy {
         this.maxLockAge = maxLockAge;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public long getSleepTime() {
         return sleepTime;
     }
@@ -109,12 +507,9 @@ public class DbLockObjectStrategy extends LockStrategy {
     public boolean isLocked(Object object, String key, LockBase transaction) {
         try {
             DbLockObject obj = transaction.getDbManager().getObject(DbLockObject.class, key);
-            if (obj != null && obj.getAge() > maxLockAge) {
-                log().i("remove stare lock", obj.getOwner(), obj.getOwnerStr(), key);
-                obj.delete();
-                return false;
-            }
-            return obj != null;
+            // stale locks are ignored and taken over by the next lock or the sweeper
+            if (obj != null && obj.getAge() <= maxLockAge) return true;
+            return countSharedLocks(key, transaction.getDbManager()) > 0;
         } catch (Throwable e) {
             log().d(e);
         }
@@ -123,14 +518,12 @@ public class DbLockObjectStrategy extends LockStrategy {
 
     @Override
     public boolean isLockedByOwner(Object object, String key, LockBase transaction) {
+        if (transaction.isShared()) key = key + SHARED_SEPARATOR + transaction.getName();
         try {
             DbLockObject obj = transaction.getDbManager().getObject(DbLockObject.class, key);
-            if (obj != null && obj.getAge() > maxLockAge) {
-                log().i("remove stare lock", obj.getOwner(), obj.getOwnerStr(), key);
-                obj.delete();
-                return false;
-            }
-            return obj != null && obj.getOwner().equals(transaction.getName());
+            return obj != null
+                    && obj.getAge() <= maxLockAge
+                    && obj.getOwner().equals(transaction.getName());
         } catch (Throwable e) {
             log().d(e);
         }
@@ -53,5 +53,14 @@ public abstract class LockBase extends MLog {
 
     public abstract Set<String> getLockKeys();
 
+    /**
+     * Return true if the lock is a shared (read) lock.
+     *
+     * @return true if shared
+     */
+    public boolean isShared() {
+        return false;
+    }
+
     protected abstract boolean isLocked();
 }
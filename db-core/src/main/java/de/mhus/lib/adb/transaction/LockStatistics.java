@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.mhus.lib.annotations.jmx.JmxManaged;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.jmx.MJmx;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+
+/**
+ * Collects lock contention statistics of a lock strategy. Values are collected per key prefix (the
+ * registry name of the locked object). The statistics are only created if enabled in the strategy,
+ * so there is no overhead if disabled.
+ */
+@JmxManaged(descrition = "Lock statistics")
+public class LockStatistics extends MJmx {
+
+    private static final CfgInt CFG_MAX_KEYS = new CfgInt(LockStatistics.class, "maxKeys", 1000);
+    private static final CfgLong CFG_CONTENTION_THRESHOLD =
+            new CfgLong(LockStatistics.class, "contentionThreshold", 1);
+
+    /** Upper bounds of the latency histogram buckets in milliseconds, the last bucket is open */
+    public static final long[] BUCKETS = {1, 2, 5, 10, 50, 100, 500, 1000, 5000, 10000};
+
+    private String name;
+    private AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+    private ConcurrentHashMap<String, PrefixStatistics> prefixes = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, KeyStatistics> keys = new ConcurrentHashMap<>();
+    private long contentionThreshold = CFG_CONTENTION_THRESHOLD.value() * 1000000;
+    private int maxKeys = CFG_MAX_KEYS.value();
+
+    public LockStatistics(String name) {
+        this.name = name;
+    }
+
+    public void onWait(String key) {
+        getPrefix(key).waiters.increment();
+    }
+
+    public void onAcquired(String key, long nanos) {
+        PrefixStatistics prefix = getPrefix(key);
+        prefix.waiters.decrement();
+        prefix.holders.increment();
+        prefix.acquired.increment();
+        prefix.waitTime.add(nanos);
+        histogram.incrementAndGet(bucket(nanos));
+        if (nanos >= contentionThreshold) {
+            KeyStatistics k = keys.get(key);
+            if (k == null && keys.size() < maxKeys)
+                k = keys.computeIfAbsent(key, x -> new KeyStatistics());
+            if (k != null) {
+                k.count.increment();
+                k.waitTime.add(nanos);
+            }
+        }
+    }
+
+    public void onFailed(String key, long nanos, Throwable t) {
+        PrefixStatistics prefix = getPrefix(key);
+        prefix.waiters.decrement();
+        if (t instanceof TimeoutRuntimeException) prefix.timeouts.increment();
+        else prefix.errors.increment();
+        prefix.waitTime.add(nanos);
+    }
+
+    public void onRelease(String key) {
+        getPrefix(key).holders.decrement();
+    }
+
+    @JmxManaged(descrition = "Name of the lock strategy")
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the count of acquired locks per latency bucket. See BUCKETS for the bucket bounds.
+     *
+     * @return counts
+     */
+    @JmxManaged(descrition = "Acquire latency histogram")
+    public long[] getHistogram() {
+        long[] out = new long[histogram.length()];
+        for (int i = 0; i < out.length; i++) out[i] = histogram.get(i);
+        return out;
+    }
+
+    @JmxManaged(descrition = "Acquire latency histogram as text")
+    public String getHistogramAsString() {
+        StringBuilder out = new StringBuilder();
+        long[] values = getHistogram();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.append(", ");
+            out.append(i < BUCKETS.length ? "<" + BUCKETS[i] + "ms" : ">=" + BUCKETS[i - 1] + "ms");
+            out.append("=").append(values[i]);
+        }
+        return out.toString();
+    }
+
+    @JmxManaged(descrition = "Acquired locks")
+    public long getAcquired() {
+        long cnt = 0;
+        for (PrefixStatistics p : prefixes.values()) cnt += p.acquired.sum();
+        return cnt;
+    }
+
+    @JmxManaged(descrition = "Timed out lock requests")
+    public long getTimeouts() {
+        long cnt = 0;
+        for (PrefixStatistics p : prefixes.values()) cnt += p.timeouts.sum();
+        return cnt;
+    }
+
+    @JmxManaged(descrition = "Current holders and waiters per prefix")
+    public Map<String, String> getPrefixInfo() {
+        Map<String, String> out = new TreeMap<>();
+        for (Map.Entry<String, PrefixStatistics> entry : prefixes.entrySet())
+            out.put(entry.getKey(), entry.getValue().toString());
+        return out;
+    }
+
+    public Map<String, PrefixStatistics> getPrefixes() {
+        return Collections.unmodifiableMap(prefixes);
+    }
+
+    /**
+     * Return the most contended keys ordered by the total wait time.
+     *
+     * @param size Maximum size of the list
+     * @return List of keys
+     */
+    public List<Map.Entry<String, KeyStatistics>> getTopContendedKeys(int size) {
+        ArrayList<Map.Entry<String, KeyStatistics>> list = new ArrayList<>(keys.entrySet());
+        list.sort((a, b) -> Long.compare(b.getValue().getWaitTime(), a.getValue().getWaitTime()));
+        if (list.size() > size) return list.subList(0, size);
+        return list;
+    }
+
+    @JmxManaged(descrition = "Top 10 contended keys")
+    public List<String> getTopContendedKeys() {
+        ArrayList<String> out = new ArrayList<>();
+        for (Map.Entry<String, KeyStatistics> entry : getTopContendedKeys(10))
+            out.add(entry.getKey() + " " + entry.getValue());
+        return out;
+    }
+
+    @JmxManaged(descrition = "Reset the statistics, current holders and waiters are kept")
+    public void reset() {
+        for (int i = 0; i < histogram.length(); i++) histogram.set(i, 0);
+        keys.clear();
+        for (PrefixStatistics p : prefixes.values()) p.reset();
+    }
+
+    public long getContentionThreshold() {
+        return contentionThreshold / 1000000;
+    }
+
+    /**
+     * Set the minimum wait time in milliseconds to count a lock as contended.
+     *
+     * @param contentionThreshold
+     */
+    public void setContentionThreshold(long contentionThreshold) {
+        this.contentionThreshold = contentionThreshold * 1000000;
+    }
+
+    private PrefixStatistics getPrefix(String key) {
+        int pos = key.indexOf(',');
+        String prefix = pos < 0 ? key : key.substring(0, pos);
+        PrefixStatistics out = prefixes.get(prefix);
+        if (out == null) out = prefixes.computeIfAbsent(prefix, x -> new PrefixStatistics());
+        return out;
+    }
+
+    private int bucket(long nanos) {
+        long millis = nanos / 1000000;
+        for (int i = 0; i < BUCKETS.length; i++) if (millis < BUCKETS[i]) return i;
+        return BUCKETS.length;
+    }
+
+    public static class PrefixStatistics {
+        private LongAdder holders = new LongAdder();
+        private LongAdder waiters = new LongAdder();
+        private LongAdder acquired = new LongAdder();
+        private LongAdder timeouts = new LongAdder();
+        private LongAdder errors = new LongAdder();
+        private LongAdder waitTime = new LongAdder();
+
+        public long getHolders() {
+            return holders.sum();
+        }
+
+        public long getWaiters() {
+            return waiters.sum();
+        }
+
+        public long getAcquired() {
+            return acquired.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Total wait time in milliseconds.
+         *
+         * @return wait time
+         */
+        public long getWaitTime() {
+            return waitTime.sum() / 1000000;
+        }
+
+        void reset() {
+            acquired.reset();
+            timeouts.reset();
+            errors.reset();
+            waitTime.reset();
+        }
+
+        @Override
+        public String toString() {
+            return "holders="
+                    + getHolders()
+                    + ", waiters="
+                    + getWaiters()
+                    + ", acquired="
+                    + getAcquired()
+                    + ", timeouts="
+                    + getTimeouts()
+                    + ", errors="
+                    + getErrors()
+                    + ", wait="
+                    + getWaitTime()
+                    + "ms";
+        }
+    }
+
+    public static class KeyStatistics {
+        private LongAdder count = new LongAdder();
+        private LongAdder waitTime = new LongAdder();
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Total wait time in milliseconds.
+         *
+         * @return wait time
+         */
+        public long getWaitTime() {
+            return waitTime.sum() / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", wait=" + getWaitTime() + "ms";
+        }
+    }
+}
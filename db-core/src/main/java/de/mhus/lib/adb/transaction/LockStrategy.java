@@ -15,10 +15,51 @@
  */
 package de.mhus.lib.adb.transaction;
 
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.SortedMap;
+
+import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.core.MLog;
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.errors.TimeoutRuntimeException;
 
 public abstract class LockStrategy extends MLog {
 
+    private static final CfgBoolean CFG_STATISTICS =
+            new CfgBoolean(LockStrategy.class, "statistics", false);
+
+    private volatile LockStatistics statistics;
+
+    public LockStrategy() {
+        setStatisticsEnabled(CFG_STATISTICS.value());
+    }
+
+    /**
+     * Return the lock statistics or null if statistics are disabled.
+     *
+     * @return The statistics or null
+     */
+    public LockStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Enable or disable collecting of lock statistics. If disabled the statistics will be removed.
+     *
+     * @param enabled
+     */
+    public synchronized void setStatisticsEnabled(boolean enabled) {
+        if (enabled && statistics == null)
+            statistics = new LockStatistics(MSystem.getObjectId(this));
+        else if (!enabled) statistics = null;
+    }
+
+    public boolean isStatisticsEnabled() {
+        return statistics != null;
+    }
+
     public abstract void lock(Object object, String key, LockBase transaction, long timeout);
 
     public abstract void releaseLock(Object object, String key, LockBase transaction);
@@ -26,4 +67,112 @@ public abstract class LockStrategy extends MLog {
     public abstract boolean isLocked(Object object, String key, LockBase transaction);
 
     public abstract boolean isLockedByOwner(Object object, String key, LockBase transaction);
+
+    /**
+     * Acquire a shared lock. Shared locks can be held by different owners at the same time but not
+     * together with an exclusive lock. The default implementation acquires an exclusive lock.
+     *
+     * @param object The object to lock
+     * @param key The lock key
+     * @param transaction The owner
+     * @param timeout Timeout in milliseconds
+     */
+    public void lockShared(Object object, String key, LockBase transaction, long timeout) {
+        lock(object, key, transaction, timeout);
+    }
+
+    /**
+     * Release a shared lock.
+     *
+     * @param object The locked object
+     * @param key The lock key
+     * @param transaction The owner
+     */
+    public void releaseSharedLock(Object object, String key, LockBase transaction) {
+        releaseLock(object, key, transaction);
+    }
+
+    /**
+     * Return true if the strategy supports real shared locks. If not shared locks are exclusive.
+     *
+     * @return true if supported
+     */
+    public boolean isSharedLockSupported() {
+        return false;
+    }
+
+    /**
+     * Return true if the strategy supports real shared locks for the database of the manager. Use
+     * this method if the support depends on the dialect.
+     *
+     * @param manager The manager the locks are created for
+     * @return true if supported
+     */
+    public boolean isSharedLockSupported(DbManager manager) {
+        return isSharedLockSupported();
+    }
+
+    /**
+     * Return true if the strategy implements lockAll and releaseAll more efficient then locking the
+     * keys one by one.
+     *
+     * @return true if batch locking is optimized
+     */
+    public boolean isBatchLockSupported() {
+        return false;
+    }
+
+    /**
+     * Lock all keys in the order of the map. The lock mode (shared or exclusive) is defined by the
+     * owner. If not all keys can be locked in time the already locked keys will be released and a
+     * TimeoutRuntimeException is thrown.
+     *
+     * @param keys The keys and the objects to lock
+     * @param transaction The owner
+     * @param timeout Timeout in milliseconds for all keys
+     */
+    public void lockAll(SortedMap<String, Object> keys, LockBase transaction, long timeout) {
+        long start = System.currentTimeMillis();
+        ArrayList<Map.Entry<String, Object>> done = new ArrayList<>(keys.size());
+        try {
+            for (Map.Entry<String, Object> entry : keys.entrySet()) {
+                long left = timeout - (System.currentTimeMillis() - start);
+                if (left <= 0) throw new TimeoutRuntimeException(keys.keySet());
+                if (transaction.isShared())
+                    lockShared(entry.getValue(), entry.getKey(), transaction, left);
+                else lock(entry.getValue(), entry.getKey(), transaction, left);
+                done.add(entry);
+            }
+        } catch (RuntimeException e) {
+            for (int i = done.size() - 1; i >= 0; i--) {
+                Map.Entry<String, Object> entry = done.get(i);
+                try {
+                    if (transaction.isShared())
+                        releaseSharedLock(entry.getValue(), entry.getKey(), transaction);
+                    else releaseLock(entry.getValue(), entry.getKey(), transaction);
+                } catch (Throwable t) {
+                    log().d(entry.getKey(), t);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Release all keys. The method will not throw errors of single keys.
+     *
+     * @param keys The keys and the locked objects
+     * @param transaction The owner
+     */
+    public void releaseAll(SortedMap<String, Object> keys, LockBase transaction) {
+        for (Map.Entry<String, Object> entry : keys.entrySet()) {
+            try {
+                if (transaction.isShared())
+                    releaseSharedLock(entry.getValue(), entry.getKey(), transaction);
+                else releaseLock(entry.getValue(), entry.getKey(), transaction);
+            } catch (Throwable t) {
+                log().d(entry.getKey(), t);
+            }
+        }
+    }
 }
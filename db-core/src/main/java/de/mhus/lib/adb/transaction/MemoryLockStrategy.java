@@ -16,13 +16,31 @@
 package de.mhus.lib.adb.transaction;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MHousekeeper;
+import de.mhus.lib.core.MHousekeeperTask;
 import de.mhus.lib.core.MPeriod;
-import de.mhus.lib.core.MThread;
 import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.errors.TimeoutRuntimeException;
 
+/**
+ * Lock strategy holding the locks in memory. The locks are stored in a concurrent map. Waiting
+ * threads are parked on a stripe monitor of the key and will be woken up if the lock is released
+ * or the current lock is getting stale. Stale locks are ignored by all operations and removed by a
+ * background sweeper.
+ *
+ * <p>Shared locks can be held by multiple owners at the same time and block exclusive locks.
+ *
+ * <p>If fair is set, waiting threads will get the lock in the order of the requests. Without
+ * fairness new shared locks are granted even if exclusive locks are waiting.
+ */
 public class MemoryLockStrategy extends LockStrategy {
 
     private static final CfgLong CFG_MAX_LOCK_AGE =
@@ -31,80 +49,200 @@ public class MemoryLockStrategy extends LockStrategy {
             new CfgLong(MemoryLockStrategy.class, "sleepTime", 200);
     private static final CfgBoolean CFG_IGNORE_LOCK_OWNER =
             new CfgBoolean(MemoryLockStrategy.class, "ignoreLockOwner", false);
+    private static final CfgBoolean CFG_FAIR =
+            new CfgBoolean(MemoryLockStrategy.class, "fair", false);
+    private static final CfgInt CFG_STRIPES = new CfgInt(MemoryLockStrategy.class, "stripes", 64);
+    private static final CfgLong CFG_SWEEP_INTERVAL =
+            new CfgLong(
+                    MemoryLockStrategy.class, "sweepInterval", MPeriod.MINUTE_IN_MILLISECONDS);
 
     private long maxLockAge = CFG_MAX_LOCK_AGE.value();
     private long sleepTime = CFG_SLEEP_TIME.value();
     private boolean ignoreLockOwner = CFG_IGNORE_LOCK_OWNER.value();
+    private boolean fair = CFG_FAIR.value();
 
-    private HashMap<String, LockObject> locks = new HashMap<>();
+    private ConcurrentHashMap<String, LockObject> locks = new ConcurrentHashMap<>();
+    private Stripe[] stripes;
+    private volatile MHousekeeperTask sweeper;
+    private AtomicLong reclaimed = new AtomicLong();
+
+    public MemoryLockStrategy() {
+        this(CFG_STRIPES.value());
+    }
+
+    public MemoryLockStrategy(int stripeCnt) {
+        // round up to a power of two
+        int size = 1;
+        while (size < stripeCnt) size = size << 1;
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) stripes[i] = new Stripe();
+    }
 
     @Override
     public boolean isLocked(Object object, String key, LockBase transaction) {
-        synchronized (this) {
-            LockObject current = locks.get(key);
-            if (current != null && current.getAge() > maxLockAge) {
-                log().i("remove stare lock", current.owner, current.ownerStr, key);
-                locks.remove(key);
-                return false;
-            }
-            return current != null;
-        }
+        LockObject current = locks.get(key);
+        return current != null && !current.isStale();
     }
 
     @Override
     public boolean isLockedByOwner(Object object, String key, LockBase transaction) {
-        synchronized (this) {
-            LockObject current = locks.get(key);
-            if (current != null && current.getAge() > maxLockAge) {
-                log().i("remove stare lock", current.owner, current.ownerStr, key);
-                locks.remove(key);
-                return false;
-            }
-            return current != null && current.owner.equals(transaction.getName());
-        }
+        LockObject current = locks.get(key);
+        return current != null && current.isOwner(transaction.getName());
+    }
+
+    @Override
+    public boolean isSharedLockSupported() {
+        return true;
     }
 
     @Override
     public void lock(Object object, String key, LockBase transaction, long timeout) {
+        acquire(key, transaction, timeout, false);
+    }
+
+    @Override
+    public void lockShared(Object object, String key, LockBase transaction, long timeout) {
+        acquire(key, transaction, timeout, true);
+    }
 
+    private void acquire(String key, LockBase transaction, long timeout, boolean shared) {
+        // double checked, the monitor is only used until the sweeper is started
+        if (sweeper == null) initSweeper();
         long start = System.currentTimeMillis();
-        while (true) {
-            synchronized (this) {
-                LockObject current = locks.get(key);
-                if (current != null && current.getAge() > maxLockAge) {
-                    log().i("remove stare lock", current.owner, current.ownerStr, key);
-                    locks.remove(key);
-                    continue;
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            LinkedList<Thread> queue = null;
+            try {
+                while (true) {
+                    LockObject current = locks.get(key);
+                    if (current != null && current.purge(key)) {
+                        if (locks.remove(key, current)) reclaimed.incrementAndGet();
+                        current = null;
+                    }
+                    if ((current == null || shared && current.shared)
+                            && (!fair || stripe.isNext(key, queue))) {
+                        if (!shared) {
+                            locks.put(key, new LockObject(transaction));
+                        } else {
+                            if (current == null) {
+                                current = new LockObject();
+                                locks.put(key, current);
+                            }
+                            current.readers.put(
+                                    transaction.getName(), System.currentTimeMillis());
+                        }
+                        return;
+                    }
+                    if (fair && queue == null) queue = stripe.enqueue(key);
+
+                    long wait = timeout - (System.currentTimeMillis() - start);
+                    if (wait <= 0) throw new TimeoutRuntimeException(key);
+                    // wake up when the current lock is getting stale
+                    if (current != null)
+                        wait = Math.min(wait, Math.max(1, maxLockAge - current.getAge()));
+                    wait = Math.min(wait, sleepTime);
+                    log().t("wait for lock", key, shared);
+                    try {
+                        stripe.wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new TimeoutRuntimeException(key);
+                    }
                 }
-                if (current == null) {
-                    locks.put(key, new LockObject(transaction));
-                    return;
-                } else {
-                    log().t("wait for lock", key);
+            } finally {
+                if (queue != null) {
+                    stripe.dequeue(key, queue);
+                    stripe.notifyAll();
                 }
-                //				if (current != null && current.equals(transaction)) {
-                //					// already locked by me
-                //					return;
-                //				}
             }
-
-            if (System.currentTimeMillis() - start > timeout)
-                throw new TimeoutRuntimeException(key);
-            MThread.sleepForSure(sleepTime);
         }
     }
 
     @Override
     public void releaseLock(Object object, String key, LockBase transaction) {
-        synchronized (this) {
-            LockObject obj = locks.get(key);
-            if (obj == null) return;
-            if (obj.owner.equals(transaction.getName())) locks.remove(key);
-            else {
-                log().w("you are not the lock owner", key, obj.owner, transaction.getName());
-                if (ignoreLockOwner) locks.remove(key);
+        LockObject obj = locks.get(key);
+        if (obj == null) return;
+        Stripe stripe = getStripe(key);
+        if (obj.shared) {
+            synchronized (stripe) {
+                if (obj.readers.remove(transaction.getName()) == null) {
+                    log().w("you are not the lock owner", key, transaction.getName());
+                    return;
+                }
+                if (obj.readers.isEmpty()) locks.remove(key, obj);
+                stripe.notifyAll();
+            }
+            return;
+        }
+        if (!obj.owner.equals(transaction.getName())) {
+            log().w("you are not the lock owner", key, obj.owner, transaction.getName());
+            if (!ignoreLockOwner) return;
+        }
+        synchronized (stripe) {
+            locks.remove(key, obj);
+            stripe.notifyAll();
+        }
+    }
+
+    /**
+     * Remove all stale locks and wake up waiting threads.
+     *
+     * @return Number of removed locks
+     */
+    public int cleanup() {
+        int cnt = 0;
+        for (Map.Entry<String, LockObject> entry : locks.entrySet()) {
+            LockObject current = entry.getValue();
+            if (!current.isStale() && !current.shared) continue;
+            Stripe stripe = getStripe(entry.getKey());
+            synchronized (stripe) {
+                if (current.purge(entry.getKey()) && locks.remove(entry.getKey(), current)) {
+                    reclaimed.incrementAndGet();
+                    cnt++;
+                    stripe.notifyAll();
+                }
             }
         }
+        return cnt;
+    }
+
+    /** Stop the background sweeper. */
+    public synchronized void close() {
+        if (sweeper == null) return;
+        sweeper.cancel();
+        sweeper = null;
+    }
+
+    protected synchronized void initSweeper() {
+        if (sweeper != null) return;
+        sweeper =
+                new MHousekeeperTask("MemoryLockStrategy sweeper") {
+
+                    @Override
+                    public void doit() throws Exception {
+                        int cnt = cleanup();
+                        if (cnt > 0) log().d("removed stale locks", cnt);
+                    }
+                };
+        MHousekeeper housekeeper = M.l(MHousekeeper.class);
+        if (housekeeper != null) {
+            housekeeper.register(sweeper, CFG_SWEEP_INTERVAL.value());
+        } else {
+            log().w("Housekeeper not found - stale lock sweeper disabled");
+        }
+    }
+
+    /**
+     * Return the count of removed stale locks.
+     *
+     * @return count
+     */
+    public long getReclaimedLocks() {
+        return reclaimed.get();
+    }
+
+    public int getSize() {
+        return locks.size();
     }
 
     public long getMaxLockAge() {
@@ -115,6 +253,12 @@ public class MemoryLockStrategy extends LockStrategy {
         this.maxLockAge = maxLockAge;
     }
 
+    /**
+     * Maximum time a waiting thread sleeps before it checks the lock again. Usually threads will be
+     * woken up earlier by releasing the lock.
+     *
+     * @return sleep time in milliseconds
+     */
     public long getSleepTime() {
         return sleepTime;
     }
@@ -123,18 +267,120 @@ public class MemoryLockStrategy extends LockStrategy {
         this.sleepTime = sleepTime;
     }
 
+    public boolean isFair() {
+        return fair;
+    }
+
+    public void setFair(boolean fair) {
+        this.fair = fair;
+    }
+
+    public boolean isIgnoreLockOwner() {
+        return ignoreLockOwner;
+    }
+
+    public void setIgnoreLockOwner(boolean ignoreLockOwner) {
+        this.ignoreLockOwner = ignoreLockOwner;
+    }
+
+    private Stripe getStripe(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private static class Stripe {
+        // waiting queues for fair locking, guarded by the stripe monitor
+        private HashMap<String, LinkedList<Thread>> queues = new HashMap<>();
+
+        boolean isNext(String key, LinkedList<Thread> queue) {
+            if (queue == null) return !queues.containsKey(key);
+            return queue.peekFirst() == Thread.currentThread();
+        }
+
+        LinkedList<Thread> enqueue(String key) {
+            LinkedList<Thread> queue = queues.get(key);
+            if (queue == null) {
+                queue = new LinkedList<>();
+                queues.put(key, queue);
+            }
+            queue.add(Thread.currentThread());
+            return queue;
+        }
+
+        void dequeue(String key, LinkedList<Thread> queue) {
+            queue.remove(Thread.currentThread());
+            if (queue.isEmpty()) queues.remove(key);
+        }
+    }
+
     private class LockObject {
+
+        /**
+         * Create an exclusive lock.
+         *
+         * @param transaction
+         */
         public LockObject(LockBase transaction) {
             owner = transaction.getName();
             ownerStr = transaction.toString();
+            readers = null;
+            shared = false;
+        }
+
+        /** Create a shared lock. */
+        public LockObject() {
+            readers = new ConcurrentHashMap<>();
+            shared = true;
         }
 
+        /**
+         * Return the age of the lock. For shared locks it's the age of the youngest reader.
+         *
+         * @return age in milliseconds
+         */
         public long getAge() {
-            return System.currentTimeMillis() - created;
+            if (!shared) return System.currentTimeMillis() - created;
+            long age = Long.MAX_VALUE;
+            for (Long c : readers.values()) age = Math.min(age, System.currentTimeMillis() - c);
+            return age;
+        }
+
+        public boolean isStale() {
+            return getAge() > maxLockAge;
+        }
+
+        public boolean isOwner(String name) {
+            if (!shared) return !isStale() && owner.equals(name);
+            Long c = readers.get(name);
+            return c != null && System.currentTimeMillis() - c <= maxLockAge;
+        }
+
+        /**
+         * Remove stale readers, need to be called in the stripe monitor.
+         *
+         * @param key
+         * @return true if the whole lock is stale
+         */
+        public boolean purge(String key) {
+            if (!shared) {
+                if (!isStale()) return false;
+                log().i("remove stale lock", owner, ownerStr, key);
+                return true;
+            }
+            for (Map.Entry<String, Long> entry : readers.entrySet())
+                if (System.currentTimeMillis() - entry.getValue() > maxLockAge) {
+                    log().i("remove stale shared lock", entry.getKey(), key);
+                    readers.remove(entry.getKey());
+                }
+            return readers.isEmpty();
         }
 
         private long created = System.currentTimeMillis();
         private String owner;
         private String ownerStr;
+        private final boolean shared;
+        // owner name -> lock time
+        private final ConcurrentHashMap<String, Long> readers;
     }
 }
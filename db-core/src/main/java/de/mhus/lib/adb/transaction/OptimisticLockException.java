@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.transaction;
+
+/**
+ * Thrown if an object is saved in optimistic mode and the vstamp in the database is not the
+ * expected one. The object was modified by another process in the meantime, reload the object and
+ * retry. See DbTransaction.retryOptimistic().
+ */
+public class OptimisticLockException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private String registryName;
+    private long vstamp;
+
+    public OptimisticLockException(String registryName, Object object, long vstamp) {
+        super("object was modified concurrently: " + registryName + " " + object + " " + vstamp);
+        this.registryName = registryName;
+        this.vstamp = vstamp;
+    }
+
+    public String getRegistryName() {
+        return registryName;
+    }
+
+    /**
+     * The expected vstamp of the object.
+     *
+     * @return The vstamp
+     */
+    public long getVstamp() {
+        return vstamp;
+    }
+}
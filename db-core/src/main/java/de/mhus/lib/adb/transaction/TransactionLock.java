@@ -48,6 +48,9 @@ public class TransactionLock extends LockBase {
     private TreeMap<String, Object> orderedKeys;
     private String stacktrace;
     private boolean relaxed;
+    private boolean shared;
+    private LockStatistics statistics;
+    private ArrayList<String> statisticKeys;
 
     /**
      * Constructor for TransactionLock.
@@ -92,6 +95,24 @@ public class TransactionLock extends LockBase {
             }
     }
 
+    /**
+     * Set shared mode. Shared locks can be held by multiple owners at the same time. Must be set
+     * before the lock is acquired.
+     *
+     * @param shared
+     * @return this
+     */
+    public TransactionLock setShared(boolean shared) {
+        if (locked) throw new NotSupportedException("already locked", this);
+        this.shared = shared;
+        return this;
+    }
+
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void lock(long timeout) throws TimeoutRuntimeException {
@@ -106,23 +127,56 @@ public class TransactionLock extends LockBase {
 
         getLockKeys();
 
+        statistics = strategy.getStatistics();
+        if (statistics != null) statisticKeys = new ArrayList<>(orderedKeys.size());
+
+        if (strategy.isBatchLockSupported()) {
+            long startNano = statistics == null ? 0 : System.nanoTime();
+            if (statistics != null) for (String key : orderedKeys.keySet()) statistics.onWait(key);
+            try {
+                strategy.lockAll(orderedKeys, this, timeout);
+            } catch (RuntimeException e) {
+                if (statistics != null)
+                    for (String key : orderedKeys.keySet())
+                        statistics.onFailed(key, System.nanoTime() - startNano, e);
+                throw e;
+            }
+            if (statistics != null)
+                for (String key : orderedKeys.keySet()) {
+                    statistics.onAcquired(key, System.nanoTime() - startNano);
+                    statisticKeys.add(key);
+                }
+            locked = true;
+            return;
+        }
+
         long start = System.currentTimeMillis();
         ArrayList<Map.Entry<String, Object>> done = new ArrayList<>(orderedKeys.size());
         for (Map.Entry<String, Object> entry : orderedKeys.entrySet()) {
+            long startNano = statistics == null ? 0 : System.nanoTime();
+            if (statistics != null) statistics.onWait(entry.getKey());
             try {
-                strategy.lock(entry.getValue(), entry.getKey(), this, timeout);
+                if (shared) strategy.lockShared(entry.getValue(), entry.getKey(), this, timeout);
+                else strategy.lock(entry.getValue(), entry.getKey(), this, timeout);
                 done.add(entry);
+                if (statistics != null) {
+                    statistics.onAcquired(entry.getKey(), System.nanoTime() - startNano);
+                    statisticKeys.add(entry.getKey());
+                }
             } catch (Throwable t) {
+                if (statistics != null)
+                    statistics.onFailed(entry.getKey(), System.nanoTime() - startNano, t);
                 log().d(t);
             }
             if (System.currentTimeMillis() - start > timeout) {
                 for (Map.Entry<String, Object> entry2 : done) {
                     try {
-                        strategy.releaseLock(entry2.getValue(), entry2.getKey(), this);
+                        release(strategy, entry2.getValue(), entry2.getKey());
                     } catch (Throwable t) {
                         log().d(t);
                     }
                 }
+                releaseStatistics();
                 throw new TimeoutRuntimeException(orderedKeys);
             }
         }
@@ -130,6 +184,13 @@ public class TransactionLock extends LockBase {
         locked = true;
     }
 
+    private void releaseStatistics() {
+        if (statistics == null) return;
+        for (String key : statisticKeys) statistics.onRelease(key);
+        statistics = null;
+        statisticKeys = null;
+    }
+
     /**
      * createKey.
      *
@@ -164,10 +225,20 @@ public class TransactionLock extends LockBase {
         LockStrategy strategy = manager.getSchema().getLockStrategy();
         if (strategy == null) return;
 
+        releaseStatistics();
+
+        if (strategy.isBatchLockSupported() && orderedKeys != null) {
+            strategy.releaseAll(orderedKeys, this);
+            manager = null;
+            objects = null;
+            locked = false;
+            return;
+        }
+
         for (Object o : objects) {
             String key = createKey(o);
             try {
-                strategy.releaseLock(o, key, this);
+                release(strategy, o, key);
             } catch (Throwable t) {
                 log().d(t);
             }
@@ -178,6 +249,11 @@ public class TransactionLock extends LockBase {
         locked = false;
     }
 
+    private void release(LockStrategy strategy, Object o, String key) {
+        if (shared) strategy.releaseSharedLock(o, key, this);
+        else strategy.releaseLock(o, key, this);
+    }
+
     /** {@inheritDoc} */
     @Override
     public synchronized void pushNestedLock(LockBase transaction) {
@@ -187,6 +263,12 @@ public class TransactionLock extends LockBase {
 
         if (isRelaxed()) return; // I'm relaxed means I accept all nested locks
 
+        if (shared && !transaction.isShared())
+            throw new NestedTransactionException(
+                    "Nested exclusive lock in a shared lock, dead lock possible: "
+                            + transaction.getLockKeys()
+                            + stacktrace);
+
         Set<String> keys = transaction.getLockKeys();
         getLockKeys();
         if (keys != null) {
@@ -252,10 +334,11 @@ public class TransactionLock extends LockBase {
             }
         }
         if (!locked) {
+            releaseStatistics();
             for (Map.Entry<String, Object> entry : orderedKeys.entrySet()) {
                 if (strategy.isLockedByOwner(entry.getValue(), entry.getKey(), this)) {
                     try {
-                        strategy.releaseLock(entry.getValue(), entry.getKey(), this);
+                        release(strategy, entry.getValue(), entry.getKey());
                     } catch (Throwable t) {
                         log().d(entry.getKey(), t);
                     }
@@ -271,7 +354,7 @@ public class TransactionLock extends LockBase {
 
     @Override
     public String toString() {
-        return MSystem.toString(this, locked, relaxed, orderedKeys, stacktrace);
+        return MSystem.toString(this, locked, relaxed, shared, orderedKeys, stacktrace);
     }
 
     @Override
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.util;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.model.Field;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.MCast;
+import de.mhus.lib.core.MLog;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbResult;
+
+/**
+ * Creates numeric ids for auto_id fields. The ids are reserved in blocks using a counter in the
+ * schema properties table, so only one round-trip is needed for blockSize ids. Inside of a block
+ * ids are created lock-free. The counter is updated with a compare-and-set statement to be safe
+ * with multiple nodes. If the counter not exists it starts after the current maximum of the
+ * field. The counter rows are not cached by DbProperties.
+ *
+ * <p>Enable it for a table with the table attribute 'id_generator=block', the size of the blocks
+ * can be set with 'id_block_size'. Ids of unused blocks are lost after a restart.
+ */
+public class BlockIdGenerator extends MLog {
+
+    public static final String KEY_PREFIX = "idblock.";
+    public static final CfgInt CFG_BLOCK_SIZE =
+            new CfgInt(BlockIdGenerator.class, "blockSize", 100);
+    private static final CfgInt CFG_MAX_RETRIES =
+            new CfgInt(BlockIdGenerator.class, "maxRetries", 100);
+
+    private DbManager manager;
+    private Table table;
+    private Field field;
+    private String key;
+    private int blockSize;
+    private final AtomicReference<Block> block = new AtomicReference<>();
+
+    public BlockIdGenerator(DbManager manager, Table table, Field field, int blockSize) {
+        this.manager = manager;
+        this.table = table;
+        this.field = field;
+        this.blockSize = Math.max(1, blockSize);
+        key = KEY_PREFIX + table.getRegistryName() + "." + field.getName();
+    }
+
+    /**
+     * Return the next unique id.
+     *
+     * @return The id
+     * @throws MException If a new block can't be reserved
+     */
+    public long next() throws MException {
+        while (true) {
+            Block current = block.get();
+            if (current != null) {
+                long id = current.next.getAndIncrement();
+                if (id < current.end) return id;
+            }
+            synchronized (this) {
+                if (block.get() == current) block.set(reserve());
+            }
+        }
+    }
+
+    /**
+     * Reserve the next block of ids in the database.
+     *
+     * @return The new block
+     * @throws MException
+     */
+    protected Block reserve() throws MException {
+        Table properties =
+                manager.getTable(manager.getRegistryName(manager.getSchema().getClass()));
+        if (properties == null)
+            throw new MException(RC.ERROR, "schema properties not found", key);
+        String tableName = properties.getTableName();
+        String keyName = properties.getField("key").getMappedName();
+        String valueName = properties.getField("value").getMappedName();
+
+        DbConnection con = null;
+        try {
+            con = manager.getPool().getConnection();
+            HashMap<String, Object> attributes = new HashMap<>();
+            attributes.put("key", key);
+            for (int i = 0; i < CFG_MAX_RETRIES.value(); i++) {
+                String current = null;
+                DbResult res =
+                        con.createStatement(
+                                        "SELECT "
+                                                + valueName
+                                                + " FROM "
+                                                + tableName
+                                                + " WHERE "
+                                                + keyName
+                                                + "=$key$")
+                                .executeQuery(attributes);
+                if (res.next()) current = res.getString(valueName);
+                res.close();
+
+                long start = current == null ? findStart(con) : MCast.tolong(current, 1);
+                attributes.put("value", String.valueOf(start + blockSize));
+                int cnt = 0;
+                try {
+                    if (current == null) {
+                        cnt =
+                                con.createStatement(
+                                                "INSERT INTO "
+                                                        + tableName
+                                                        + " ("
+                                                        + keyName
+                                                        + ","
+                                                        + valueName
+                                                        + ") VALUES ($key$,$value$)")
+                                        .executeUpdate(attributes);
+                    } else {
+                        attributes.put("current", current);
+                        cnt =
+                                con.createStatement(
+                                                "UPDATE "
+                                                        + tableName
+                                                        + " SET "
+                                                        + valueName
+                                                        + "=$value$ WHERE "
+                                                        + keyName
+                                                        + "=$key$ AND "
+                                                        + valueName
+                                                        + "=$current$")
+                                        .executeUpdate(attributes);
+                    }
+                    con.commit();
+                } catch (Exception e) {
+                    // insert by another node
+                    log().d("reserve block failed", key, e);
+                    con.rollback();
+                }
+                if (cnt == 1) {
+                    log().d("reserved block", key, start, blockSize);
+                    return new Block(start, start + blockSize);
+                }
+            }
+        } catch (MException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MException(RC.ERROR, "reserve id block failed", key, e);
+        } finally {
+            if (con != null) con.close();
+        }
+        throw new MException(RC.ERROR, "reserve id block failed, too many retries", key);
+    }
+
+    private long findStart(DbConnection con) throws Exception {
+        DbResult res =
+                con.createStatement(
+                                "SELECT MAX("
+                                        + field.getMappedName()
+                                        + ") AS maxid FROM "
+                                        + table.getTableName())
+                        .executeQuery(new HashMap<>());
+        long max = res.next() ? res.getLong("maxid") : 0;
+        res.close();
+        return Math.max(1, max + 1);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    protected static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        protected Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -15,22 +15,38 @@
  */
 package de.mhus.lib.adb.util;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mhus.lib.adb.DbCollection;
 import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.core.MPeriod;
+import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.errors.MException;
 
 /**
- * A simple key - value properties implementation.
+ * A simple key - value properties implementation. All entries are loaded with one query into
+ * memory on first access and served from there. Changes are written through to the database. If a
+ * refresh interval is set the cache will be reloaded from the database after the interval is
+ * expired to see changes of other nodes. The cache decides if a property is created or updated, if
+ * the cache is outdated the row is loaded from the database. The counters of the BlockIdGenerator
+ * are updated with compare-and-set statements in the same table and are never cached.
  *
  * @author mikehummel
  * @version $Id: $Id
  */
 public class DbProperties {
 
+    public static final CfgLong CFG_REFRESH_INTERVAL =
+            new CfgLong(DbProperties.class, "refreshInterval", 0);
+
     private DbManager manager;
     private String registryName;
-
-    @SuppressWarnings("unused")
-    private String dump;
+    private volatile Map<String, String> cache;
+    private volatile long lastLoad;
+    private long refreshInterval = CFG_REFRESH_INTERVAL.value();
 
     /**
      * Constructor for DbProperties.
@@ -51,9 +67,11 @@ public class DbProperties {
      * @throws de.mhus.lib.errors.MException if any.
      */
     public String get(String key) throws MException {
-        Property prop = (Property) manager.getObject(registryName, key);
-        if (prop == null) return null;
-        return prop.getValue();
+        if (!isCached(key)) {
+            Property prop = (Property) manager.getObject(registryName, key);
+            return prop == null ? null : prop.getValue();
+        }
+        return getCache().get(key);
     }
 
     /**
@@ -65,18 +83,38 @@ public class DbProperties {
      * @throws de.mhus.lib.errors.MException if any.
      */
     public String set(String key, String value) throws MException {
+        if (!isCached(key)) return setDirect(null, key, value);
+        Map<String, String> c = getCache();
+        String oldValue = c.get(key);
+        Property prop = new Property();
+        prop.setKey(key);
+        prop.setValue(value);
+        try {
+            if (oldValue == null) manager.createObject(registryName, prop);
+            else manager.saveObject(registryName, prop);
+        } catch (MException e) {
+            // changed by another node, load the current row
+            return setDirect(c, key, value);
+        }
+        put(c, key, value);
+        return oldValue;
+    }
+
+    private String setDirect(Map<String, String> c, String key, String value)
+            throws MException {
         Property prop = (Property) manager.getObject(registryName, key);
         if (prop == null) {
             prop = new Property();
             prop.setKey(key);
             prop.setValue(value);
             manager.createObject(registryName, prop);
+            if (c != null) put(c, key, value);
             return null;
         }
         String oldValue = prop.getValue();
         prop.setValue(value);
         manager.saveObject(registryName, prop);
-        dump = null;
+        if (c != null) put(c, key, value);
         return oldValue;
     }
 
@@ -88,29 +126,116 @@ public class DbProperties {
      * @throws de.mhus.lib.errors.MException if any.
      */
     public String remove(String key) throws MException {
+        if (!isCached(key)) return removeDirect(null, key);
+        Map<String, String> c = getCache();
+        String oldValue = c.get(key);
+        if (oldValue == null) return null;
+        Property prop = new Property();
+        prop.setKey(key);
+        try {
+            manager.deleteObject(registryName, prop);
+        } catch (MException e) {
+            return removeDirect(c, key);
+        }
+        c.remove(key);
+        return oldValue;
+    }
+
+    private String removeDirect(Map<String, String> c, String key) throws MException {
         Property prop = (Property) manager.getObject(registryName, key);
         if (prop == null) {
+            if (c != null) c.remove(key);
             return null;
         }
         String oldValue = prop.getValue();
         manager.deleteObject(registryName, prop);
-        dump = null;
+        if (c != null) c.remove(key);
         return oldValue;
     }
 
-    //	public String toString() {
-    //		if (dump == null) {
-    //			try {
-    //				TreeMap<String, String> tree = new TreeMap<String, String>();
-    //				DbCollection<Property> res = manager.getByQualification(null, new Property(),
-    // registryName, "", null);
-    //				for (Property p : res) tree.put(p.getKey(), p.getValue());
-    //				res.close();
-    //				dump = tree.toString() + "@DbProperties";
-    //			} catch (MException e) {
-    //				dump = e.toString() + "@DbProperties";
-    //			}
-    //		}
-    //		return dump;
-    //	}
+    /**
+     * Return a read only view of all cached properties.
+     *
+     * @return The properties
+     * @throws MException
+     */
+    public Map<String, String> getAll() throws MException {
+        return Collections.unmodifiableMap(getCache());
+    }
+
+    /**
+     * Load all properties from the database and replace the cache.
+     *
+     * @throws MException
+     */
+    public synchronized void reload() throws MException {
+        ConcurrentHashMap<String, String> c = new ConcurrentHashMap<>();
+        DbCollection<Property> res =
+                manager.getByQualification(null, new Property(), registryName, "", null);
+        try {
+            for (Property p : res) if (isCached(p.getKey())) put(c, p.getKey(), p.getValue());
+        } finally {
+            res.close();
+        }
+        lastLoad = System.currentTimeMillis();
+        cache = c;
+    }
+
+    /** Drop the cache, it will be loaded again with the next access. */
+    public void invalidate() {
+        cache = null;
+    }
+
+    /**
+     * Set the interval in milliseconds after the cache will be reloaded from the database. Zero or
+     * less disables the refresh.
+     *
+     * @param refreshInterval
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    private Map<String, String> getCache() throws MException {
+        Map<String, String> c = cache;
+        if (c == null
+                || refreshInterval > 0 && MPeriod.isTimeOut(lastLoad, refreshInterval)) {
+            synchronized (this) {
+                c = cache;
+                if (c == null
+                        || refreshInterval > 0 && MPeriod.isTimeOut(lastLoad, refreshInterval)) {
+                    reload();
+                    c = cache;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Return false for keys which are changed in the database without this object.
+     *
+     * @param key The key
+     * @return true if the property is cached
+     */
+    protected boolean isCached(String key) {
+        return !key.startsWith(BlockIdGenerator.KEY_PREFIX);
+    }
+
+    private void put(Map<String, String> c, String key, String value) {
+        // ConcurrentHashMap does not support null values
+        if (value == null) c.remove(key);
+        else c.put(key, value);
+    }
+
+    @Override
+    public String toString() {
+        Map<String, String> c = cache;
+        if (c == null) return "[not loaded]@DbProperties";
+        return new TreeMap<>(c).toString() + "@DbProperties";
+    }
 }
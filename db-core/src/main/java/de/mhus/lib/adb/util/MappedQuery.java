@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.util;
+
+import java.util.Collections;
+import java.util.Map;
+
+import de.mhus.lib.core.util.FallbackMap;
+import de.mhus.lib.core.util.Raw;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPrepared;
+import de.mhus.lib.sql.DbStatement;
+import de.mhus.lib.sql.parser.ICompiler;
+
+/**
+ * A query with the 'db.' name mapping placeholders resolved at compile time. The table and column
+ * names are inserted as literals before the query is compiled, so only the attributes of the
+ * caller are left as parameters. If a placeholder can't be resolved the mapping is used as
+ * fallback at execution time.
+ *
+ * <p>Attributes of the caller starting with 'db.' override the mapping. Queries executed with such
+ * attributes are not resolved, see {@link #overridesMapping(Map)}.
+ */
+public class MappedQuery {
+
+    private static final String PREFIX = "db.";
+
+    private final DbPrepared prepared;
+    private final boolean complete;
+
+    public MappedQuery(DbPool pool, String query, Map<String, Object> nameMapping)
+            throws MException {
+        String language = pool.getDialect().detectLanguage(query);
+        if (language == null && nameMapping != null) {
+            StringBuilder out = new StringBuilder(query.length());
+            complete = resolve(query, nameMapping, pool.getDialect(), out);
+            prepared = pool.createStatement(out.toString());
+        } else {
+            complete = false;
+            prepared = pool.createStatement(query, language);
+        }
+    }
+
+    /**
+     * Resolve the 'db.' placeholders outside of quotes. The rules of the sql parser are followed,
+     * '$$' is an escaped '$' and quotes can be escaped by doubling them.
+     *
+     * @param query
+     * @param nameMapping
+     * @param compiler
+     * @param out
+     * @return true if all 'db.' placeholders are resolved
+     */
+    protected static boolean resolve(
+            String query, Map<String, Object> nameMapping, ICompiler compiler, StringBuilder out) {
+        boolean complete = true;
+        int len = query.length();
+        int pos = 0;
+        while (pos < len) {
+            char c = query.charAt(pos);
+            if (c == '\'' || c == '"') {
+                int end = pos + 1;
+                while (end < len) {
+                    if (query.charAt(end) == c) {
+                        if (end + 1 < len && query.charAt(end + 1) == c) end++;
+                        else break;
+                    }
+                    end++;
+                }
+                end = Math.min(end + 1, len);
+                out.append(query, pos, end);
+                pos = end;
+            } else if (c == '$') {
+                if (pos + 1 < len && query.charAt(pos + 1) == '$') {
+                    out.append("$$");
+                    pos += 2;
+                    continue;
+                }
+                int end = query.indexOf('$', pos + 1);
+                if (end < 0) {
+                    out.append(query, pos, len);
+                    break;
+                }
+                String name = query.substring(pos + 1, end);
+                String value = null;
+                if (name.startsWith(PREFIX)) {
+                    value = toLiteral(nameMapping.get(name), compiler);
+                    if (value == null) complete = false;
+                }
+                if (value == null) out.append(query, pos, end + 1);
+                else out.append(value);
+                pos = end + 1;
+            } else {
+                out.append(c);
+                pos++;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Return the literal as the parameter would be rendered or null if it is not a constant
+     * literal.
+     *
+     * @param value
+     * @param compiler
+     * @return The literal or null
+     */
+    protected static String toLiteral(Object value, ICompiler compiler) {
+        String out = null;
+        if (value instanceof Raw) out = compiler.valueToString(value);
+        else if (value instanceof Integer || value instanceof Long)
+            out = compiler.valueToNumber(value);
+        if (out == null || out.indexOf('\'') >= 0 || out.indexOf('"') >= 0) return null;
+        return out.replace("$", "$$");
+    }
+
+    /**
+     * Returns true if the attributes contain a 'db.' key. The attributes of the caller take
+     * precedence over the name mapping, a query resolved at compile time would ignore them.
+     *
+     * @param attributes The attributes of the caller or null
+     * @return true if the query must not be resolved with the name mapping
+     */
+    public static boolean overridesMapping(Map<String, Object> attributes) {
+        if (attributes == null) return false;
+        for (String key : attributes.keySet()) if (key.startsWith(PREFIX)) return true;
+        return false;
+    }
+
+    /**
+     * Return the attributes to execute the query with.
+     *
+     * @param attributes The attributes of the caller or null
+     * @param nameMapping
+     * @return The attributes
+     */
+    public Map<String, Object> getAttributes(
+            Map<String, Object> attributes, Map<String, Object> nameMapping) {
+        if (!complete) {
+            if (attributes == null) return nameMapping;
+            return new FallbackMap<String, Object>(attributes, nameMapping, true);
+        }
+        if (attributes == null) return Collections.emptyMap();
+        return attributes;
+    }
+
+    public DbStatement getStatement(DbConnection con) throws Exception {
+        return prepared.getStatement(con);
+    }
+
+    /**
+     * Returns true if all 'db.' placeholders are resolved.
+     *
+     * @return true if no fallback is needed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return prepared.toString();
+    }
+}
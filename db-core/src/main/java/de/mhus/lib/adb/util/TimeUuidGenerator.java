@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.util;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates time ordered UUIDs in the layout of UUID version 7. The first 48 bits are the unix time
+ * in milliseconds followed by a 12 bit counter to keep the ids monotonic inside of the same
+ * millisecond. The remaining 62 bits are random. New ids are inserted at the end of a B-tree index
+ * instead of random pages. The random part uses ThreadLocalRandom and is not blocking.
+ */
+public class TimeUuidGenerator {
+
+    // unix milliseconds << 12 | counter
+    private static final AtomicLong last = new AtomicLong();
+
+    private TimeUuidGenerator() {}
+
+    /**
+     * Create a new time ordered UUID.
+     *
+     * @return The UUID
+     */
+    public static UUID next() {
+        long now = System.currentTimeMillis() << 12;
+        long current;
+        long next;
+        do {
+            current = last.get();
+            // if the clock moves backwards or the counter overflows use the next value
+            next = now > current ? now : current + 1;
+        } while (!last.compareAndSet(current, next));
+
+        long msb = ((next >>> 12) << 16) | 0x7000L | (next & 0xfffL);
+        long random = ThreadLocalRandom.current().nextLong();
+        long lsb = (random & 0x3fffffffffffffffL) | 0x8000000000000000L; // variant 10
+        return new UUID(msb, lsb);
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In memory copy of the database metadata used to compare table definitions with the existing
+ * structure. A complete catalog is read in bulk and knows all tables of the database, otherwise
+ * tables are added on demand.
+ */
+public class DbCatalog {
+
+    private final boolean complete;
+    // shared by parallel workers, a table and its columns are changed by one worker only
+    private final Map<String, CatalogTable> tables =
+            Collections.synchronizedMap(
+                    new TreeMap<String, CatalogTable>(String.CASE_INSENSITIVE_ORDER));
+
+    public DbCatalog(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Returns true if all tables of the database are loaded. A table which is not found in a
+     * complete catalog is not existing.
+     *
+     * @return true if complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns true if the table is known in the catalog, existing or not.
+     *
+     * @param name
+     * @return true if known
+     */
+    public boolean isKnown(String name) {
+        return complete || tables.containsKey(name);
+    }
+
+    /**
+     * Returns the table or null if the table is not existing or not loaded.
+     *
+     * @param name
+     * @return The table or null
+     */
+    public CatalogTable getTable(String name) {
+        return tables.get(name);
+    }
+
+    public CatalogTable addTable(String name) {
+        CatalogTable table = new CatalogTable(name);
+        tables.put(name, table);
+        return table;
+    }
+
+    public void setMissing(String name) {
+        tables.put(name, null);
+    }
+
+    public int size() {
+        return tables.size();
+    }
+
+    public static class CatalogTable {
+
+        private final String name;
+        private final Map<String, CatalogColumn> columns =
+                new TreeMap<String, CatalogColumn>(String.CASE_INSENSITIVE_ORDER);
+        private volatile List<String> primaryKey;
+        private volatile List<CatalogIndex> indexes;
+
+        public CatalogTable(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void addColumn(CatalogColumn column) {
+            columns.put(column.getName(), column);
+        }
+
+        public CatalogColumn getColumn(String name) {
+            return columns.get(name);
+        }
+
+        public Collection<CatalogColumn> getColumns() {
+            return columns.values();
+        }
+
+        /**
+         * Returns the primary key columns in the order of the database or null if not loaded.
+         *
+         * @return The columns or null
+         */
+        public List<String> getPrimaryKey() {
+            return primaryKey;
+        }
+
+        public void setPrimaryKey(List<String> primaryKey) {
+            this.primaryKey = primaryKey;
+        }
+
+        /**
+         * Returns one entry per index column or null if not loaded.
+         *
+         * @return The index columns or null
+         */
+        public List<CatalogIndex> getIndexes() {
+            return indexes;
+        }
+
+        public void setIndexes(List<CatalogIndex> indexes) {
+            this.indexes = indexes;
+        }
+
+        /**
+         * Mark a table as created in this run, it has no columns, keys and indexes to check.
+         */
+        public void setCreated() {
+            primaryKey = new LinkedList<>();
+            indexes = new LinkedList<>();
+        }
+    }
+
+    public static class CatalogColumn {
+
+        private final String name;
+        private final String type;
+        private final int size;
+        private final int nullable;
+        private final String def;
+
+        public CatalogColumn(String name, String type, int size, int nullable, String def) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.nullable = nullable;
+            this.def = def;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getNullable() {
+            return nullable;
+        }
+
+        public String getDefault() {
+            return def;
+        }
+    }
+
+    public static class CatalogIndex {
+
+        private final String name;
+        private final String column;
+        private final boolean unique;
+
+        public CatalogIndex(String name, String column, boolean unique) {
+            this.name = name;
+            this.column = column;
+            this.unique = unique;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+    }
+}
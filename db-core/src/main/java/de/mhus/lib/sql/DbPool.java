@@ -34,6 +34,7 @@ import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.MNode;
 import de.mhus.lib.core.service.UniqueId;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.analytics.LatencyHistogram;
 
 /**
  * The pool handles a bundle of connections. The connections should have the same credentials (url,
@@ -65,6 +66,7 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
     private String name;
     private INode config;
     private MHousekeeperTask housekeeperTask;
+    private final DbPoolMetrics metrics = new DbPoolMetrics();
 
     /**
      * Create a new pool from central configuration. It's used the MApi configuration with the key
@@ -258,6 +260,80 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
     @JmxManaged(descrition = "Return the usage of the connections")
     public abstract String dumpUsage(boolean used);
 
+    /**
+     * Return the metrics of the pool.
+     *
+     * @return The metrics
+     */
+    public DbPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    @JmxManaged(descrition = "Highest count of used connections")
+    public int getPeakUsedSize() {
+        return metrics.getPeakUsed();
+    }
+
+    @JmxManaged(descrition = "Reset the highest count of used connections")
+    public void resetPeakUsedSize() {
+        metrics.resetPeakUsed();
+    }
+
+    @JmxManaged(descrition = "Count of borrowed connections")
+    public long getBorrowCount() {
+        return metrics.getBorrowWait().getCount();
+    }
+
+    @JmxManaged(descrition = "Failed requests for a connection")
+    public long getBorrowFailures() {
+        return metrics.getBorrowFailures();
+    }
+
+    @JmxManaged(descrition = "Borrow wait time percentiles p50, p95, p99 and max in microseconds")
+    public String getBorrowWait() {
+        return toPercentiles(metrics.getBorrowWait());
+    }
+
+    @JmxManaged(descrition = "Count of created connections")
+    public long getCreationCount() {
+        return metrics.getCreation().getCount();
+    }
+
+    @JmxManaged(descrition = "Failed creations of connections")
+    public long getCreationFailures() {
+        return metrics.getCreationFailures();
+    }
+
+    @JmxManaged(descrition = "Creation time percentiles p50, p95, p99 and max in microseconds")
+    public String getCreationTime() {
+        return toPercentiles(metrics.getCreation());
+    }
+
+    @JmxManaged(descrition = "Validation time percentiles p50, p95, p99 and max in microseconds")
+    public String getValidationTime() {
+        return toPercentiles(metrics.getValidation());
+    }
+
+    @JmxManaged(descrition = "Connections closed because of the lifetime timeout")
+    public long getClosedByLifetime() {
+        return metrics.getClosedByLifetime();
+    }
+
+    @JmxManaged(descrition = "Connections closed because of the unused timeout")
+    public long getClosedByUnused() {
+        return metrics.getClosedByUnused();
+    }
+
+    protected static String toPercentiles(LatencyHistogram histogram) {
+        return histogram.getPercentile(50) / 1000
+                + ", "
+                + histogram.getPercentile(95) / 1000
+                + ", "
+                + histogram.getPercentile(99) / 1000
+                + ", "
+                + histogram.getMax() / 1000;
+    }
+
     public abstract boolean isClosed();
 
     public Map<String, ConnectionTrace> getStackTraces() {
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.mhus.lib.sql.analytics.LatencyHistogram;
+
+/**
+ * Metrics of a connection pool. All values are maintained with atomic counters, no lock is needed
+ * to update or read them. Times are in nanoseconds.
+ */
+public class DbPoolMetrics {
+
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final LatencyHistogram creation = new LatencyHistogram();
+    private final LatencyHistogram validation = new LatencyHistogram();
+    private final AtomicInteger used = new AtomicInteger();
+    private final AtomicInteger peakUsed = new AtomicInteger();
+    private final LongAdder borrowFailures = new LongAdder();
+    private final LongAdder creationFailures = new LongAdder();
+    private final LongAdder closedByLifetime = new LongAdder();
+    private final LongAdder closedByUnused = new LongAdder();
+
+    public void onBorrow(long nanos) {
+        borrowWait.record(nanos);
+    }
+
+    public void onBorrowFailed() {
+        borrowFailures.increment();
+    }
+
+    public void onCreate(long nanos) {
+        creation.record(nanos);
+    }
+
+    public void onCreateFailed() {
+        creationFailures.increment();
+    }
+
+    public void onValidate(long nanos) {
+        validation.record(nanos);
+    }
+
+    /**
+     * Called if the used state of a connection changed or a used connection was closed.
+     *
+     * @param inUse true if the connection is used now
+     */
+    public void onUsed(boolean inUse) {
+        if (!inUse) {
+            used.decrementAndGet();
+            return;
+        }
+        int current = used.incrementAndGet();
+        int peak = peakUsed.get();
+        while (current > peak && !peakUsed.compareAndSet(peak, current)) peak = peakUsed.get();
+    }
+
+    public void onClosedByLifetime() {
+        closedByLifetime.increment();
+    }
+
+    public void onClosedByUnused() {
+        closedByUnused.increment();
+    }
+
+    public LatencyHistogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    public LatencyHistogram getCreation() {
+        return creation;
+    }
+
+    /**
+     * Time to find a free connection in the pool including the check of closed and timed out
+     * connections.
+     *
+     * @return The histogram
+     */
+    public LatencyHistogram getValidation() {
+        return validation;
+    }
+
+    public int getUsed() {
+        return used.get();
+    }
+
+    public int getPeakUsed() {
+        return peakUsed.get();
+    }
+
+    /** Set the peak of used connections to the current value. */
+    public void resetPeakUsed() {
+        peakUsed.set(used.get());
+    }
+
+    public long getBorrowFailures() {
+        return borrowFailures.sum();
+    }
+
+    public long getCreationFailures() {
+        return creationFailures.sum();
+    }
+
+    public long getClosedByLifetime() {
+        return closedByLifetime.sum();
+    }
+
+    public long getClosedByUnused() {
+        return closedByUnused.sum();
+    }
+}
@@ -73,19 +73,28 @@ public class DefaultDbPool extends DbPool {
     public DbConnection getConnection() throws Exception {
         log().t(getName(), "getConnection");
         boolean foundClosed = false;
+        long start = System.nanoTime();
+        DbConnection out = null;
         try {
             synchronized (pool) {
+                long validate = System.nanoTime();
                 for (InternalDbConnection con : pool) {
                     if (con.isClosed() || con.checkTimedOut()) {
                         foundClosed = true;
                     } else if (!con.isUsed()) {
+                        getMetrics().onValidate(System.nanoTime() - validate);
                         con.setUsed(true);
-                        return new DbConnectionProxy(this, con);
+                        out = new DbConnectionProxy(this, con);
+                        return out;
                     }
                 }
-                return createConnection();
+                getMetrics().onValidate(System.nanoTime() - validate);
+                out = createConnection();
+                return out;
             }
         } finally {
+            if (out == null) getMetrics().onBorrowFailed();
+            else getMetrics().onBorrow(System.nanoTime() - start);
             if (foundClosed) cleanup(false);
         }
     }
@@ -97,9 +106,14 @@ public class DefaultDbPool extends DbPool {
      * @throws Exception
      */
     protected DbConnection createConnection() throws Exception {
+        long start = System.nanoTime();
         try {
             InternalDbConnection con = getProvider().createConnection();
-            if (con == null) return null;
+            if (con == null) {
+                getMetrics().onCreateFailed();
+                return null;
+            }
+            getMetrics().onCreate(System.nanoTime() - start);
             con.setPool(this);
             pool.add(con);
             if (tracePoolSize.value()) log().d("Create DB Connection", pool.size());
@@ -107,6 +121,7 @@ public class DefaultDbPool extends DbPool {
             // getDialect().initializeConnection(con, this);
             return new DbConnectionProxy(this, con);
         } catch (Exception e) {
+            getMetrics().onCreateFailed();
             // special behavior for e.g. mysql, retry to get a connection after gc()
             // Caused by: com.mysql.jdbc.exceptions.jdbc4.MySQLNonTransientConnectionException: Too
             // many connections
@@ -136,7 +151,7 @@ public class DefaultDbPool extends DbPool {
     public int getUsedSize() {
         int cnt = 0;
         synchronized (pool) {
-            for (DbConnection con : new LinkedList<DbConnection>(pool)) {
+            for (DbConnection con : pool) {
                 if (con.isUsed()) cnt++;
             }
         }
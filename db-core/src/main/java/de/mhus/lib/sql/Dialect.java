@@ -15,12 +15,18 @@
  */
 package de.mhus.lib.sql;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
 import de.mhus.lib.adb.query.AQueryCreator;
 import de.mhus.lib.annotations.adb.DbType;
@@ -28,11 +34,14 @@ import de.mhus.lib.basics.RC;
 import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.MSql;
+import de.mhus.lib.core.MString;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.parser.Parser;
 import de.mhus.lib.core.parser.ParsingPart;
 import de.mhus.lib.core.util.MObject;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.NotSupportedException;
 import de.mhus.lib.sql.commonparser.Common2SqlCompiler;
 import de.mhus.lib.sql.parser.FunctionPart;
 import de.mhus.lib.sql.parser.ICompiler;
@@ -89,6 +98,11 @@ public abstract class Dialect extends MObject implements ICompiler, AQueryCreato
 
     public static final String C_ENUMERATION = "[enum]";
 
+    private static final CfgInt CFG_MAX_INSERT_ROWS =
+            new CfgInt(Dialect.class, "maxInsertRows", 1000);
+    private static final CfgInt CFG_MAX_STATEMENT_LENGTH =
+            new CfgInt(Dialect.class, "maxStatementLength", 1000000);
+
     private Parser sqlParser = new SqlCompiler(this);
     private Parser commonParser = new Common2SqlCompiler(this);
 
@@ -121,6 +135,121 @@ public abstract class Dialect extends MObject implements ICompiler, AQueryCreato
         createData(data, db);
     }
 
+    /**
+     * Called before a set of structures is created with the same connection. The dialect can read
+     * the metadata of the database once and reuse it for all following createStructure calls
+     * until finishStructure is called.
+     *
+     * @param db
+     * @throws Exception
+     */
+    public void startStructure(DbConnection db) throws Exception {}
+
+    /**
+     * Called if structures are created in parallel with different connections. The metadata read
+     * by startStructure of the parent connection is shared with the connection instead of reading
+     * it again. finishStructure must be called for the connection.
+     *
+     * @param db
+     * @param parent Connection already started with startStructure
+     * @throws Exception
+     */
+    public void startStructure(DbConnection db, DbConnection parent) throws Exception {
+        startStructure(db);
+    }
+
+    /**
+     * Release the resources requested by startStructure.
+     *
+     * @param db
+     */
+    public void finishStructure(DbConnection db) {}
+
+    /**
+     * Create a fingerprint of the structure definition. The fingerprint changes if the definition
+     * or the dialect changes and is used to skip the validation of unchanged structures.
+     *
+     * @param data
+     * @return The fingerprint as hex string
+     * @throws Exception
+     */
+    public String createStructureFingerprint(INode data) throws Exception {
+        StringBuilder buf = new StringBuilder(getClass().getCanonicalName());
+        for (INode ctable : data.getObjectList("table")) {
+            buf.append("\ntable:");
+            appendFingerprint(buf, ctable, K_NAME, "prefix", K_PRIMARY_KEY);
+            for (INode cfield : ctable.getObjectList("field")) {
+                buf.append("\nfield:");
+                appendFingerprint(
+                        buf,
+                        cfield,
+                        K_NAME,
+                        K_TYPE,
+                        K_SIZE,
+                        K_DEFAULT,
+                        K_NOT_NULL,
+                        K_CATEGORIES,
+                        K_DESCRIPTION,
+                        K_HINTS);
+            }
+        }
+        for (INode cindex : data.getObjectList("index")) {
+            buf.append("\nindex:");
+            appendFingerprint(
+                    buf, cindex, I_NAME, I_TABLE, "prefix", I_FIELDS, I_TYPE, I_UNIQUE, I_HINTS);
+        }
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] digest = md.digest(buf.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder out = new StringBuilder();
+        for (byte b : digest) out.append(String.format("%02x", b));
+        return out.toString();
+    }
+
+    private void appendFingerprint(StringBuilder buf, INode node, String... keys) {
+        for (String key : keys) {
+            String value = node.getString(key, null);
+            if (value != null) buf.append(key).append('=').append(value).append(';');
+        }
+    }
+
+    /**
+     * Fill the cao metadata of the defined tables without touching the database. Used if the
+     * structure is not validated.
+     *
+     * @param data
+     * @param caoBundle
+     * @throws Exception
+     */
+    public void createMetadata(INode data, MetadataBundle caoBundle) throws Exception {
+        if (caoBundle == null) return;
+        for (INode ctable : data.getObjectList("table")) createTableMetadata(ctable, caoBundle);
+    }
+
+    /**
+     * Fill the cao metadata of one table definition. An existing entry is replaced.
+     *
+     * @param ctable
+     * @param caoBundle
+     * @throws Exception
+     */
+    protected void createTableMetadata(INode ctable, MetadataBundle caoBundle) throws Exception {
+        if (caoBundle == null) return;
+        MutableMetadata caoMeta = new MutableMetadata();
+        caoBundle.getBundle().put(ctable.getExtracted("name"), caoMeta);
+        for (INode cfield : ctable.getObjectList("field")) {
+            caoMeta.getMap()
+                    .add(
+                            new SqlMetaDefinition(
+                                    caoMeta,
+                                    cfield.getExtracted("name"),
+                                    getCaoType(cfield),
+                                    cfield.getExtracted("nls"),
+                                    cfield.getInt("size", 100),
+                                    MString.splitIgnoreEmpty(
+                                            cfield.getString(K_CATEGORIES, ""), ",", true)));
+        }
+    }
+
     /**
      * Create or Update the defined tables. The config object need a bundle of 'table'
      * configurations which define the needed table structure. Example: [config] [table name='table
@@ -398,6 +527,287 @@ public abstract class Dialect extends MObject implements ICompiler, AQueryCreato
         con.setAutoCommit(false);
     }
 
+    /**
+     * Return true if the database supports INSERT statements with multiple VALUES rows.
+     *
+     * @return true if supported
+     */
+    public boolean isMultiRowInsertSupported() {
+        return false;
+    }
+
+    /**
+     * Return the maximum number of rows in one multi row INSERT statement.
+     *
+     * @return Maximum rows, 1 if multi row inserts are not supported
+     */
+    public int getMaxInsertRows() {
+        return isMultiRowInsertSupported() ? Math.max(1, CFG_MAX_INSERT_ROWS.value()) : 1;
+    }
+
+    /**
+     * Return the maximum length of a statement. Values are rendered into the statement so the
+     * length is limited by the packet size of the database protocol.
+     *
+     * @return Maximum length in characters
+     */
+    public int getMaxStatementLength() {
+        return CFG_MAX_STATEMENT_LENGTH.value();
+    }
+
+    /**
+     * Return a statement to insert a row or update it if a row with the same primary key already
+     * exists or null if not supported by the database. The values are referenced by $column$
+     * placeholders.
+     *
+     * @param table The table name
+     * @param columns All columns to insert
+     * @param keys The primary key columns
+     * @param updates The columns to update if the row already exists
+     * @return The statement or null
+     */
+    public String createUpsertSql(
+            String table, List<String> columns, List<String> keys, List<String> updates) {
+        return null;
+    }
+
+    /**
+     * Append the column names separated by comma.
+     *
+     * @param sql
+     * @param columns
+     * @param placeholder Append $column$ placeholders instead of the names
+     */
+    protected void appendColumns(StringBuilder sql, List<String> columns, boolean placeholder) {
+        boolean first = true;
+        for (String column : columns) {
+            if (!first) sql.append(",");
+            if (placeholder) sql.append("$").append(column).append("$");
+            else sql.append(column);
+            first = false;
+        }
+    }
+
+    /**
+     * Return the statement to set the time the current transaction waits for row locks (e.g. SELECT
+     * FOR UPDATE) or null if the database do not support it.
+     *
+     * @param timeout Timeout in milliseconds
+     * @return The statement or null
+     */
+    public String getLockWaitTimeoutSql(long timeout) {
+        return null;
+    }
+
+    /**
+     * Return the statement to reset the lock wait timeout to the default or null if not needed.
+     *
+     * @return The statement or null
+     */
+    public String getLockWaitTimeoutResetSql() {
+        return null;
+    }
+
+    /**
+     * Return the FOR UPDATE clause for a select. If timeout is zero or less the select should not
+     * wait for the lock.
+     *
+     * @param timeout Timeout in milliseconds
+     * @return The clause with a leading space
+     */
+    public String getForUpdateClause(long timeout) {
+        return timeout <= 0 ? " FOR UPDATE NOWAIT" : " FOR UPDATE";
+    }
+
+    /**
+     * Return true if the exception was caused by a lock wait timeout or a not available lock.
+     *
+     * @param e The exception
+     * @return true if it's a lock timeout
+     */
+    public boolean isLockTimeout(SQLException e) {
+        if (e instanceof SQLTimeoutException) return true;
+        return "HYT00".equals(e.getSQLState());
+    }
+
+    /**
+     * Return true if the transaction was rolled back because of a serialization failure or a dead
+     * lock (SQLState 40001). The statement can be retried in a new transaction.
+     *
+     * @param e The exception
+     * @return true if it's a serialization failure
+     */
+    public boolean isSerializationFailure(SQLException e) {
+        return "40001".equals(e.getSQLState());
+    }
+
+    /**
+     * Return true if the exception or one of its causes is a unique or primary key violation.
+     *
+     * @param e The exception
+     * @return true if it's a duplicate key
+     */
+    public boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && isUniqueViolation((SQLException) cause))
+                return true;
+            if (cause.getCause() == cause) break;
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the statement failed because of a unique or primary key violation (SQLState
+     * 23505). Other integrity constraint violations are not duplicate keys.
+     *
+     * @param e The exception
+     * @return true if it's a duplicate key
+     */
+    public boolean isUniqueViolation(SQLException e) {
+        return "23505".equals(e.getSQLState());
+    }
+
+    /**
+     * Return true if the database supports native advisory locks. Advisory locks are bound to the
+     * connection. The lock must be released using the same connection.
+     *
+     * @return true if supported
+     */
+    public boolean isAdvisoryLockSupported() {
+        return false;
+    }
+
+    /**
+     * Acquire an advisory lock for the key. The method blocks on the server side until the lock is
+     * granted or the timeout is reached.
+     *
+     * @param db The connection to bind the lock to
+     * @param key The lock key
+     * @param timeout Timeout in milliseconds, zero or less will try the lock without waiting
+     * @return true if the lock was acquired, false if timed out
+     * @throws Exception
+     */
+    public boolean advisoryLock(DbConnection db, String key, long timeout) throws Exception {
+        throw new NotSupportedException("advisory locks", getClass());
+    }
+
+    /**
+     * Release an advisory lock for the key. The connection must be the same used to acquire the
+     * lock.
+     *
+     * @param db The connection the lock is bound to
+     * @param key The lock key
+     * @return true if the lock was released
+     * @throws Exception
+     */
+    public boolean advisoryUnlock(DbConnection db, String key) throws Exception {
+        throw new NotSupportedException("advisory locks", getClass());
+    }
+
+    /**
+     * Return true if the database supports shared advisory locks.
+     *
+     * @return true if supported
+     */
+    public boolean isAdvisorySharedLockSupported() {
+        return false;
+    }
+
+    /**
+     * Acquire a shared advisory lock for the key. Shared locks can be held by multiple connections
+     * but not together with an exclusive lock.
+     *
+     * @param db The connection to bind the lock to
+     * @param key The lock key
+     * @param timeout Timeout in milliseconds, zero or less will try the lock without waiting
+     * @return true if the lock was acquired, false if timed out
+     * @throws Exception
+     */
+    public boolean advisoryLockShared(DbConnection db, String key, long timeout) throws Exception {
+        throw new NotSupportedException("shared advisory locks", getClass());
+    }
+
+    /**
+     * Release a shared advisory lock for the key.
+     *
+     * @param db The connection the lock is bound to
+     * @param key The lock key
+     * @return true if the lock was released
+     * @throws Exception
+     */
+    public boolean advisoryUnlockShared(DbConnection db, String key) throws Exception {
+        throw new NotSupportedException("shared advisory locks", getClass());
+    }
+
+    /**
+     * Check if an advisory lock for the key is held by any connection.
+     *
+     * @param db A connection
+     * @param key The lock key
+     * @return true if locked
+     * @throws Exception
+     */
+    public boolean isAdvisoryLocked(DbConnection db, String key) throws Exception {
+        throw new NotSupportedException("advisory locks", getClass());
+    }
+
+    /**
+     * Create a stable 64 bit hash for a lock key (FNV-1a).
+     *
+     * @param key
+     * @return hash
+     */
+    public static long toAdvisoryLockId(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return the statement to show the execution plan of the query or null if not supported.
+     *
+     * @param query The executed query
+     * @return The statement or null
+     */
+    public String getExplainSql(String query) {
+        return "EXPLAIN " + query;
+    }
+
+    /**
+     * Return the execution plan of the query. Only select statements are explained. The plan is
+     * created with the given connection, the connection is rolled back afterwards.
+     *
+     * @param db The connection
+     * @param query The executed query
+     * @return The plan as text or null if not supported
+     * @throws Exception
+     */
+    public String explain(DbConnection db, String query) throws Exception {
+        String trimmed = query.trim().toLowerCase();
+        if (!trimmed.startsWith("select") && !trimmed.startsWith("with")) return null;
+        String sql = getExplainSql(query);
+        if (sql == null) return null;
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        StringBuilder out = new StringBuilder();
+        try (Statement sth = con.createStatement();
+                ResultSet res = sth.executeQuery(sql)) {
+            int columns = res.getMetaData().getColumnCount();
+            while (res.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    if (i > 1) out.append('\t');
+                    out.append(res.getString(i));
+                }
+                out.append('\n');
+            }
+        } finally {
+            if (!con.getAutoCommit()) con.rollback();
+        }
+        return out.toString();
+    }
+
     public static Dialect findDialect(String driver) {
         Dialect dialect = null;
         if (driver != null) {
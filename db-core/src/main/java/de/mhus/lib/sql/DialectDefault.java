@@ -22,7 +22,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.query.AAnd;
@@ -48,6 +50,7 @@ import de.mhus.lib.adb.query.AQuery;
 import de.mhus.lib.adb.query.ASubQuery;
 import de.mhus.lib.core.MSql;
 import de.mhus.lib.core.MString;
+import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.NotSupportedException;
 
@@ -61,6 +64,134 @@ import de.mhus.lib.errors.NotSupportedException;
  */
 public class DialectDefault extends Dialect {
 
+    private static final CfgBoolean CFG_BULK_METADATA =
+            new CfgBoolean(DialectDefault.class, "bulkMetadata", true);
+
+    private final Map<DbConnection, DbCatalog> catalogs = new ConcurrentHashMap<>();
+
+    /**
+     * Read all tables and columns of the database in one step if bulk metadata is enabled. The
+     * catalog is used by createTables and createIndexes until finishStructure is called.
+     */
+    @Override
+    public void startStructure(DbConnection db) throws Exception {
+        if (!CFG_BULK_METADATA.value()) return;
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        catalogs.put(db, loadCatalog(con));
+    }
+
+    /** Share the catalog of the parent connection, the catalog is thread safe. */
+    @Override
+    public void startStructure(DbConnection db, DbConnection parent) throws Exception {
+        DbCatalog catalog = parent == null ? null : catalogs.get(parent);
+        if (catalog == null) startStructure(db);
+        else catalogs.put(db, catalog);
+    }
+
+    @Override
+    public void finishStructure(DbConnection db) {
+        catalogs.remove(db);
+    }
+
+    /**
+     * Load all tables and columns of the current database catalog. Primary keys and indexes are
+     * loaded on demand per table.
+     *
+     * @param con
+     * @return The complete catalog
+     * @throws SQLException
+     */
+    protected DbCatalog loadCatalog(Connection con) throws SQLException {
+        long start = System.currentTimeMillis();
+        DbCatalog catalog = new DbCatalog(true);
+        DatabaseMetaData meta = con.getMetaData();
+        String catalogName = con.getCatalog();
+        try (ResultSet res = meta.getTables(catalogName, null, "%", new String[] {"TABLE"})) {
+            while (res.next()) catalog.addTable(res.getString("TABLE_NAME"));
+        }
+        try (ResultSet res = meta.getColumns(catalogName, null, "%", "%")) {
+            while (res.next()) {
+                DbCatalog.CatalogTable table = catalog.getTable(res.getString("TABLE_NAME"));
+                if (table != null) table.addColumn(readColumn(res));
+            }
+        }
+        log().d(
+                "catalog loaded",
+                catalogName,
+                catalog.size(),
+                System.currentTimeMillis() - start);
+        return catalog;
+    }
+
+    protected DbCatalog getCatalog(DbConnection db) {
+        DbCatalog catalog = catalogs.get(db);
+        return catalog == null ? new DbCatalog(false) : catalog;
+    }
+
+    protected DbCatalog.CatalogColumn readColumn(ResultSet res) throws SQLException {
+        return new DbCatalog.CatalogColumn(
+                res.getString("COLUMN_NAME"),
+                res.getString("TYPE_NAME"),
+                res.getInt("COLUMN_SIZE"),
+                res.getInt("NULLABLE"),
+                res.getString("COLUMN_DEF"));
+    }
+
+    /**
+     * Return the table from the catalog, load it if the catalog is not complete.
+     *
+     * @param catalog
+     * @param meta
+     * @param tn
+     * @return The table or null if not existing
+     * @throws SQLException
+     */
+    protected DbCatalog.CatalogTable findCatalogTable(
+            DbCatalog catalog, DatabaseMetaData meta, String tn) throws SQLException {
+        if (catalog.isKnown(tn)) return catalog.getTable(tn);
+
+        ResultSet tRes = findTable(meta, tn);
+        boolean found = tRes.next();
+        tRes.close();
+        if (!found) {
+            catalog.setMissing(tn);
+            return null;
+        }
+        DbCatalog.CatalogTable table = catalog.addTable(tn);
+        ResultSet fRes = findColumn(meta, tn, "%");
+        while (fRes.next()) table.addColumn(readColumn(fRes));
+        fRes.close();
+        return table;
+    }
+
+    protected List<String> findCatalogPrimaryKey(
+            DbCatalog.CatalogTable table, DatabaseMetaData meta, String tn) throws SQLException {
+        if (table != null && table.getPrimaryKey() != null) return table.getPrimaryKey();
+        LinkedList<String> keys = new LinkedList<>();
+        ResultSet tRes = findPrimaryKeys(meta, tn);
+        while (tRes.next()) keys.add(tRes.getString("COLUMN_NAME"));
+        tRes.close();
+        if (table != null) table.setPrimaryKey(keys);
+        return keys;
+    }
+
+    protected List<DbCatalog.CatalogIndex> findCatalogIndexes(
+            DbCatalog.CatalogTable table, DatabaseMetaData meta, String tn) throws SQLException {
+        if (table != null && table.getIndexes() != null) return table.getIndexes();
+        LinkedList<DbCatalog.CatalogIndex> indexes = new LinkedList<>();
+        ResultSet res = findIndex(meta, tn, false);
+        while (res.next()) {
+            String iName = res.getString("INDEX_NAME");
+            String fName = res.getString("COLUMN_NAME");
+            if (iName != null && fName != null)
+                indexes.add(
+                        new DbCatalog.CatalogIndex(iName, fName, !res.getBoolean("NON_UNIQUE")));
+        }
+        res.close();
+        if (table != null) table.setIndexes(indexes);
+        return indexes;
+    }
+
     /**
      * Create or Update the defined tables. The config object need a bundle of 'table'
      * configurations which define the needed table structure. Example: [config] [table name='table
@@ -85,6 +216,7 @@ public class DialectDefault extends Dialect {
         Connection con = ((JdbcConnection) db.instance()).getConnection();
         Statement sth = con.createStatement();
         DatabaseMetaData meta = con.getMetaData();
+        DbCatalog catalog = getCatalog(db);
 
         // first check tables
         for (INode ctable : data.getObjectList("table")) {
@@ -95,28 +227,14 @@ public class DialectDefault extends Dialect {
             log().t("table", tnOrg);
             String tn = normalizeTableName(tnOrg);
 
-            ResultSet tRes = findTable(meta, tn);
-
-            if (caoBundle != null) caoBundle.getBundle().remove(tName);
+            DbCatalog.CatalogTable tCat = findCatalogTable(catalog, meta, tn);
 
-            //			boolean found = false;
-            //			while (tRes.next()) {
-            //				String tn2 = tRes.getString("TABLE_NAME");
-            //				if (tn.equals(tn2)) {
-            //					found = true;
-            //				}
-            //			}
+            createTableMetadata(ctable, caoBundle);
 
-            if (tRes.next()) {
+            if (tCat != null) {
                 // merge table definition
                 log().t("--- found table", tName);
 
-                MutableMetadata caoMeta = null;
-                if (caoBundle != null) {
-                    caoMeta = new MutableMetadata();
-                    caoBundle.getBundle().put(tName, caoMeta);
-                }
-
                 // check fields
 
                 LinkedList<String> fieldsInTable = null;
@@ -128,14 +246,14 @@ public class DialectDefault extends Dialect {
                     String fName = normalizeColumnName(fNameOrg);
 
                     if (cfield.getString(K_CATEGORIES, "").indexOf(C_VIRTUAL) < 0) {
-                        ResultSet fRes = findColumn(meta, tn, fName);
+                        DbCatalog.CatalogColumn fCat = tCat.getColumn(fName);
                         log().t("field", tName, fNameOrg);
-                        if (fRes.next()) {
-                            String fName2 = fRes.getString("COLUMN_NAME");
-                            String fType = fRes.getString("TYPE_NAME");
-                            int fSize = fRes.getInt("COLUMN_SIZE");
-                            int fNull = fRes.getInt("NULLABLE");
-                            String fDef = fRes.getString("COLUMN_DEF");
+                        if (fCat != null) {
+                            String fName2 = fCat.getName();
+                            String fType = fCat.getType();
+                            int fSize = fCat.getSize();
+                            int fNull = fCat.getNullable();
+                            String fDef = fCat.getDefault();
                             log().t("found field", tName, fName2, fType, fSize, fNull, fDef);
 
                             // check field type && not null
@@ -161,39 +279,18 @@ public class DialectDefault extends Dialect {
                         } else {
                             alterColumnAdd(sth, tn, cfield);
                         }
-                        fRes.close();
 
                         if (fieldsInTable != null)
                             fieldsInTable.add(fName); // remember not to remove
                     }
-                    if (caoMeta != null) {
-                        List<SqlMetaDefinition> metaMap = caoMeta.getMap();
-                        SqlMetaDefinition.TYPE caoType = getCaoType(cfield);
-                        String[] categories =
-                                MString.splitIgnoreEmpty(
-                                        cfield.getString(K_CATEGORIES, ""), ",", true);
-                        metaMap.add(
-                                new SqlMetaDefinition(
-                                        caoMeta,
-                                        cfield.getExtracted("name"),
-                                        caoType,
-                                        cfield.getExtracted("nls"),
-                                        cfield.getInt("size", 100),
-                                        categories));
-                    }
                 }
 
                 // END fields
 
-                if (tRes.next()) {
-                    log().t("*** found more then one table", tName);
-                }
-
                 // remove fields
                 if (fieldsInTable != null) {
-                    ResultSet fRes = meta.getColumns(null, null, tn, null);
-                    while (fRes.next()) {
-                        String fName2 = fRes.getString("COLUMN_NAME");
+                    for (DbCatalog.CatalogColumn fCat : tCat.getColumns()) {
+                        String fName2 = fCat.getName();
                         if (!fieldsInTable.contains(fName2)) {
                             log().t("remove column", fName2);
                             alterColumnDrop(sth, tn, fName2);
@@ -205,28 +302,10 @@ public class DialectDefault extends Dialect {
                 log().t("--- table not found", tName);
                 // create
 
-                MutableMetadata caoMeta = null;
-                if (caoBundle != null) {
-                    caoMeta = new MutableMetadata();
-                    caoBundle.getBundle().put(tName, caoMeta);
-                }
-
                 createTable(sth, tn, ctable);
-                for (INode f : ctable.getObjectList("field")) {
-                    if (caoMeta != null) {
-                        List<SqlMetaDefinition> metaMap = caoMeta.getMap();
-                        SqlMetaDefinition.TYPE caoType = getCaoType(f);
-                        metaMap.add(
-                                new SqlMetaDefinition(
-                                        caoMeta,
-                                        f.getExtracted("name"),
-                                        caoType,
-                                        f.getExtracted("nls"),
-                                        f.getInt("size", 100)));
-                    }
-                }
+                tCat = catalog.addTable(tn);
+                tCat.setCreated();
             }
-            tRes.close();
 
             // check primary key
 
@@ -239,13 +318,8 @@ public class DialectDefault extends Dialect {
             }
 
             // look for the primary key
-            tRes = findPrimaryKeys(meta, tn);
-            String keys2 = null;
-            while (tRes.next()) {
-                if (keys2 == null) keys2 = tRes.getString("COLUMN_NAME");
-                else keys2 = keys2 + "," + tRes.getString("COLUMN_NAME");
-            }
-            tRes.close();
+            List<String> keyList = findCatalogPrimaryKey(tCat, meta, tn);
+            String keys2 = keyList.isEmpty() ? null : MString.join(keyList.iterator(), ",");
             if (keys2 != null) {
                 log().t("found primary key", keys2);
                 if (keys == null) {
@@ -413,6 +487,7 @@ public class DialectDefault extends Dialect {
         Connection con = ((JdbcConnection) db.instance()).getConnection();
         Statement sth = con.createStatement();
         DatabaseMetaData meta = con.getMetaData();
+        DbCatalog catalog = getCatalog(db);
 
         // first check tables
         for (INode cindex : data.getObjectList("index")) {
@@ -437,37 +512,24 @@ public class DialectDefault extends Dialect {
 
             boolean unique = cindex.getBoolean("unique", false);
 
+            // index columns of the table, with unique=false all indexes are listed
+            List<DbCatalog.CatalogIndex> indexes =
+                    findCatalogIndexes(catalog.getTable(table), meta, table);
             String columns2 = null;
-            {
-                ResultSet res = findIndex(meta, table, unique);
-                while (res.next()) {
-
-                    String iName2 = res.getString("INDEX_NAME");
-                    String fName2 = res.getString("COLUMN_NAME");
-                    if (iName2 != null && fName2 != null) {
-                        if (equalsIndexName(table, iName, iName2)) {
-                            if (columns2 == null) columns2 = fName2;
-                            else columns2 = columns2 + "," + fName2;
-                        }
-                    }
+            for (DbCatalog.CatalogIndex index : indexes) {
+                if (unique && !index.isUnique()) continue;
+                if (equalsIndexName(table, iName, index.getName())) {
+                    if (columns2 == null) columns2 = index.getColumn();
+                    else columns2 = columns2 + "," + index.getColumn();
                 }
-                res.close();
             }
             boolean doubleExists = false;
-            {
-                ResultSet res = findIndex(meta, table, !unique);
-                while (res.next()) {
-
-                    String iName2 = res.getString("INDEX_NAME");
-                    String fName2 = res.getString("COLUMN_NAME");
-                    if (iName2 != null && fName2 != null) {
-                        if (equalsIndexName(table, iName, iName2)) {
-                            doubleExists = true;
-                            break;
-                        }
-                    }
+            for (DbCatalog.CatalogIndex index : indexes) {
+                if (!unique && !index.isUnique()) continue;
+                if (equalsIndexName(table, iName, index.getName())) {
+                    doubleExists = true;
+                    break;
                 }
-                res.close();
             }
             if (columns2 == null) {
                 // create index
@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.MException;
@@ -231,6 +232,25 @@ public class DialectH2 extends DialectDefault {
         return tableName.toUpperCase() + "_";
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean isMultiRowInsertSupported() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String createUpsertSql(
+            String table, List<String> columns, List<String> keys, List<String> updates) {
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(table).append(" (");
+        appendColumns(sql, columns, false);
+        sql.append(") KEY (");
+        appendColumns(sql, keys, false);
+        sql.append(") VALUES (");
+        appendColumns(sql, columns, true);
+        return sql.append(")").toString();
+    }
+
     /** {@inheritDoc} */
     @Override
     public void prepareConnection(Connection con) throws SQLException {
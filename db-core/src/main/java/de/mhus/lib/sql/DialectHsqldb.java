@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.MException;
@@ -232,6 +233,48 @@ public class DialectHsqldb extends DialectDefault {
     }
 
     /** {@inheritDoc} */
+    @Override
+    public boolean isMultiRowInsertSupported() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String createUpsertSql(
+            String table, List<String> columns, List<String> keys, List<String> updates) {
+        StringBuilder sql =
+                new StringBuilder("MERGE INTO ")
+                        .append(table)
+                        .append(" t USING (VALUES(0)) AS v(x) ON (");
+        boolean first = true;
+        for (String column : keys) {
+            if (!first) sql.append(" AND ");
+            sql.append("t.").append(column).append("=$").append(column).append("$");
+            first = false;
+        }
+        sql.append(")");
+        if (!updates.isEmpty()) {
+            sql.append(" WHEN MATCHED THEN UPDATE SET ");
+            first = true;
+            for (String column : updates) {
+                if (!first) sql.append(",");
+                sql.append(column).append("=$").append(column).append("$");
+                first = false;
+            }
+        }
+        sql.append(" WHEN NOT MATCHED THEN INSERT (");
+        appendColumns(sql, columns, false);
+        sql.append(") VALUES (");
+        appendColumns(sql, columns, true);
+        return sql.append(")").toString();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getExplainSql(String query) {
+        return "EXPLAIN PLAN FOR " + query;
+    }
+
     @Override
     public void prepareConnection(Connection con) throws SQLException {
         super.prepareConnection(con);
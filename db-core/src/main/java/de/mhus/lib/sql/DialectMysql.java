@@ -15,8 +15,13 @@
  */
 package de.mhus.lib.sql;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import de.mhus.lib.annotations.adb.DbType;
 import de.mhus.lib.core.MSql;
@@ -74,4 +79,95 @@ public class DialectMysql extends DialectDefault {
         if (ret.indexOf('\\') < 0) return ret;
         return ret.replaceAll("\\\\", "\\\\\\\\");
     }
+
+    @Override
+    public boolean isMultiRowInsertSupported() {
+        return true;
+    }
+
+    @Override
+    public String createUpsertSql(
+            String table, List<String> columns, List<String> keys, List<String> updates) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        appendColumns(sql, columns, false);
+        sql.append(") VALUES (");
+        appendColumns(sql, columns, true);
+        sql.append(") ON DUPLICATE KEY UPDATE ");
+        if (updates.isEmpty()) updates = keys; // no-op update
+        boolean first = true;
+        for (String column : updates) {
+            if (!first) sql.append(",");
+            sql.append(column).append("=VALUES(").append(column).append(")");
+            first = false;
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String getLockWaitTimeoutSql(long timeout) {
+        // innodb_lock_wait_timeout is in seconds
+        return "SET SESSION innodb_lock_wait_timeout = " + Math.max(1, (timeout + 999) / 1000);
+    }
+
+    @Override
+    public String getLockWaitTimeoutResetSql() {
+        return "SET SESSION innodb_lock_wait_timeout = DEFAULT";
+    }
+
+    @Override
+    public boolean isLockTimeout(SQLException e) {
+        // ER_LOCK_WAIT_TIMEOUT, ER_LOCK_NOWAIT
+        return e.getErrorCode() == 1205 || e.getErrorCode() == 3572 || super.isLockTimeout(e);
+    }
+
+    @Override
+    public boolean isUniqueViolation(SQLException e) {
+        // ER_DUP_ENTRY, ER_DUP_ENTRY_WITH_KEY_NAME, mysql uses 23000 for all constraints
+        return e.getErrorCode() == 1062 || e.getErrorCode() == 1586 || super.isUniqueViolation(e);
+    }
+
+    @Override
+    public boolean isAdvisoryLockSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean advisoryLock(DbConnection db, String key, long timeout) throws Exception {
+        // GET_LOCK timeout is in seconds
+        long seconds = timeout <= 0 ? 0 : (timeout + 999) / 1000;
+        return queryLockFunction(db, "SELECT GET_LOCK(?," + seconds + ")", key) == 1;
+    }
+
+    @Override
+    public boolean advisoryUnlock(DbConnection db, String key) throws Exception {
+        return queryLockFunction(db, "SELECT RELEASE_LOCK(?)", key) == 1;
+    }
+
+    @Override
+    public boolean isAdvisoryLocked(DbConnection db, String key) throws Exception {
+        return queryLockFunction(db, "SELECT IS_USED_LOCK(?) IS NOT NULL", key) == 1;
+    }
+
+    protected long queryLockFunction(DbConnection db, String sql, String key) throws Exception {
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        try (PreparedStatement sth = con.prepareStatement(sql)) {
+            sth.setString(1, toAdvisoryLockName(key));
+            try (ResultSet res = sth.executeQuery()) {
+                long ret = res.next() ? res.getLong(1) : 0; // null is an error
+                con.commit();
+                return ret;
+            }
+        }
+    }
+
+    /**
+     * Lock names are limited to 64 characters. Longer keys will be hashed.
+     *
+     * @param key
+     * @return The name of the lock
+     */
+    protected String toAdvisoryLockName(String key) {
+        if (key.length() <= 64) return key;
+        return "adb:" + Long.toHexString(toAdvisoryLockId(key));
+    }
 }
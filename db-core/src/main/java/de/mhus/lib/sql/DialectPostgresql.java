@@ -15,12 +15,15 @@
  */
 package de.mhus.lib.sql;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import de.mhus.lib.adb.query.ALimit;
 import de.mhus.lib.adb.query.APrint;
@@ -39,6 +42,9 @@ import de.mhus.lib.core.node.INode;
  */
 public class DialectPostgresql extends DialectDefault {
 
+    /** SQLState if a lock could not be acquired in time (lock_timeout) */
+    public static final String SQLSTATE_LOCK_NOT_AVAILABLE = "55P03";
+
     @Override
     public String normalizeColumnName(String columnName) {
         //		if ("key".equals(columnName))
@@ -170,4 +176,133 @@ public class DialectPostgresql extends DialectDefault {
             log().e(sql, e);
         }
     }
+
+    @Override
+    public boolean isMultiRowInsertSupported() {
+        return true;
+    }
+
+    @Override
+    public String createUpsertSql(
+            String table, List<String> columns, List<String> keys, List<String> updates) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        appendColumns(sql, columns, false);
+        sql.append(") VALUES (");
+        appendColumns(sql, columns, true);
+        sql.append(") ON CONFLICT (");
+        appendColumns(sql, keys, false);
+        if (updates.isEmpty()) return sql.append(") DO NOTHING").toString();
+        sql.append(") DO UPDATE SET ");
+        boolean first = true;
+        for (String column : updates) {
+            if (!first) sql.append(",");
+            sql.append(column).append("=EXCLUDED.").append(column);
+            first = false;
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String getLockWaitTimeoutSql(long timeout) {
+        return "SET LOCAL lock_timeout = " + Math.max(1, timeout);
+    }
+
+    @Override
+    public boolean isLockTimeout(SQLException e) {
+        return SQLSTATE_LOCK_NOT_AVAILABLE.equals(e.getSQLState()) || super.isLockTimeout(e);
+    }
+
+    @Override
+    public boolean isAdvisoryLockSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean advisoryLock(DbConnection db, String key, long timeout) throws Exception {
+        return advisoryLock(db, key, timeout, "");
+    }
+
+    @Override
+    public boolean advisoryUnlock(DbConnection db, String key) throws Exception {
+        return advisoryUnlock(db, key, "");
+    }
+
+    @Override
+    public boolean isAdvisorySharedLockSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean advisoryLockShared(DbConnection db, String key, long timeout)
+            throws Exception {
+        return advisoryLock(db, key, timeout, "_shared");
+    }
+
+    @Override
+    public boolean advisoryUnlockShared(DbConnection db, String key) throws Exception {
+        return advisoryUnlock(db, key, "_shared");
+    }
+
+    protected boolean advisoryLock(DbConnection db, String key, long timeout, String mode)
+            throws Exception {
+        long id = toAdvisoryLockId(key);
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        if (timeout <= 0) {
+            try (PreparedStatement sth =
+                    con.prepareStatement("SELECT pg_try_advisory_lock" + mode + "(?)")) {
+                sth.setLong(1, id);
+                try (ResultSet res = sth.executeQuery()) {
+                    boolean ret = res.next() && res.getBoolean(1);
+                    con.commit();
+                    return ret;
+                }
+            }
+        }
+        // session lock, lock_timeout is valid until the end of the current transaction
+        try (Statement sth = con.createStatement()) {
+            sth.execute(getLockWaitTimeoutSql(timeout));
+        }
+        try (PreparedStatement sth =
+                con.prepareStatement("SELECT pg_advisory_lock" + mode + "(?)")) {
+            sth.setLong(1, id);
+            sth.executeQuery().close();
+            con.commit();
+            return true;
+        } catch (SQLException e) {
+            con.rollback();
+            if (SQLSTATE_LOCK_NOT_AVAILABLE.equals(e.getSQLState())) return false;
+            throw e;
+        }
+    }
+
+    protected boolean advisoryUnlock(DbConnection db, String key, String mode) throws Exception {
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        try (PreparedStatement sth =
+                con.prepareStatement("SELECT pg_advisory_unlock" + mode + "(?)")) {
+            sth.setLong(1, toAdvisoryLockId(key));
+            try (ResultSet res = sth.executeQuery()) {
+                boolean ret = res.next() && res.getBoolean(1);
+                con.commit();
+                return ret;
+            }
+        }
+    }
+
+    @Override
+    public boolean isAdvisoryLocked(DbConnection db, String key) throws Exception {
+        long id = toAdvisoryLockId(key);
+        Connection con = ((JdbcConnection) db.instance()).getConnection();
+        // bigint locks are split into classid (high) and objid (low) with objsubid 1
+        try (PreparedStatement sth =
+                con.prepareStatement(
+                        "SELECT 1 FROM pg_locks WHERE locktype='advisory' AND granted AND objsubid=1 AND classid=?::bigint::oid AND objid=?::bigint::oid")) {
+            sth.setLong(1, id >>> 32);
+            sth.setLong(2, id & 0xffffffffL);
+            try (ResultSet res = sth.executeQuery()) {
+                boolean ret = res.next();
+                con.commit();
+                return ret;
+            }
+        }
+    }
 }
@@ -41,12 +41,20 @@ public abstract class InternalDbConnection extends MObject implements DbConnecti
         this.pool = pool;
     }
 
+    public DbPool getPool() {
+        return pool;
+    }
+
     public boolean checkTimedOut() {
         if (isUsed()) return false;
         long currentTime = System.currentTimeMillis();
-        if ((currentTime - creationTime > timeoutLifetime)
-                || (lastUsedTime != 0 && currentTime - lastUsedTime > timeoutUnused)) {
+        boolean lifetime = currentTime - creationTime > timeoutLifetime;
+        if (lifetime || (lastUsedTime != 0 && currentTime - lastUsedTime > timeoutUnused)) {
             log().t("timeout");
+            if (pool != null && !isClosed()) {
+                if (lifetime) pool.getMetrics().onClosedByLifetime();
+                else pool.getMetrics().onClosedByUnused();
+            }
             close();
             return true;
         }
@@ -38,6 +38,8 @@ public class JdbcConnection extends InternalDbConnection {
     public static final String LANGUAGE_SQL = "sql";
 
     private boolean used = false;
+    // used state reported to the pool metrics, released on close
+    private boolean usedCounted = false;
     private Connection connection;
     private DbProvider provider;
     private boolean closed;
@@ -131,6 +133,10 @@ public class JdbcConnection extends InternalDbConnection {
         log().t(poolId, id, "used", used);
         super.setUsed(used);
         synchronized (this) {
+            if (used != usedCounted && pool != null && !closed) {
+                usedCounted = used;
+                pool.getMetrics().onUsed(used);
+            }
             this.used = used;
             if (!used) // for security reasons - remove old garbage in the session
             try {
@@ -166,6 +172,11 @@ public class JdbcConnection extends InternalDbConnection {
                 connection = null;
             }
             closed = true;
+            if (usedCounted && pool != null) {
+                // the pool could remove the connection without releasing it
+                usedCounted = false;
+                pool.getMetrics().onUsed(false);
+            }
         }
     }
 
@@ -42,6 +42,7 @@ import java.util.Map;
 
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.lib.sql.analytics.SqlAnalytics;
 
 /**
  * This proxy is used to hold a instance of the connection while the ResultSet is used. That's the
@@ -54,12 +55,30 @@ public class JdbcResult extends DbResult {
     private ResultSet instance;
     private DbStatement sth; // need to have a reference to the statement to avoid a finalize
     private List<String> columnNames;
+    private String query;
+    private long fetchStart;
+    private long rows;
 
     JdbcResult(DbStatement sth, ResultSet instance) {
         this.sth = sth;
         this.instance = instance;
     }
 
+    /**
+     * Create a result and trace the fetch phase if fetchStart is not 0.
+     *
+     * @param sth
+     * @param instance
+     * @param query The executed query
+     * @param fetchStart Value of SqlAnalytics.start()
+     */
+    JdbcResult(JdbcStatement sth, ResultSet instance, String query, long fetchStart) {
+        this.sth = sth;
+        this.instance = instance;
+        this.query = query;
+        this.fetchStart = fetchStart;
+    }
+
     public <T> T unwrap(Class<T> iface) throws SQLException {
         return instance.unwrap(iface);
     }
@@ -70,16 +89,39 @@ public class JdbcResult extends DbResult {
 
     @Override
     public boolean next() throws SQLException {
-        return instance.next();
+        boolean ret = instance.next();
+        if (ret) rows++;
+        return ret;
     }
 
     @Override
     public void close() {
+        Throwable error = null;
         try {
             instance.close();
         } catch (SQLException e) {
+            error = e;
             MLogUtil.log().d("close failed", this, e);
         }
+        if (fetchStart != 0) {
+            SqlAnalytics.traceFetch(
+                    sth.getConnection().getInstanceId(),
+                    ((JdbcStatement) sth).getOriginal(),
+                    query,
+                    fetchStart,
+                    rows,
+                    error);
+            fetchStart = 0;
+        }
+    }
+
+    /**
+     * Return the number of rows read by next().
+     *
+     * @return Read rows
+     */
+    public long getReadRows() {
+        return rows;
     }
 
     public boolean wasNull() throws SQLException {
@@ -110,16 +110,19 @@ public class JdbcStatement extends DbStatement {
     @Override
     public boolean execute(Map<String, Object> attributes) throws Exception {
         validateSth();
+        long prepare = SqlAnalytics.start();
         String query = this.query.execute(attributes);
         log().t(query);
-        long start = System.currentTimeMillis();
+        long start = prepare;
         try {
             preparedSth = prepareStatement(attributes, sth, query);
+            SqlAnalytics.tracePrepare(getConnection().getInstanceId(), original, query, prepare);
+            start = SqlAnalytics.start();
             boolean result = preparedSth == null ? sth.execute(query) : preparedSth.execute();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
+            SqlAnalytics.traceNanos(getConnection(), original, query, attributes, start, -1, null);
             return result;
         } catch (Throwable e) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, e);
+            SqlAnalytics.traceNanos(getConnection(), original, query, attributes, start, -1, e);
             log().e(query);
             throw e;
         }
@@ -145,17 +148,19 @@ public class JdbcStatement extends DbStatement {
     @Override
     public DbResult executeQuery(Map<String, Object> attributes) throws Exception {
         validateSth();
+        long prepare = SqlAnalytics.start();
         String query = this.query.execute(attributes);
         log().t(query);
         preparedSth = prepareStatement(attributes, sth, query);
-        long start = System.currentTimeMillis();
+        SqlAnalytics.tracePrepare(getConnection().getInstanceId(), original, query, prepare);
+        long start = SqlAnalytics.start();
         try {
             ResultSet result =
                     preparedSth == null ? sth.executeQuery(query) : preparedSth.executeQuery();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
-            return new JdbcResult(this, result);
+            SqlAnalytics.traceNanos(getConnection(), original, query, attributes, start, -1, null);
+            return new JdbcResult(this, result, query, SqlAnalytics.start());
         } catch (Throwable t) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, t);
+            SqlAnalytics.traceNanos(getConnection(), original, query, attributes, start, -1, t);
             log().e(query);
             throw t;
         }
@@ -171,17 +176,20 @@ public class JdbcStatement extends DbStatement {
     @Override
     public int executeUpdate(Map<String, Object> attributes) throws Exception {
         validateSth();
+        long prepare = SqlAnalytics.start();
         String query = this.query.execute(attributes);
         log().t(query);
         preparedSth = prepareStatement(attributes, sth, query);
-        long start = System.currentTimeMillis();
+        SqlAnalytics.tracePrepare(getConnection().getInstanceId(), original, query, prepare);
+        long start = SqlAnalytics.start();
         try {
             int result =
                     preparedSth == null ? sth.executeUpdate(query) : preparedSth.executeUpdate();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
+            SqlAnalytics.traceNanos(
+                    getConnection(), original, query, attributes, start, result, null);
             return result;
         } catch (Throwable t) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, t);
+            SqlAnalytics.traceNanos(getConnection(), original, query, attributes, start, -1, t);
             log().e(query);
             throw t;
         }
@@ -211,6 +219,10 @@ public class JdbcStatement extends DbStatement {
         sth = null;
     }
 
+    String getOriginal() {
+        return original;
+    }
+
     @Override
     public String toString() {
         return original;
@@ -15,13 +15,13 @@
  */
 package de.mhus.lib.sql;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MetadataBundle {
 
     //    private CaoDriver driver;
-    private Map<String, SqlMetadata> map = new HashMap<String, SqlMetadata>();
+    private Map<String, SqlMetadata> map = new ConcurrentHashMap<String, SqlMetadata>();
 
     //    public MetadataBundle(CaoDriver driver) {
     //        this.driver = driver;
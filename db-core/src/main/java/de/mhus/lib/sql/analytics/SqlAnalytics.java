@@ -15,12 +15,15 @@
  */
 package de.mhus.lib.sql.analytics;
 
+import java.util.Map;
+
 import de.mhus.lib.core.logging.Log;
+import de.mhus.lib.sql.DbConnection;
 
 public class SqlAnalytics {
 
     private static Log log = Log.getLog(SqlAnalytics.class);
-    private static SqlAnalyzer analyzer = null;
+    private static volatile SqlAnalyzer analyzer = null;
 
     public static void setAnalyzer(SqlAnalyzer analyzer_) {
         try {
@@ -46,4 +49,100 @@ public class SqlAnalytics {
             log.e(t2);
         }
     }
+
+    /**
+     * Return true if an analyzer is set.
+     *
+     * @return true if analytics is enabled
+     */
+    public static boolean isEnabled() {
+        return analyzer != null;
+    }
+
+    /**
+     * Return the start time for a phase or 0 if no analyzer is set. The trace methods ignore a
+     * start time of 0, so no time is measured and nothing is created if analytics is disabled.
+     *
+     * @return The start time in nanoseconds or 0
+     */
+    public static long start() {
+        if (analyzer == null) return 0;
+        long start = System.nanoTime();
+        return start == 0 ? 1 : start;
+    }
+
+    /**
+     * Trace an execution measured with System.nanoTime().
+     *
+     * @param con The used connection
+     * @param original
+     * @param query
+     * @param attributes The attributes of the statement or null
+     * @param startNanos Value of start()
+     * @param rows Updated rows or -1
+     * @param t
+     */
+    public static void traceNanos(
+            DbConnection con,
+            String original,
+            String query,
+            Map<String, Object> attributes,
+            long startNanos,
+            long rows,
+            Throwable t) {
+        SqlAnalyzer a = analyzer;
+        if (a == null || startNanos == 0) return;
+        try {
+            long nanos = System.nanoTime() - startNanos;
+            a.doAnalyzeExecute(con, original, query, attributes, nanos, rows, t);
+        } catch (Throwable t2) {
+            log.e(t2);
+        }
+    }
+
+    /**
+     * Trace the prepare phase of a statement.
+     *
+     * @param connectionId
+     * @param original
+     * @param query
+     * @param startNanos Value of start()
+     */
+    public static void tracePrepare(
+            long connectionId, String original, String query, long startNanos) {
+        SqlAnalyzer a = analyzer;
+        if (a == null || startNanos == 0) return;
+        try {
+            a.doAnalyzePrepare(connectionId, original, query, System.nanoTime() - startNanos);
+        } catch (Throwable t2) {
+            log.e(t2);
+        }
+    }
+
+    /**
+     * Trace the fetch phase of a query, called if the result is closed.
+     *
+     * @param connectionId
+     * @param original
+     * @param query
+     * @param startNanos Value of start()
+     * @param rows Read rows
+     * @param t
+     */
+    public static void traceFetch(
+            long connectionId,
+            String original,
+            String query,
+            long startNanos,
+            long rows,
+            Throwable t) {
+        SqlAnalyzer a = analyzer;
+        if (a == null || startNanos == 0) return;
+        try {
+            long nanos = System.nanoTime() - startNanos;
+            a.doAnalyzeFetch(connectionId, original, query, nanos, rows, t);
+        } catch (Throwable t2) {
+            log.e(t2);
+        }
+    }
 }
@@ -15,12 +15,79 @@
  */
 package de.mhus.lib.sql.analytics;
 
+import java.util.Map;
+
 import de.mhus.lib.core.node.INode;
+import de.mhus.lib.sql.DbConnection;
 
 public interface SqlAnalyzer {
 
     void doAnalyze(long connectionId, String original, String query, long delta, Throwable t);
 
+    /**
+     * Called after the execution of a statement with the runtime in nanoseconds. The default
+     * implementation calls doAnalyze with milliseconds.
+     *
+     * @param connectionId
+     * @param original The statement before compilation
+     * @param query The executed statement
+     * @param nanos Runtime in nanoseconds
+     * @param rows Updated rows or -1 if unknown
+     * @param t Error or null
+     */
+    default void doAnalyzeNanos(
+            long connectionId, String original, String query, long nanos, long rows, Throwable t) {
+        doAnalyze(connectionId, original, query, nanos / 1000000, t);
+    }
+
+    /**
+     * Called after the execution of a statement with the connection and the attributes of the
+     * statement. The attributes must not be changed. The default implementation calls
+     * doAnalyzeNanos.
+     *
+     * @param con The used connection
+     * @param original The statement before compilation
+     * @param query The executed statement
+     * @param attributes The attributes or null
+     * @param nanos Runtime in nanoseconds
+     * @param rows Updated rows or -1 if unknown
+     * @param t Error or null
+     */
+    default void doAnalyzeExecute(
+            DbConnection con,
+            String original,
+            String query,
+            Map<String, Object> attributes,
+            long nanos,
+            long rows,
+            Throwable t) {
+        doAnalyzeNanos(con.getInstanceId(), original, query, nanos, rows, t);
+    }
+
+    /**
+     * Called after the statement was compiled and prepared, before it is executed.
+     *
+     * @param connectionId
+     * @param original The statement before compilation
+     * @param query The compiled statement
+     * @param nanos Runtime of the prepare phase in nanoseconds
+     */
+    default void doAnalyzePrepare(long connectionId, String original, String query, long nanos) {}
+
+    /**
+     * Called if the result of a query is closed. The runtime is measured from the end of the
+     * execution until the result was closed, this is the time used to iterate the result.
+     *
+     * @param connectionId
+     * @param original The statement before compilation
+     * @param query The executed statement
+     * @param nanos Runtime of the fetch phase in nanoseconds
+     * @param rows Number of rows read from the result
+     * @param t Error or null
+     */
+    default void doAnalyzeFetch(
+            long connectionId, String original, String query, long nanos, long rows, Throwable t) {}
+
     void start();
 
     void stop();
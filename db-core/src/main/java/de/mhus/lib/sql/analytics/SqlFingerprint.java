@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import java.util.regex.Pattern;
+
+/**
+ * Create a normalized form of a sql statement. Literals (including dollar quoted strings) are
+ * replaced by '?', lists of literals are collapsed and white spaces are reduced, so statements
+ * with different values are grouped together.
+ */
+public class SqlFingerprint {
+
+    public static final int MAX_LENGTH = 2000;
+
+    private static final Pattern LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern ROWS = Pattern.compile("\\(\\?\\)(\\s*,\\s*\\(\\?\\))+");
+
+    public static String normalize(String sql) {
+        if (sql == null) return null;
+        StringBuilder out = new StringBuilder(Math.min(sql.length(), MAX_LENGTH));
+        int len = sql.length();
+        int pos = 0;
+        boolean space = false;
+        while (pos < len && out.length() < MAX_LENGTH) {
+            char c = sql.charAt(pos);
+            if (c == '\'') {
+                // string literal, quotes are escaped by doubling
+                pos++;
+                while (pos < len) {
+                    if (sql.charAt(pos) == '\'') {
+                        if (pos + 1 < len && sql.charAt(pos + 1) == '\'') pos++;
+                        else break;
+                    }
+                    pos++;
+                }
+                pos++;
+                appendSpace(out, space);
+                space = false;
+                out.append('?');
+            } else if (c == '$' && !isIdentifierEnd(out, space) && dollarTagEnd(sql, pos) > 0) {
+                // dollar quoted string literal (postgresql): $$...$$ or $tag$...$tag$
+                int tagEnd = dollarTagEnd(sql, pos);
+                String tag = sql.substring(pos, tagEnd);
+                int close = sql.indexOf(tag, tagEnd);
+                pos = close < 0 ? len : close + tag.length();
+                appendSpace(out, space);
+                space = false;
+                out.append('?');
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+                pos++;
+            } else if (Character.isDigit(c) && !isIdentifierEnd(out, space)) {
+                while (pos < len && isNumberPart(sql.charAt(pos))) pos++;
+                appendSpace(out, space);
+                space = false;
+                out.append('?');
+            } else {
+                appendSpace(out, space);
+                space = false;
+                out.append(Character.toLowerCase(c));
+                pos++;
+            }
+        }
+        String result = LIST.matcher(out).replaceAll("(?)");
+        return ROWS.matcher(result).replaceAll("(?)");
+    }
+
+    private static void appendSpace(StringBuilder out, boolean space) {
+        if (space && out.length() > 0) out.append(' ');
+    }
+
+    private static boolean isIdentifierEnd(StringBuilder out, boolean space) {
+        if (space || out.length() == 0) return false;
+        char last = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+
+    /**
+     * Return the end position (exclusive) of a dollar quote tag starting at pos or -1. Positional
+     * parameters like $1 are not tags.
+     */
+    private static int dollarTagEnd(String sql, int pos) {
+        int i = pos + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '$') return i + 1;
+            if (!(Character.isLetter(c) || c == '_' || i > pos + 1 && Character.isDigit(c)))
+                return -1;
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isNumberPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '.';
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+/**
+ * Redaction of sensitive values in recorded statements. A value is redacted if its name contains
+ * one of the lower case redact names.
+ */
+public class SqlRedact {
+
+    public static final String REDACTED = "***";
+
+    private static final String[] DEFAULT_REDACT = {
+        "password", "passwd", "secret", "token", "credential"
+    };
+
+    private SqlRedact() {}
+
+    /**
+     * Return a copy of the default redact names.
+     *
+     * @return The names
+     */
+    public static String[] getDefaultRedact() {
+        return DEFAULT_REDACT.clone();
+    }
+
+    /**
+     * Check if values of the name need to be redacted.
+     *
+     * @param name Name of the attribute, column or a whole sql
+     * @param redact Lower case parts of names to redact
+     * @return true if the name contains one of the redact names
+     */
+    public static boolean isRedacted(String name, String[] redact) {
+        String lower = name.toLowerCase();
+        for (String r : redact) if (lower.contains(r)) return true;
+        return false;
+    }
+}
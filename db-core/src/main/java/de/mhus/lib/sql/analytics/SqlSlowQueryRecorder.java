@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.mhus.lib.annotations.jmx.JmxManaged;
+import de.mhus.lib.core.MDate;
+import de.mhus.lib.core.cfg.CfgInitiator;
+import de.mhus.lib.core.jmx.MJmx;
+import de.mhus.lib.core.mapi.IApiInternal;
+import de.mhus.lib.core.mapi.MCfgManager;
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.InternalDbConnection;
+
+/**
+ * Records statements slower then minRuntime in a bounded ring buffer. For a sampled part of the
+ * entries the attributes are captured (redacted by name) and the execution plan is created by the
+ * dialect on a separate connection in a background thread. The executed query contains the
+ * attribute values, therefore only the normalized query is stored and values of redacted
+ * attributes are removed from plans and error messages.
+ */
+@JmxManaged(descrition = "Slow query recorder")
+public class SqlSlowQueryRecorder extends MJmx implements SqlAnalyzer, CfgInitiator {
+
+    private static final int MAX_VALUE_LENGTH = 200;
+    private static final int MIN_SECRET_LENGTH = 3;
+
+    private long minRuntime = 1000;
+    private double attributeSampleRate = 1;
+    private double explainSampleRate = 0.1;
+    private String[] redact = SqlRedact.getDefaultRedact();
+    private volatile AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(100);
+    private final AtomicLong position = new AtomicLong();
+    private ThreadPoolExecutor explainer;
+
+    @Override
+    public void doAnalyze(
+            long connectionId, String original, String query, long delta, Throwable t) {
+        if (delta < minRuntime) return;
+        record(null, connectionId, original, query, null, delta * 1000000, -1, t);
+    }
+
+    @Override
+    public void doAnalyzeExecute(
+            DbConnection con,
+            String original,
+            String query,
+            Map<String, Object> attributes,
+            long nanos,
+            long rows,
+            Throwable t) {
+        if (nanos < minRuntime * 1000000) return;
+        record(con, con.getInstanceId(), original, query, attributes, nanos, rows, t);
+    }
+
+    protected void record(
+            DbConnection con,
+            long connectionId,
+            String original,
+            String query,
+            Map<String, Object> attributes,
+            long nanos,
+            long rows,
+            Throwable t) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // the executed query contains the inlined attribute values, only the normalized form is
+        // stored
+        List<String> secrets = findSecrets(attributes);
+        Entry entry =
+                new Entry(
+                        connectionId,
+                        original,
+                        SqlFingerprint.normalize(query),
+                        nanos,
+                        rows,
+                        t == null ? null : redact(t.toString(), secrets),
+                        findCaller(),
+                        attributes != null && random.nextDouble() < attributeSampleRate
+                                ? capture(attributes)
+                                : null);
+        AtomicReferenceArray<Entry> current = entries;
+        current.set((int) (position.getAndIncrement() % current.length()), entry);
+        if (con != null && t == null && random.nextDouble() < explainSampleRate)
+            explain(con, entry, query, secrets);
+    }
+
+    /**
+     * Explain the executed query. The query is only send to the database, the resulting plan is
+     * redacted before it is stored.
+     *
+     * @param con The used connection
+     * @param entry The entry
+     * @param query The executed query
+     * @param secrets Values to redact
+     */
+    protected void explain(DbConnection con, Entry entry, String query, List<String> secrets) {
+        ThreadPoolExecutor executor = explainer;
+        DbConnection instance = con.instance();
+        if (executor == null || !(instance instanceof InternalDbConnection)) return;
+        DbPool pool = ((InternalDbConnection) instance).getPool();
+        if (pool == null) return;
+        executor.execute(
+                () -> {
+                    DbConnection db = null;
+                    try {
+                        db = pool.getConnection();
+                        entry.plan = redact(pool.getDialect().explain(db, query), secrets);
+                    } catch (Throwable e) {
+                        log().d("explain failed", entry.query, e);
+                        entry.plan = redact("Error: " + e, secrets);
+                    } finally {
+                        if (db != null) db.close();
+                    }
+                });
+    }
+
+    protected Map<String, String> capture(Map<String, Object> attributes) {
+        TreeMap<String, String> out = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            String text;
+            if (isRedacted(name)) text = SqlRedact.REDACTED;
+            else if (value == null) text = "null";
+            else if (value instanceof InputStream || value instanceof byte[]) text = "[binary]";
+            else {
+                text = String.valueOf(value);
+                if (text.length() > MAX_VALUE_LENGTH)
+                    text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+            }
+            out.put(name, text);
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    /**
+     * Return the values of the redacted attributes, they are removed from texts created by the
+     * database like error messages and plans. Values shorter then MIN_SECRET_LENGTH are ignored.
+     *
+     * @param attributes The attributes or null
+     * @return The values
+     */
+    protected List<String> findSecrets(Map<String, Object> attributes) {
+        if (attributes == null) return Collections.emptyList();
+        List<String> out = null;
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null
+                    || value instanceof InputStream
+                    || value instanceof byte[]
+                    || !isRedacted(entry.getKey())) continue;
+            String text = String.valueOf(value);
+            if (text.length() < MIN_SECRET_LENGTH) continue;
+            if (out == null) out = new ArrayList<>();
+            out.add(text);
+        }
+        return out == null ? Collections.emptyList() : out;
+    }
+
+    protected static String redact(String text, List<String> secrets) {
+        if (text == null) return null;
+        for (String secret : secrets) {
+            // inlined strings are escaped by doubled quotes
+            text =
+                    text.replace(secret.replace("'", "''"), SqlRedact.REDACTED)
+                            .replace(secret, SqlRedact.REDACTED);
+        }
+        return text;
+    }
+
+    protected boolean isRedacted(String name) {
+        return SqlRedact.isRedacted(name, redact);
+    }
+
+    protected String findCaller() {
+        for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+            String name = element.getClassName();
+            if (name.startsWith("java.")
+                    || name.startsWith("jdk.")
+                    || name.startsWith("sun.")
+                    || name.startsWith("de.mhus.lib.sql.")
+                    || name.startsWith("de.mhus.lib.adb.")) continue;
+            return name + "." + element.getMethodName() + ":" + element.getLineNumber();
+        }
+        return null;
+    }
+
+    /**
+     * Return the recorded entries, the newest first.
+     *
+     * @return The entries
+     */
+    public List<Entry> getEntries() {
+        AtomicReferenceArray<Entry> current = entries;
+        ArrayList<Entry> out = new ArrayList<>(current.length());
+        for (int i = 0; i < current.length(); i++) {
+            Entry entry = current.get(i);
+            if (entry != null) out.add(entry);
+        }
+        out.sort((a, b) -> Long.compare(b.time, a.time));
+        return out;
+    }
+
+    @JmxManaged(descrition = "Recorded slow queries")
+    public String[] getEntriesAsString() {
+        List<Entry> list = getEntries();
+        String[] out = new String[list.size()];
+        for (int i = 0; i < out.length; i++) out[i] = list.get(i).toString();
+        return out;
+    }
+
+    @JmxManaged(descrition = "Remove all recorded entries")
+    public void clear() {
+        entries = new AtomicReferenceArray<>(entries.length());
+    }
+
+    @JmxManaged(descrition = "Minimum runtime in milliseconds")
+    public long getMinRuntime() {
+        return minRuntime;
+    }
+
+    public void setMinRuntime(long minRuntime) {
+        this.minRuntime = minRuntime;
+    }
+
+    @JmxManaged(descrition = "Size of the ring buffer")
+    public int getSize() {
+        return entries.length();
+    }
+
+    public void setSize(int size) {
+        entries = new AtomicReferenceArray<>(Math.max(1, size));
+    }
+
+    public double getAttributeSampleRate() {
+        return attributeSampleRate;
+    }
+
+    public void setAttributeSampleRate(double attributeSampleRate) {
+        this.attributeSampleRate = attributeSampleRate;
+    }
+
+    public double getExplainSampleRate() {
+        return explainSampleRate;
+    }
+
+    public void setExplainSampleRate(double explainSampleRate) {
+        this.explainSampleRate = explainSampleRate;
+    }
+
+    public String[] getRedact() {
+        return redact;
+    }
+
+    public void setRedact(String[] redact) {
+        this.redact = redact;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (explainer != null) return;
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        1,
+                        1,
+                        1,
+                        TimeUnit.MINUTES,
+                        new ArrayBlockingQueue<>(10),
+                        r -> {
+                            Thread thread = new Thread(r, "sql-explain");
+                            thread.setDaemon(true);
+                            return thread;
+                        },
+                        new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        explainer = executor;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (explainer == null) return;
+        explainer.shutdownNow();
+        explainer = null;
+    }
+
+    @Override
+    public void doConfigure(INode config) {
+        minRuntime = config.getLong("minRuntime", minRuntime);
+        attributeSampleRate = config.getDouble("attributeSampleRate", attributeSampleRate);
+        explainSampleRate = config.getDouble("explainSampleRate", explainSampleRate);
+        if (config.isProperty("redact"))
+            redact = config.getString("redact", "").toLowerCase().split("\\s*,\\s*");
+        if (config.isProperty("size")) setSize(config.getInt("size", getSize()));
+    }
+
+    @Override
+    public void doInitialize(IApiInternal internal, MCfgManager manager, INode config) {
+        if (config != null) doConfigure(config);
+        SqlAnalytics.setAnalyzer(this);
+    }
+
+    public static class Entry {
+
+        private final long time = System.currentTimeMillis();
+        private final long connectionId;
+        private final String original;
+        private final String query;
+        private final long runtime;
+        private final long rows;
+        private final String error;
+        private final String caller;
+        private final Map<String, String> attributes;
+        private volatile String plan;
+
+        public Entry(
+                long connectionId,
+                String original,
+                String query,
+                long runtime,
+                long rows,
+                String error,
+                String caller,
+                Map<String, String> attributes) {
+            this.connectionId = connectionId;
+            this.original = original;
+            this.query = query;
+            this.runtime = runtime;
+            this.rows = rows;
+            this.error = error;
+            this.caller = caller;
+            this.attributes = attributes;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getConnectionId() {
+            return connectionId;
+        }
+
+        public String getOriginal() {
+            return original;
+        }
+
+        /**
+         * Return the normalized executed query, literal values are replaced by '?'.
+         *
+         * @return The query
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * Runtime in nanoseconds.
+         *
+         * @return The runtime
+         */
+        public long getRuntime() {
+            return runtime;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getCaller() {
+            return caller;
+        }
+
+        /**
+         * Return the captured attributes or null if not sampled.
+         *
+         * @return The attributes
+         */
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Return the execution plan or null if not sampled or not finished.
+         *
+         * @return The plan
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return MDate.toIsoDateTime(new Date(time))
+                    + " "
+                    + runtime / 1000000
+                    + "ms #"
+                    + connectionId
+                    + " "
+                    + caller
+                    + " "
+                    + query;
+        }
+    }
+}
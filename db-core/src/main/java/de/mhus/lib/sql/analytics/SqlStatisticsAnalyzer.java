@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.mhus.lib.core.node.INode;
+
+/**
+ * Collect statistics per normalized statement without locking. Each statement fingerprint has its
+ * own latency histogram, error and row counters. If more then maxStatements different
+ * fingerprints are seen the rest is collected in one overflow entry.
+ */
+public class SqlStatisticsAnalyzer extends SqlRuntimeWarning {
+
+    public static final String OVERFLOW = StatisticsMap.OVERFLOW;
+
+    protected final StatisticsMap<Statistic> statistics = new StatisticsMap<>(1000, Statistic::new);
+
+    @Override
+    public void doAnalyzeNanos(
+            long connectionId, String original, String query, long nanos, long rows, Throwable t) {
+        super.doAnalyzeNanos(connectionId, original, query, nanos, rows, t);
+        Statistic statistic = getStatistic(query);
+        statistic.record(nanos, rows, t);
+    }
+
+    @Override
+    public void doAnalyzeFetch(
+            long connectionId, String original, String query, long nanos, long rows, Throwable t) {
+        getStatistic(query).recordFetch(nanos, rows);
+    }
+
+    protected Statistic getStatistic(String query) {
+        return statistics.get(SqlFingerprint.normalize(query));
+    }
+
+    /**
+     * Returns all statistics including the overflow entry if used.
+     *
+     * @return The statistics
+     */
+    public Collection<Statistic> getData() {
+        return statistics.getData();
+    }
+
+    /**
+     * Returns the statistics ordered by the total runtime.
+     *
+     * @param max Maximum entries
+     * @return The top statistics
+     */
+    public List<Statistic> getTop(int max) {
+        return statistics.getTop(max);
+    }
+
+    public void reset() {
+        statistics.reset();
+    }
+
+    public int getMaxStatements() {
+        return statistics.getMaxSize();
+    }
+
+    public void setMaxStatements(int maxStatements) {
+        statistics.setMaxSize(maxStatements);
+    }
+
+    @Override
+    public void doConfigure(INode config) {
+        setMaxStatements(config.getInt("maxStatements", getMaxStatements()));
+        super.doConfigure(config);
+    }
+
+    public static class Statistic implements StatisticsMap.Entry {
+
+        private final String sql;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder fetch = new LongAdder();
+
+        public Statistic(String sql) {
+            this.sql = sql;
+        }
+
+        public void record(long nanos, long rows, Throwable t) {
+            histogram.record(nanos);
+            if (t != null) errors.increment();
+            if (rows > 0) this.rows.add(rows);
+        }
+
+        public void recordFetch(long nanos, long rows) {
+            if (nanos > 0) fetch.add(nanos);
+            if (rows > 0) this.rows.add(rows);
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * Total runtime in nanoseconds.
+         *
+         * @return The runtime
+         */
+        @Override
+        public long getTotal() {
+            return histogram.getTotal();
+        }
+
+        /**
+         * Total time used to iterate results in nanoseconds.
+         *
+         * @return The runtime
+         */
+        public long getFetchTotal() {
+            return fetch.sum();
+        }
+
+        public long getAverage() {
+            return histogram.getAverage();
+        }
+
+        public long getMax() {
+            return histogram.getMax();
+        }
+
+        public long getPercentile(double percentile) {
+            return histogram.getPercentile(percentile);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Statistics per key without locking. If more then maxSize different keys are seen the rest is
+ * collected in one overflow entry, concurrent inserts can exceed the size by a few entries.
+ *
+ * @param <T> Type of the statistic entries
+ */
+public class StatisticsMap<T extends StatisticsMap.Entry> {
+
+    public static final String OVERFLOW = "[other]";
+
+    private final Function<String, T> factory;
+    private volatile ConcurrentHashMap<String, T> map = new ConcurrentHashMap<>();
+    private volatile T overflow;
+    private volatile int maxSize;
+
+    public StatisticsMap(int maxSize, Function<String, T> factory) {
+        this.maxSize = maxSize;
+        this.factory = factory;
+        overflow = factory.apply(OVERFLOW);
+    }
+
+    /**
+     * Return the entry of the key, the entry is created if the map is not full.
+     *
+     * @param key The key or null for the overflow entry
+     * @return The entry or the overflow entry
+     */
+    public T get(String key) {
+        if (key == null) return overflow;
+        ConcurrentHashMap<String, T> current = map;
+        T entry = current.get(key);
+        if (entry != null) return entry;
+        if (current.size() >= maxSize) return overflow;
+        return current.computeIfAbsent(key, factory);
+    }
+
+    public boolean isOverflow(T entry) {
+        return entry == overflow;
+    }
+
+    /**
+     * Returns the entries without the overflow entry.
+     *
+     * @return The entries
+     */
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(map.values());
+    }
+
+    /**
+     * Returns all entries including the overflow entry if used.
+     *
+     * @return The entries
+     */
+    public Collection<T> getData() {
+        ArrayList<T> out = new ArrayList<>(map.values());
+        if (overflow.getCount() > 0) out.add(overflow);
+        return Collections.unmodifiableCollection(out);
+    }
+
+    /**
+     * Returns the entries ordered by the total runtime.
+     *
+     * @param max Maximum entries
+     * @return The top entries
+     */
+    public List<T> getTop(int max) {
+        ArrayList<T> out = new ArrayList<>(getData());
+        out.sort(Comparator.comparingLong(Entry::getTotal).reversed());
+        return out.size() > max ? out.subList(0, max) : out;
+    }
+
+    public void reset() {
+        map = new ConcurrentHashMap<>();
+        overflow = factory.apply(OVERFLOW);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public interface Entry {
+
+        long getCount();
+
+        /**
+         * Total runtime in nanoseconds.
+         *
+         * @return The runtime
+         */
+        long getTotal();
+    }
+}
@@ -17,7 +17,10 @@ package de.mhus.lib.test.adb;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigDecimal;
@@ -26,8 +29,11 @@ import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 
 import org.junit.jupiter.api.BeforeAll;
@@ -45,10 +51,13 @@ import de.mhus.lib.core.logging.Log.LEVEL;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.MNode;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbCatalog;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbPoolBundle;
+import de.mhus.lib.sql.DialectHsqldb;
 import de.mhus.lib.tests.TestCase;
+import de.mhus.lib.tests.TestUtil;
 import de.mhus.lib.test.adb.model.Book;
 import de.mhus.lib.test.adb.model.BookStoreSchema;
 import de.mhus.lib.test.adb.model.Finances;
@@ -610,6 +619,123 @@ public class AdbTest extends TestCase {
         pool.close();
     }
 
+    @Test
+    public void testUpsert() throws Exception {
+        DbPool pool = createPool("testUpsert").getPool("test");
+
+        BookStoreSchema schema = new BookStoreSchema();
+        DbManager manager = new DbManagerJdbc("", pool, null, schema);
+
+        Person p1 = new Person();
+        p1.setId(UUID.randomUUID());
+        p1.setName("Max");
+        manager.upsertObject(p1);
+
+        Person p2 = new Person();
+        p2.setId(p1.getId());
+        p2.setName("Moritz");
+        Person p3 = new Person();
+        p3.setId(UUID.randomUUID());
+        p3.setName("Lempel");
+        manager.upsertObjects(List.of(p2, p3));
+
+        assertEquals("Moritz", manager.getObject(Person.class, p1.getId()).getName());
+        assertEquals("Lempel", manager.getObject(Person.class, p3.getId()).getName());
+        assertEquals(2, manager.getCountAll(Person.class));
+
+        // the auto id is created on the create path only
+        Person p4 = new Person();
+        p4.setName("Busch");
+        manager.upsertObject(p4);
+        assertNotNull(p4.getId());
+        assertEquals("Busch", manager.getObject(Person.class, p4.getId()).getName());
+        assertEquals(3, manager.getCountAll(Person.class));
+
+        pool.close();
+    }
+
+    @Test
+    public void testCreateObjects() throws Exception {
+        DbPool pool = createPool("testCreateObjects").getPool("test");
+
+        BookStoreSchema schema = new BookStoreSchema();
+        DbManager manager = new DbManagerJdbc("", pool, null, schema);
+
+        LinkedList<Object> list = new LinkedList<>();
+        for (int i = 0; i < 25; i++) {
+            Person p = new Person();
+            p.setName("Person " + i);
+            list.add(p);
+        }
+        Store store = new Store();
+        store.setName("Store");
+        list.add(store);
+
+        manager.createObjects(list);
+
+        assertEquals(25, manager.getCountAll(Person.class));
+        assertNotNull(((Person) list.get(10)).getId());
+        assertEquals(
+                "Person 10",
+                manager.getObject(Person.class, ((Person) list.get(10)).getId()).getName());
+        assertNotNull(manager.getObject(Store.class, store.getId()));
+
+        pool.close();
+    }
+
+    @Test
+    public void testSharedCatalog() throws Exception {
+        DbPool pool = createPool("testSharedCatalog").getPool("test");
+        CountingDialect dialect = new CountingDialect();
+        DbConnection parent = pool.getConnection();
+        DbConnection worker1 = pool.getConnection();
+        DbConnection worker2 = pool.getConnection();
+
+        // the catalog is loaded once and shared with the workers
+        dialect.startStructure(parent);
+        dialect.startStructure(worker1, parent);
+        dialect.startStructure(worker2, parent);
+        assertEquals(1, dialect.loaded);
+        DbCatalog catalog = dialect.catalog(parent);
+        assertTrue(catalog.isComplete());
+        assertSame(catalog, dialect.catalog(worker1));
+        assertSame(catalog, dialect.catalog(worker2));
+
+        // changes of a worker are visible to the others
+        catalog.addTable("shared_test_table");
+        assertNotNull(dialect.catalog(worker2).getTable("SHARED_TEST_TABLE"));
+
+        dialect.finishStructure(worker1);
+        dialect.finishStructure(worker2);
+        dialect.finishStructure(parent);
+        assertNotSame(catalog, dialect.catalog(worker1));
+
+        // without a started parent the worker loads its own catalog
+        dialect.startStructure(worker1, parent);
+        assertEquals(2, dialect.loaded);
+        dialect.finishStructure(worker1);
+
+        parent.close();
+        worker1.close();
+        worker2.close();
+        pool.close();
+    }
+
+    private static class CountingDialect extends DialectHsqldb {
+
+        private int loaded;
+
+        @Override
+        protected DbCatalog loadCatalog(Connection con) throws SQLException {
+            loaded++;
+            return super.loadCatalog(con);
+        }
+
+        DbCatalog catalog(DbConnection db) {
+            return getCatalog(db);
+        }
+    }
+
     @Test
     public void testReconnect() throws Exception {
         DbPool pool = createPool("testReconnect").getPool("test");
@@ -627,6 +753,108 @@ public class AdbTest extends TestCase {
         pool.close();
     }
 
+    @Test
+    public void testStructureFingerprint() throws Exception {
+        DbPool pool = createPool("testStructureFingerprint").getPool("test");
+
+        BookStoreSchema schema = new BookStoreSchema();
+        DbManagerJdbc manager = new DbManagerJdbc("", pool, null, schema);
+
+        String registryName = manager.getRegistryName(Person.class);
+        String fingerprint =
+                manager.getSchemaProperties().get(DbManagerJdbc.DATABASE_STRUCTURE + registryName);
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint, manager.getTable(registryName).getStructureFingerprint());
+
+        // remove a column behind the back of the manager
+        DbConnection con = pool.getConnection();
+        con.createStatement("ALTER TABLE $db.person$ DROP COLUMN $db.person.name$")
+                .execute(manager.getNameMapping());
+        con.commit();
+        con.close();
+
+        // unchanged structure is not validated again, no DDL restores the column
+        manager.reconnect();
+        assertEquals(fingerprint, manager.getTable(registryName).getStructureFingerprint());
+        assertTrue(manager.getCaoMetadata().getBundle().size() > 0);
+        String query = "SELECT count(*) AS count FROM $db.person$ WHERE $db.person.name$ = 'x'";
+        assertThrows(MException.class, () -> manager.executeCountQuery(null, "count", query, null));
+
+        // forced validation adds the column again
+        manager.reconnect(true);
+        assertEquals(0, manager.executeCountQuery(null, "count", query, null));
+        Person p = new Person();
+        p.setName("Max");
+        manager.createObject(p);
+        assertEquals(1, manager.getCountAll(Person.class));
+
+        pool.close();
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        DbPool pool = createPool("testQueryCache").getPool("test");
+        DbManagerJdbc manager = new DbManagerJdbc("", pool, null, new BookStoreSchema());
+        try {
+            // the cache is dropped with every second query
+            TestUtil.setCfg(DbManagerJdbc.class, "queryCacheSize", "1");
+            String byName =
+                    "SELECT count(*) AS count FROM $db.person$ WHERE $db.person.name$ = $name$";
+            String all = "SELECT count(*) AS count FROM $db.person$";
+            for (int i = 1; i <= 3; i++) {
+                Person p = new Person();
+                p.setName("Cache");
+                manager.createObject(p);
+                assertEquals(
+                        i, manager.executeCountQuery(null, "count", byName, attributes("Cache")));
+                assertEquals(
+                        0, manager.executeCountQuery(null, "count", byName, attributes("Other")));
+                assertEquals(i, manager.executeCountQuery(null, "count", all, null));
+            }
+        } finally {
+            TestUtil.clearCfg();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testQueryMappingOverride() throws Exception {
+        DbPool pool = createPool("testQueryMappingOverride").getPool("test");
+        DbManagerJdbc manager = new DbManagerJdbc("", pool, null, new BookStoreSchema());
+
+        Person p = new Person();
+        p.setName("Person");
+        manager.createObject(p);
+        Person2 p2 = new Person2();
+        p2.setName("Person2");
+        manager.createObject(p2);
+
+        String query = "SELECT count(*) AS count FROM $db.person$ WHERE $db.person.name$ = $name$";
+        assertEquals(1, manager.executeCountQuery(null, "count", query, attributes("Person")));
+        assertEquals(0, manager.executeCountQuery(null, "count", query, attributes("Person2")));
+
+        // attributes of the caller take precedence over the name mapping
+        Object table = manager.getNameMapping().get("db.person2");
+        assertNotNull(table);
+        Map<String, Object> attributes = attributes("Person2");
+        attributes.put("db.person", table);
+        assertEquals(1, manager.executeCountQuery(null, "count", query, attributes));
+        attributes = attributes("Person");
+        attributes.put("db.person", table);
+        assertEquals(0, manager.executeCountQuery(null, "count", query, attributes));
+
+        // the cached query is not changed by the override
+        assertEquals(1, manager.executeCountQuery(null, "count", query, attributes("Person")));
+
+        pool.close();
+    }
+
+    private Map<String, Object> attributes(String name) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("name", name);
+        return attributes;
+    }
+
     @Test
     public void testDataTypes() throws Exception {
         DbPool pool = createPool("testDataTypes").getPool("test");
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPoolMetrics;
+
+public class DbPoolMetricsTest {
+
+    @Test
+    public void testPeakUsed() {
+        DbPoolMetrics metrics = new DbPoolMetrics();
+        metrics.onUsed(true);
+        metrics.onUsed(true);
+        metrics.onUsed(false);
+        assertEquals(1, metrics.getUsed());
+        assertEquals(2, metrics.getPeakUsed());
+        metrics.resetPeakUsed();
+        assertEquals(1, metrics.getPeakUsed());
+        metrics.onUsed(false);
+        assertEquals(0, metrics.getUsed());
+        assertEquals(1, metrics.getPeakUsed());
+    }
+
+    @Test
+    public void testPoolUsage() throws Exception {
+        DbPool pool = TransactionTest.createPool("poolMetrics").getPool("test");
+        DbPoolMetrics metrics = pool.getMetrics();
+
+        DbConnection con1 = pool.getConnection();
+        DbConnection con2 = pool.getConnection();
+        assertEquals(2, pool.getUsedSize());
+        assertEquals(2, metrics.getUsed());
+        assertEquals(2, metrics.getPeakUsed());
+        assertEquals(2, metrics.getBorrowWait().getCount());
+        assertTrue(metrics.getCreation().getCount() >= 2);
+
+        con1.close();
+        assertEquals(1, pool.getUsedSize());
+        assertEquals(1, metrics.getUsed());
+
+        // reuse the free connection
+        long created = metrics.getCreation().getCount();
+        con1 = pool.getConnection();
+        assertEquals(created, metrics.getCreation().getCount());
+        assertEquals(2, metrics.getUsed());
+        con1.close();
+
+        // close the physical connection while used, the pool removes it without release
+        con2.instance().close();
+        pool.cleanup(false);
+        assertEquals(0, pool.getUsedSize());
+        assertEquals(0, metrics.getUsed());
+
+        // the late release must not count again
+        con2.close();
+        assertEquals(0, metrics.getUsed());
+        assertEquals(2, metrics.getPeakUsed());
+
+        pool.close();
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.util.Value;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.JdbcConnection;
+import de.mhus.lib.sql.MetadataBundle;
+import de.mhus.lib.test.adb.model.BookStoreSchema;
+import de.mhus.lib.test.adb.model.Finances;
+import de.mhus.lib.test.adb.model.Person;
+import de.mhus.lib.test.adb.model.Regal;
+import de.mhus.lib.tests.TestUtil;
+
+public class InitDatabaseTest {
+
+    @AfterEach
+    public void cleanup() {
+        TestUtil.clearCfg();
+    }
+
+    private DbManagerJdbc createManager(String name) throws Exception {
+        DbPool pool = AdbTest.createPool(name).getPool("test");
+        return new DbManagerJdbc("", pool, null, new BookStoreSchema());
+    }
+
+    @Test
+    public void testParallelInit() throws Exception {
+        DbManagerJdbc sequential = createManager("initSequential");
+        TestUtil.setCfg(DbManagerJdbc.class, "initThreads", "4");
+        DbManagerJdbc parallel = createManager("initParallel");
+
+        // tables are registered in the order of the schema types
+        assertArrayEquals(sequential.getRegistryNames(), parallel.getRegistryNames());
+        for (String name : parallel.getRegistryNames()) assertNotNull(parallel.getTable(name));
+
+        // the workers are loaders of the snapshot and fill the same metadata bundle
+        MetadataBundle expected = sequential.getCaoMetadata();
+        MetadataBundle actual = parallel.getCaoMetadata();
+        assertFalse(expected.getBundle().isEmpty());
+        assertEquals(
+                new TreeSet<>(expected.getBundle().keySet()),
+                new TreeSet<>(actual.getBundle().keySet()));
+
+        // the published snapshot is visible for other threads
+        Value<MetadataBundle> other = new Value<>();
+        Thread thread = new Thread(() -> other.setValue(parallel.getCaoMetadata()));
+        thread.start();
+        thread.join();
+        assertSame(actual, other.getValue());
+
+        Person p = new Person();
+        p.setName("Parallel");
+        parallel.createObject(p);
+        assertEquals("Parallel", parallel.getObject(Person.class, p.getId()).getName());
+
+        sequential.getPool().close();
+        parallel.getPool().close();
+    }
+
+    @Test
+    public void testLazyFirstTouch() throws Exception {
+        TestUtil.setCfg(DbManagerJdbc.class, "lazyTables", "true");
+        DbManagerJdbc manager = createManager("lazyFirstTouch");
+
+        // the migration touched Person only
+        assertTrue(tableExists(manager.getPool(), "Person"));
+        assertFalse(tableExists(manager.getPool(), "Finances"));
+
+        Table table = manager.getTable(manager.getRegistryName(Finances.class));
+        assertTrue(table.isInitialized());
+        assertTrue(tableExists(manager.getPool(), "Finances"));
+        assertSame(table, manager.getTable(manager.getRegistryName(Finances.class)));
+        assertEquals(0, manager.getCountAll(Finances.class));
+
+        manager.getPool().close();
+    }
+
+    @Test
+    public void testLazyConcurrentFirstTouch() throws Exception {
+        TestUtil.setCfg(DbManagerJdbc.class, "lazyTables", "true");
+        DbManagerJdbc manager = createManager("lazyConcurrent");
+        String registryName = manager.getRegistryName(Regal.class);
+        assertFalse(tableExists(manager.getPool(), "Regal"));
+
+        int threads = 8;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        Set<Table> tables = ConcurrentHashMap.newKeySet();
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] list = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            list[t] =
+                    new Thread(
+                            () -> {
+                                try {
+                                    barrier.await();
+                                    Table table = manager.getTable(registryName);
+                                    if (!table.isInitialized()) errors.incrementAndGet();
+                                    tables.add(table);
+                                } catch (Throwable e) {
+                                    e.printStackTrace();
+                                    errors.incrementAndGet();
+                                }
+                            });
+            list[t].start();
+        }
+        for (Thread thread : list) thread.join();
+
+        assertEquals(0, errors.get());
+        assertEquals(1, tables.size());
+        assertTrue(tableExists(manager.getPool(), "Regal"));
+        assertEquals(0, manager.getCountAll(Regal.class));
+
+        manager.getPool().close();
+    }
+
+    @Test
+    public void testLazyWarmUp() throws Exception {
+        TestUtil.setCfg(DbManagerJdbc.class, "lazyTables", "true");
+        TestUtil.setCfg(DbManagerJdbc.class, "warmUp", "true");
+        DbManagerJdbc manager = createManager("lazyWarmUp");
+
+        // the tables are initialized in the background without touching them
+        String[] names = {"Book", "Person", "Person2", "Finances", "Regal", "Store"};
+        long start = System.currentTimeMillis();
+        boolean all = false;
+        while (!all && System.currentTimeMillis() - start < 10000) {
+            all = true;
+            for (String name : names) all = all && tableExists(manager.getPool(), name);
+            if (!all) Thread.sleep(50);
+        }
+        assertTrue(all);
+
+        manager.getPool().close();
+    }
+
+    @Test
+    public void testReconnectUnderLoad() throws Exception {
+        DbPool pool = AdbTest.createPool("reconnectLoad").getPool("test");
+        FailingSchema schema = new FailingSchema();
+        DbManagerJdbc manager = new DbManagerJdbc("", pool, null, schema);
+        Person p = new Person();
+        p.setName("Reader");
+        manager.createObject(p);
+        long count = manager.getCountAll(Person.class);
+
+        // readers keep working on the current snapshot while the schema is reloaded
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger reads = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] =
+                    new Thread(
+                            () -> {
+                                while (!stop.get()) {
+                                    try {
+                                        Person r = manager.getObject(Person.class, p.getId());
+                                        if (!"Reader".equals(r.getName())
+                                                || manager.getCountAll(Person.class) != count)
+                                            errors.incrementAndGet();
+                                        reads.incrementAndGet();
+                                    } catch (Throwable e) {
+                                        e.printStackTrace();
+                                        errors.incrementAndGet();
+                                    }
+                                }
+                            });
+            readers[t].start();
+        }
+        try {
+            for (int i = 0; i < 5; i++) {
+                MetadataBundle before = manager.getCaoMetadata();
+                manager.reconnect();
+                assertNotSame(before, manager.getCaoMetadata());
+            }
+
+            // a failed reload keeps the published snapshot
+            MetadataBundle before = manager.getCaoMetadata();
+            schema.failing = true;
+            assertThrows(MException.class, () -> manager.reconnect());
+            schema.failing = false;
+            assertTrue(manager.isConnected());
+            assertSame(before, manager.getCaoMetadata());
+            assertEquals("Reader", manager.getObject(Person.class, p.getId()).getName());
+
+            int last = reads.get();
+            long start = System.currentTimeMillis();
+            while (reads.get() < last + 10 && System.currentTimeMillis() - start < 5000)
+                Thread.sleep(10);
+        } finally {
+            stop.set(true);
+            for (Thread thread : readers) thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertTrue(reads.get() > 10);
+
+        // disconnect publishes the empty snapshot
+        manager.disconnect();
+        assertFalse(manager.isConnected());
+        assertNull(manager.getCaoMetadata());
+        manager.connect();
+        assertTrue(manager.isConnected());
+        assertEquals(count, manager.getCountAll(Person.class));
+
+        pool.close();
+    }
+
+    /** Schema failing to create tables while the flag is set. */
+    private static class FailingSchema extends BookStoreSchema {
+
+        private volatile boolean failing;
+
+        @Override
+        public Table createTable(
+                DbManager manager,
+                Class<? extends Object> clazz,
+                String registryName,
+                String tableName) {
+            if (failing)
+                throw new MRuntimeException(RC.STATUS.ERROR, "failing schema", registryName);
+            return super.createTable(manager, clazz, registryName, tableName);
+        }
+    }
+
+    private boolean tableExists(DbPool pool, String name) throws Exception {
+        DbConnection con = pool.getConnection();
+        try {
+            Connection jdbc = ((JdbcConnection) con.instance()).getConnection();
+            try (ResultSet res =
+                    jdbc.getMetaData().getTables(null, null, "%", new String[] {"TABLE"})) {
+                while (res.next())
+                    if (name.equalsIgnoreCase(res.getString("TABLE_NAME"))) return true;
+            }
+            return false;
+        } finally {
+            con.close();
+        }
+    }
+}
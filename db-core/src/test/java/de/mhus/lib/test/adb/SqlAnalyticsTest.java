@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.analytics.LatencyHistogram;
+import de.mhus.lib.sql.analytics.SqlFingerprint;
+import de.mhus.lib.sql.analytics.SqlSlowQueryRecorder;
+import de.mhus.lib.sql.analytics.SqlSlowQueryRecorder.Entry;
+import de.mhus.lib.sql.analytics.SqlStatisticsAnalyzer;
+import de.mhus.lib.sql.analytics.SqlStatisticsAnalyzer.Statistic;
+
+public class SqlAnalyticsTest {
+
+    @Test
+    public void testHistogramEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getAverage());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testHistogramExactBuckets() {
+        // values below eight have their own bucket
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) histogram.record(i);
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+        assertEquals(8, histogram.getCount());
+        assertEquals(28, histogram.getTotal());
+
+        // negative values are recorded as zero
+        histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(100));
+        assertEquals(0, histogram.getTotal());
+    }
+
+    @Test
+    public void testHistogramBucketBoundaries() {
+        // 16 and 17 share a bucket, 18 starts the next one
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(16);
+        histogram.record(17);
+        histogram.record(18);
+        histogram.record(1000);
+        assertEquals(17, histogram.getPercentile(50));
+        assertEquals(19, histogram.getPercentile(75));
+        // the upper bound is limited by the max value
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) histogram.record(i);
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50000, histogram.getAverage());
+        assertPercentile(50000, histogram.getPercentile(50));
+        assertPercentile(95000, histogram.getPercentile(95));
+        assertPercentile(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    private void assertPercentile(long expected, long value) {
+        // upper bound of the bucket, relative error below 12.5 percent
+        assertTrue(value >= expected, value + " < " + expected);
+        assertTrue(value <= expected * 1.125, value + " > " + expected);
+    }
+
+    @Test
+    public void testFingerprintLiterals() {
+        assertNull(SqlFingerprint.normalize(null));
+        assertEquals(
+                "select * from person where name = ? and age > ?",
+                SqlFingerprint.normalize(
+                        "SELECT * FROM person WHERE name = 'O''Brien' AND age > 42"));
+        assertEquals(
+                "select col1 from t2 limit ?",
+                SqlFingerprint.normalize("SELECT  col1\n FROM\tt2 LIMIT 1.5e3"));
+    }
+
+    @Test
+    public void testFingerprintDollarQuotes() {
+        // dollar quoted strings are literals, positional parameters are kept
+        assertEquals(
+                "select ?, ? from t where id = $1",
+                SqlFingerprint.normalize(
+                        "SELECT $$it's secret$$, $tag$a$$b$tag$ FROM t WHERE id = $1"));
+        // unterminated literals do not leak into the fingerprint
+        assertEquals("select ?", SqlFingerprint.normalize("SELECT $$secret"));
+        // dollar in identifiers
+        assertEquals("select a$b from t", SqlFingerprint.normalize("SELECT a$b FROM t"));
+    }
+
+    @Test
+    public void testFingerprintLists() {
+        String fp = SqlFingerprint.normalize("SELECT * FROM t WHERE id IN (1, 2, 3)");
+        assertEquals("select * from t where id in (?)", fp);
+        assertEquals(fp, SqlFingerprint.normalize("SELECT * FROM t WHERE id IN ('a','b')"));
+        assertEquals(
+                "insert into t (a,b) values (?)",
+                SqlFingerprint.normalize("INSERT INTO t (a,b) VALUES (1,'x'),(2,'y')"));
+        assertEquals(
+                SqlFingerprint.MAX_LENGTH,
+                SqlFingerprint.normalize("SELECT " + MString.rep('x', 3000)).length());
+    }
+
+    @Test
+    public void testStatisticsAggregation() {
+        SqlStatisticsAnalyzer analyzer = new SqlStatisticsAnalyzer();
+        analyzer.doAnalyzeNanos(1, null, "SELECT * FROM t WHERE id = 1", 1000, 1, null);
+        analyzer.doAnalyzeNanos(1, null, "SELECT * FROM t WHERE id = 2", 3000, 2, null);
+        analyzer.doAnalyzeNanos(
+                2, null, "SELECT * FROM t WHERE id = 3", 2000, -1, new Exception("test"));
+        analyzer.doAnalyzeFetch(1, null, "SELECT * FROM t WHERE id = 4", 500, 10, null);
+        analyzer.doAnalyzeNanos(1, null, "DELETE FROM t", 100, 0, null);
+
+        assertEquals(2, analyzer.getData().size());
+        List<Statistic> top = analyzer.getTop(1);
+        assertEquals(1, top.size());
+        Statistic s = top.get(0);
+        assertEquals("select * from t where id = ?", s.getSql());
+        assertEquals(3, s.getCount());
+        assertEquals(1, s.getErrors());
+        assertEquals(13, s.getRows());
+        assertEquals(6000, s.getTotal());
+        assertEquals(2000, s.getAverage());
+        assertEquals(3000, s.getMax());
+        assertEquals(500, s.getFetchTotal());
+
+        analyzer.reset();
+        assertEquals(0, analyzer.getData().size());
+    }
+
+    @Test
+    public void testStatisticsOverflow() {
+        SqlStatisticsAnalyzer analyzer = new SqlStatisticsAnalyzer();
+        analyzer.setMaxStatements(2);
+        analyzer.doAnalyzeNanos(1, null, "SELECT a FROM t", 10, 0, null);
+        analyzer.doAnalyzeNanos(1, null, "SELECT b FROM t", 10, 0, null);
+        analyzer.doAnalyzeNanos(1, null, "SELECT c FROM t", 10, 0, null);
+        analyzer.doAnalyzeNanos(1, null, "SELECT d FROM t", 10, 0, null);
+        // known statements are still collected
+        analyzer.doAnalyzeNanos(1, null, "SELECT a FROM t", 10, 0, null);
+
+        assertEquals(3, analyzer.getData().size());
+        Statistic overflow = null;
+        for (Statistic s : analyzer.getData())
+            if (SqlStatisticsAnalyzer.OVERFLOW.equals(s.getSql())) overflow = s;
+        assertEquals(2, overflow.getCount());
+        assertEquals(20, analyzer.getTop(1).get(0).getTotal());
+    }
+
+    @Test
+    public void testSlowQueryRedactErrors() throws Exception {
+        SqlSlowQueryRecorder recorder = new SqlSlowQueryRecorder();
+        recorder.setMinRuntime(0);
+        recorder.setExplainSampleRate(0);
+        DbPool pool = TransactionTest.createPool("slowQueryRedact").getPool("test");
+        DbConnection con = pool.getConnection();
+        try {
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put("userPassword", "it's geheim");
+            attributes.put("name", "max");
+            String query = "SELECT * FROM t WHERE name = 'max' AND pw = 'it''s geheim'";
+            recorder.doAnalyzeExecute(
+                    con,
+                    "SELECT * FROM t WHERE name = $name$ AND pw = $userPassword$",
+                    query,
+                    attributes,
+                    1000,
+                    -1,
+                    new SQLException("syntax error near " + query + " (it's geheim)"));
+
+            Entry entry = recorder.getEntries().get(0);
+            // inlined and quote doubled values are removed from the error
+            assertFalse(entry.getError().contains("geheim"), entry.getError());
+            assertTrue(entry.getError().contains("'max'"));
+            assertEquals("***", entry.getAttributes().get("userPassword"));
+            assertEquals("max", entry.getAttributes().get("name"));
+            // only the normalized form of the executed query is stored
+            assertEquals("select * from t where name = ? and pw = ?", entry.getQuery());
+            assertFalse(entry.toString().contains("geheim"));
+        } finally {
+            con.close();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testSlowQueryRedactPlan() throws Exception {
+        TestRecorder recorder = new TestRecorder();
+        List<String> secrets = recorder.secrets("token", "abc'def");
+        assertEquals(1, secrets.size());
+        assertEquals(
+                "Filter: (token = '***') AND (x = ***)",
+                TestRecorder.redactText("Filter: (token = 'abc''def') AND (x = abc'def)", secrets));
+        // short values are not redacted, they would destroy the text
+        assertTrue(recorder.secrets("token", "ab").isEmpty());
+        assertTrue(recorder.secrets("name", "abcdef").isEmpty());
+    }
+
+    @Test
+    public void testSlowQueryExplain() throws Exception {
+        DbPool pool = TransactionTest.createPool("slowQueryExplain").getPool("test");
+        DbConnection con = pool.getConnection();
+        try {
+            // only select statements are explained
+            assertNull(pool.getDialect().explain(con, "DELETE FROM t"));
+            assertNull(pool.getDialect().explain(con, "  update t set a = 1"));
+            assertNotNull(
+                    pool.getDialect()
+                            .explain(con, "SELECT * FROM INFORMATION_SCHEMA.SYSTEM_USERS"));
+        } finally {
+            con.close();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testSlowQueryRingBuffer() {
+        SqlSlowQueryRecorder recorder = new SqlSlowQueryRecorder();
+        recorder.setMinRuntime(10);
+        recorder.setSize(3);
+        for (int i = 1; i <= 5; i++)
+            recorder.doAnalyze(i, "SELECT " + i, "SELECT " + i, 10, null);
+        // faster statements are not recorded
+        recorder.doAnalyze(6, "SELECT 6", "SELECT 6", 9, null);
+
+        List<Entry> entries = recorder.getEntries();
+        assertEquals(3, entries.size());
+        TreeSet<Long> ids = new TreeSet<>();
+        for (Entry entry : entries) {
+            ids.add(entry.getConnectionId());
+            assertEquals("select ?", entry.getQuery());
+        }
+        assertEquals(new TreeSet<>(Arrays.asList(3L, 4L, 5L)), ids);
+
+        recorder.clear();
+        assertTrue(recorder.getEntries().isEmpty());
+    }
+
+    private static class TestRecorder extends SqlSlowQueryRecorder {
+
+        List<String> secrets(String name, String value) {
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put(name, value);
+            return findSecrets(attributes);
+        }
+
+        static String redactText(String text, List<String> secrets) {
+            return redact(text, secrets);
+        }
+    }
+}
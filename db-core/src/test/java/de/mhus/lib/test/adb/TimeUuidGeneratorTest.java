@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.util.TimeUuidGenerator;
+
+public class TimeUuidGeneratorTest {
+
+    @Test
+    public void testVersionAndVariant() {
+        long before = System.currentTimeMillis();
+        UUID uuid = TimeUuidGenerator.next();
+        long after = System.currentTimeMillis();
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        long time = uuid.getMostSignificantBits() >>> 16;
+        assertTrue(time >= before && time <= after, before + " " + time + " " + after);
+    }
+
+    @Test
+    public void testMonotonic() {
+        // many ids are created in the same millisecond, the counter keeps them ordered
+        UUID last = TimeUuidGenerator.next();
+        for (int i = 0; i < 10000; i++) {
+            UUID next = TimeUuidGenerator.next();
+            assertTrue(
+                    Long.compareUnsigned(
+                                    next.getMostSignificantBits(), last.getMostSignificantBits())
+                            > 0,
+                    last + " >= " + next);
+            assertEquals(7, next.version());
+            assertEquals(2, next.variant());
+            last = next;
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        int threads = 8;
+        int count = 10000;
+        Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] list = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            list[t] =
+                    new Thread(
+                            () -> {
+                                long last = 0;
+                                for (int i = 0; i < count; i++) {
+                                    UUID uuid = TimeUuidGenerator.next();
+                                    long msb = uuid.getMostSignificantBits();
+                                    if (Long.compareUnsigned(msb, last) <= 0)
+                                        errors.incrementAndGet();
+                                    last = msb;
+                                    ids.add(uuid);
+                                }
+                            });
+            list[t].start();
+        }
+        for (Thread thread : list) thread.join();
+        assertEquals(0, errors.get());
+        assertEquals(threads * count, ids.size());
+    }
+}
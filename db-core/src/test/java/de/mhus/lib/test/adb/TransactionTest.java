@@ -15,8 +15,17 @@
  */
 package de.mhus.lib.test.adb;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -24,15 +33,28 @@ import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbManagerJdbc;
 import de.mhus.lib.adb.DbSchema;
 import de.mhus.lib.adb.DbTransaction;
+import de.mhus.lib.adb.transaction.AdvisoryLockStrategy;
+import de.mhus.lib.adb.transaction.LockBase;
 import de.mhus.lib.adb.transaction.MemoryLockStrategy;
 import de.mhus.lib.adb.transaction.NestedTransactionException;
+import de.mhus.lib.adb.transaction.OptimisticLockException;
+import de.mhus.lib.adb.util.BlockIdGenerator;
+import de.mhus.lib.adb.util.DbProperties;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MThread;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.MNode;
 import de.mhus.lib.core.util.Value;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbPoolBundle;
+import de.mhus.lib.sql.DefaultDbPool;
+import de.mhus.lib.sql.Dialect;
+import de.mhus.lib.sql.DialectHsqldb;
+import de.mhus.lib.test.adb.model.BlockIdDummy;
+import de.mhus.lib.test.adb.model.OptimisticDummy;
+import de.mhus.lib.test.adb.model.OptimisticMetadata;
 import de.mhus.lib.test.adb.model.TransactionDummy;
 import de.mhus.lib.test.adb.model.TransactionSchema;
 import de.mhus.lib.tests.TestUtil;
@@ -155,6 +177,280 @@ public class TransactionTest {
         DbTransaction.releaseLock();
     }
 
+    @Test
+    public void testSharedLock() throws Exception {
+
+        // shared locks are possible concurrent, exclusive locks not
+        DbTransaction.readLock(obj1, obj2);
+
+        final Value<Boolean> done = new Value<>(false);
+        final Value<String> fail = new Value<>();
+
+        new MThread(
+                        new Runnable() {
+
+                            @Override
+                            public void run() {
+                                try {
+                                    DbTransaction.readLock(2000, obj1);
+                                } catch (Throwable t) {
+                                    fail.setValue("Concurrent Shared Lock Not Possible");
+                                    return;
+                                } finally {
+                                    DbTransaction.releaseLock();
+                                }
+                                try {
+                                    DbTransaction.lock(1000, obj1);
+                                    fail.setValue("Exclusive Lock Possible");
+                                    return;
+                                } catch (Throwable t) {
+                                    System.out.println(t);
+                                } finally {
+                                    DbTransaction.releaseLock();
+                                }
+                                done.setValue(true);
+                            }
+                        })
+                .start();
+
+        while (done.getValue() == false && fail.getValue() == null) MThread.sleep(200);
+
+        if (fail.getValue() != null) fail(fail.getValue());
+
+        try {
+            DbTransaction.lockDefault(obj1); // nested exclusive in shared - dead lock possible
+            DbTransaction.releaseLock();
+            fail("Nested Exclusive Lock Allowed");
+        } catch (NestedTransactionException e) {
+            System.out.println(e);
+        }
+
+        DbTransaction.releaseLock();
+    }
+
+    @Test
+    public void testAdvisorySharedLockSupport() throws Exception {
+        AdvisoryLockStrategy strategy = new AdvisoryLockStrategy();
+        // depends on the dialect, unknown without manager
+        assertFalse(strategy.isSharedLockSupported());
+        // hsqldb has no advisory locks, the memory fallback supports shared locks
+        assertFalse(manager.getPool().getDialect().isAdvisoryLockSupported());
+        assertTrue(strategy.isSharedLockSupported(manager));
+    }
+
+    @Test
+    public void testMemoryLockWakeUp() throws Exception {
+        MemoryLockStrategy strategy = new MemoryLockStrategy();
+        // the waiter must be woken up by the release and not by the sleep time
+        strategy.setSleepTime(30000);
+        LockBase owner1 = new TestLock(manager, "owner1");
+        LockBase owner2 = new TestLock(manager, "owner2");
+        strategy.lock(null, "wakeup", owner1, 1000);
+
+        Value<Long> acquired = new Value<>();
+        Thread waiter =
+                new Thread(
+                        () -> {
+                            strategy.lock(null, "wakeup", owner2, 30000);
+                            acquired.setValue(System.currentTimeMillis());
+                        });
+        waiter.start();
+        Thread.sleep(200);
+        assertTrue(waiter.isAlive());
+        long released = System.currentTimeMillis();
+        strategy.releaseLock(null, "wakeup", owner1);
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertTrue(acquired.getValue() - released < 5000);
+        assertTrue(strategy.isLockedByOwner(null, "wakeup", owner2));
+        strategy.releaseLock(null, "wakeup", owner2);
+        assertEquals(0, strategy.getSize());
+        strategy.close();
+    }
+
+    @Test
+    public void testMemoryLockSameStripe() throws Exception {
+        // all keys share one stripe
+        MemoryLockStrategy strategy = new MemoryLockStrategy(1);
+        LockBase owner1 = new TestLock(manager, "owner1");
+        LockBase owner2 = new TestLock(manager, "owner2");
+        strategy.lock(null, "a", owner1, 1000);
+
+        long start = System.currentTimeMillis();
+        strategy.lock(null, "b", owner2, 1000);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertThrows(TimeoutRuntimeException.class, () -> strategy.lock(null, "a", owner2, 200));
+
+        // shared locks of other keys are independent too
+        strategy.lockShared(null, "c", owner1, 1000);
+        strategy.lockShared(null, "c", owner2, 1000);
+        assertThrows(TimeoutRuntimeException.class, () -> strategy.lock(null, "b", owner1, 200));
+
+        strategy.releaseLock(null, "a", owner1);
+        strategy.releaseLock(null, "b", owner2);
+        strategy.releaseSharedLock(null, "c", owner1);
+        assertTrue(strategy.isLocked(null, "c", owner2));
+        strategy.releaseSharedLock(null, "c", owner2);
+        assertEquals(0, strategy.getSize());
+        strategy.close();
+    }
+
+    @Test
+    public void testMemoryLockSweeper() throws Exception {
+        MemoryLockStrategy strategy = new MemoryLockStrategy();
+        strategy.setMaxLockAge(100);
+        LockBase owner1 = new TestLock(manager, "owner1");
+        LockBase owner2 = new TestLock(manager, "owner2");
+        strategy.lock(null, "stale", owner1, 1000);
+        strategy.lockShared(null, "staleShared", owner1, 1000);
+        assertEquals(0, strategy.cleanup());
+
+        Thread.sleep(300);
+        strategy.lock(null, "fresh2", owner2, 1000);
+        // the task of the sweeper removes the expired locks only
+        assertEquals(2, strategy.cleanup());
+        assertEquals(2, strategy.getReclaimedLocks());
+        assertEquals(1, strategy.getSize());
+        assertFalse(strategy.isLocked(null, "stale", owner2));
+        assertTrue(strategy.isLockedByOwner(null, "fresh2", owner2));
+        strategy.close();
+    }
+
+    @Test
+    public void testAdvisoryNestedLock() throws Exception {
+        AdvisoryDialect dialect = new AdvisoryDialect();
+        DbPool pool =
+                new DefaultDbPool(createPool("advisoryNested").getConfig("test"), null) {
+                    @Override
+                    public Dialect getDialect() {
+                        return dialect;
+                    }
+                };
+        DbManager advisoryManager = new DbManagerJdbc("", pool, null, new TransactionSchema());
+        AdvisoryLockStrategy strategy = new AdvisoryLockStrategy();
+        LockBase owner = new TestLock(advisoryManager, "owner");
+
+        // the session holds the lock twice, one release must keep the connection
+        strategy.lock(obj1, "a", owner, 1000);
+        strategy.lock(obj1, "a", owner, 1000);
+        assertEquals(2, dialect.holds("a", false));
+        strategy.releaseLock(obj1, "a", owner);
+        assertEquals(1, dialect.holds("a", false));
+        assertTrue(strategy.isLockedByOwner(obj1, "a", owner));
+        assertEquals(1, pool.getUsedSize());
+        strategy.releaseLock(obj1, "a", owner);
+        assertEquals(0, dialect.holds("a", false));
+        assertFalse(strategy.isLockedByOwner(obj1, "a", owner));
+        assertEquals(0, pool.getUsedSize());
+
+        // exclusive lock on a key held shared, each release unlocks its own kind
+        strategy.lockShared(obj1, "b", owner, 1000);
+        strategy.lock(obj1, "b", owner, 1000);
+        strategy.releaseLock(obj1, "b", owner);
+        assertEquals(0, dialect.holds("b", false));
+        assertEquals(1, dialect.holds("b", true));
+        assertEquals(1, pool.getUsedSize());
+        strategy.releaseSharedLock(obj1, "b", owner);
+        assertEquals(0, dialect.holds("b", true));
+        assertEquals(0, pool.getUsedSize());
+        assertEquals(0, dialect.errors);
+
+        pool.close();
+    }
+
+    /** Dialect counting the advisory locks held per key, like the session of the database. */
+    private static class AdvisoryDialect extends DialectHsqldb {
+
+        private HashMap<String, Integer> exclusive = new HashMap<>();
+        private HashMap<String, Integer> shared = new HashMap<>();
+        private int errors;
+
+        @Override
+        public boolean isAdvisoryLockSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean isAdvisorySharedLockSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized boolean advisoryLock(DbConnection db, String key, long timeout) {
+            exclusive.merge(key, 1, Integer::sum);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean advisoryUnlock(DbConnection db, String key) {
+            return unlock(exclusive, key);
+        }
+
+        @Override
+        public synchronized boolean advisoryLockShared(
+                DbConnection db, String key, long timeout) {
+            shared.merge(key, 1, Integer::sum);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean advisoryUnlockShared(DbConnection db, String key) {
+            return unlock(shared, key);
+        }
+
+        private boolean unlock(HashMap<String, Integer> map, String key) {
+            int cnt = map.getOrDefault(key, 0);
+            if (cnt == 0) {
+                errors++;
+                return false;
+            }
+            map.put(key, cnt - 1);
+            return true;
+        }
+
+        synchronized int holds(String key, boolean isShared) {
+            return (isShared ? shared : exclusive).getOrDefault(key, 0);
+        }
+    }
+
+    private static class TestLock extends LockBase {
+
+        private DbManager manager;
+        private String name;
+
+        TestLock(DbManager manager, String name) {
+            this.manager = manager;
+            this.name = name;
+        }
+
+        @Override
+        public void lock(long timeout) {}
+
+        @Override
+        public void release() {}
+
+        @Override
+        public DbManager getDbManager() {
+            return manager;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Set<String> getLockKeys() {
+            return null;
+        }
+
+        @Override
+        protected boolean isLocked() {
+            return false;
+        }
+    }
+
     @Test
     public void testConcurrentLockTimeout() throws Exception {
 
@@ -217,4 +513,106 @@ public class TransactionTest {
                     .setMaxLockAge(MPeriod.HOUR_IN_MILLISECONDS); // set back to 'long'
         }
     }
+
+    @Test
+    public void testOptimisticUpdateMetadata() throws Exception {
+
+        // DbMetadata increments the vstamp in pre save
+        OptimisticMetadata obj = manager.inject(new OptimisticMetadata());
+        obj.setValue("a");
+        obj.save();
+        assertEquals(0, obj.getVstamp());
+
+        OptimisticMetadata copy = manager.getObject(OptimisticMetadata.class, obj.getId());
+
+        obj.setValue("b");
+        obj.save();
+        assertEquals(1, obj.getVstamp());
+
+        // the failed save must not keep the incremented vstamp
+        copy.setValue("c");
+        assertThrows(OptimisticLockException.class, () -> copy.save());
+        assertEquals(0, copy.getVstamp());
+
+        // a retry without reload must fail again and not overwrite the other change
+        assertThrows(OptimisticLockException.class, () -> copy.save());
+        OptimisticMetadata check = manager.getObject(OptimisticMetadata.class, obj.getId());
+        assertEquals("b", check.getValue());
+        assertEquals(1, check.getVstamp());
+    }
+
+    @Test
+    public void testOptimisticUpdate() throws Exception {
+
+        OptimisticDummy obj = manager.inject(new OptimisticDummy());
+        obj.setValue("a");
+        obj.save();
+        assertEquals(0, obj.getVstamp());
+
+        // second instance of the same object
+        OptimisticDummy copy = manager.getObject(OptimisticDummy.class, obj.getId());
+        assertEquals(0, copy.getVstamp());
+
+        obj.setValue("b");
+        obj.save();
+        assertEquals(1, obj.getVstamp());
+
+        // copy is outdated now
+        copy.setValue("c");
+        assertThrows(OptimisticLockException.class, () -> copy.save());
+
+        // retry with reload
+        int[] cnt = new int[1];
+        DbTransaction.retryOptimistic(
+                () -> {
+                    if (cnt[0]++ > 0) copy.reload();
+                    copy.setValue("c");
+                    copy.save();
+                    return null;
+                });
+        assertEquals(2, cnt[0]);
+        assertEquals(2, copy.getVstamp());
+
+        obj.reload();
+        assertEquals("c", obj.getValue());
+        assertTrue(manager.getTable(manager.getRegistryName(obj)).isOptimistic());
+    }
+
+    @Test
+    public void testBlockIdGenerator() throws Exception {
+
+        HashSet<Long> ids = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i < 12; i++) {
+            BlockIdDummy obj = manager.inject(new BlockIdDummy());
+            obj.setValue("v" + i);
+            obj.save();
+            assertTrue(obj.getId() > last);
+            last = obj.getId();
+            ids.add(obj.getId());
+        }
+        assertEquals(12, ids.size());
+        assertEquals(12, manager.getCountAll(BlockIdDummy.class));
+    }
+
+    @Test
+    public void testSchemaProperties() throws Exception {
+        DbProperties properties = manager.getSchemaProperties();
+        assertNull(properties.set("test.cache", "1"));
+        assertEquals("1", properties.set("test.cache", "2"));
+        assertEquals("2", properties.get("test.cache"));
+        properties.invalidate();
+        assertEquals("2", properties.get("test.cache"));
+        assertEquals("2", properties.remove("test.cache"));
+        assertNull(properties.remove("test.cache"));
+        properties.invalidate();
+        assertNull(properties.get("test.cache"));
+
+        // block id counters are changed without the properties and not cached
+        BlockIdDummy obj = manager.inject(new BlockIdDummy());
+        obj.setValue("counter");
+        obj.save();
+        for (String key : properties.getAll().keySet())
+            assertFalse(key.startsWith(BlockIdGenerator.KEY_PREFIX), key);
+    }
 }
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb.model;
+
+import de.mhus.lib.adb.DbComfortableObject;
+import de.mhus.lib.annotations.adb.DbPersistent;
+import de.mhus.lib.annotations.adb.DbPrimaryKey;
+import de.mhus.lib.annotations.adb.DbTable;
+
+@DbTable(attributes = "id_generator=block&id_block_size=5")
+public class BlockIdDummy extends DbComfortableObject {
+
+    @DbPrimaryKey(auto_id = true)
+    long id;
+
+    @DbPersistent String value;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+}
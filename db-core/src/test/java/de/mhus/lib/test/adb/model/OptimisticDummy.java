@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb.model;
+
+import java.util.UUID;
+
+import de.mhus.lib.adb.DbComfortableObject;
+import de.mhus.lib.annotations.adb.DbPersistent;
+import de.mhus.lib.annotations.adb.DbPrimaryKey;
+import de.mhus.lib.annotations.adb.DbTable;
+
+@DbTable(attributes = "optimistic=true")
+public class OptimisticDummy extends DbComfortableObject {
+
+    @DbPrimaryKey UUID id;
+    @DbPersistent long vstamp;
+    @DbPersistent String value;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public long getVstamp() {
+        return vstamp;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+}
@@ -29,5 +29,8 @@ public class TransactionSchema extends DbSchema {
     @Override
     public void findObjectTypes(List<Class<? extends Object>> list) {
         list.add(TransactionDummy.class);
+        list.add(OptimisticDummy.class);
+        list.add(OptimisticMetadata.class);
+        list.add(BlockIdDummy.class);
     }
 }
@@ -25,6 +25,10 @@ import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.osgi.framework.BundleContext;
 
+import de.mhus.db.karaf.datasource.TraceStatistics.Statistic;
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MString;
+import de.mhus.lib.core.console.ConsoleTable;
 import de.mhus.osgi.api.karaf.AbstractCmd;
 import de.mhus.osgi.api.util.DataSourceUtil;
 
@@ -44,7 +48,9 @@ public class CmdDbTrace extends AbstractCmd {
             index = 1,
             name = "option",
             required = true,
-            description = "enable / disable",
+            description =
+                    "enable / disable / log / file:<path> / status / statistics /"
+                            + " nostatistics / binds:<rate> / top[:<max>]",
             multiValued = false)
     String option;
 
@@ -70,6 +76,39 @@ public class CmdDbTrace extends AbstractCmd {
             tds.setTraceFile("");
         } else if (option.startsWith("file:")) {
             tds.setTraceFile(option.substring(5));
+        } else if (option.equals("statistics")) {
+            tds.setStatisticsEnabled(true);
+        } else if (option.equals("nostatistics")) {
+            tds.setStatisticsEnabled(false);
+        } else if (option.startsWith("binds:")) {
+            tds.setBindSampleRate(M.to(option.substring(6), 0d));
+        } else if (option.equals("top") || option.startsWith("top:")) {
+            TraceStatistics statistics = tds.getStatistics();
+            if (statistics == null) {
+                System.out.println("Statistics not enabled");
+                return null;
+            }
+            int max = option.length() > 4 ? M.to(option.substring(4), 20) : 20;
+            ConsoleTable table = new ConsoleTable(tblOpt);
+            table.setHeaderValues(
+                    "Count", "Errors", "Rows", "Batches", "Max Batch", "Total", "Avg", "p95",
+                    "Max", "Sql", "Binds");
+            for (Statistic d : statistics.getTop(max)) {
+                table.addRowValues(
+                        d.getCount(),
+                        d.getErrors(),
+                        d.getRows(),
+                        d.getBatches(),
+                        d.getMaxBatch(),
+                        toMillis(d.getTotal()),
+                        toMillis(d.getAverage()),
+                        toMillis(d.getPercentile(95)),
+                        toMillis(d.getMax()),
+                        d.getSql(),
+                        MString.join(d.getSamples().iterator(), "\n"));
+            }
+            table.print(System.out);
+            return null;
         }
         System.out.println(
                 "Datasource "
@@ -77,8 +116,25 @@ public class CmdDbTrace extends AbstractCmd {
                         + " Trace: "
                         + tds.isTrace()
                         + " File: "
-                        + tds.getTraceFile());
+                        + tds.getTraceFile()
+                        + " Statistics: "
+                        + tds.isStatisticsEnabled()
+                        + " Binds: "
+                        + tds.getBindSampleRate());
+        TraceWriter writer = tds.getTraceWriter();
+        if (writer != null)
+            System.out.println(
+                    "Written: "
+                            + writer.getWritten()
+                            + " Dropped: "
+                            + writer.getDropped()
+                            + " Pending: "
+                            + writer.getPending());
 
         return null;
     }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000d);
+    }
 }
@@ -17,14 +17,17 @@ package de.mhus.db.karaf.datasource;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.sql.DataSource;
 
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.logging.Log;
-import de.mhus.lib.logging.FileLogger;
+import de.mhus.lib.sql.analytics.SqlFingerprint;
 import de.mhus.osgi.api.util.DataSourceUtil;
 
 public class TraceDataSource extends AbstractDataSource {
@@ -32,6 +35,9 @@ public class TraceDataSource extends AbstractDataSource {
     private String source;
     private DataSource dataSource;
     private Log log = Log.getLog(TraceDataSource.class); // TODO change !
+    private volatile TraceWriter writer;
+    private volatile TraceStatistics statistics;
+    private double bindSampleRate = 0;
     private boolean trace;
     private String traceFile = "";
 
@@ -52,6 +58,15 @@ public class TraceDataSource extends AbstractDataSource {
         dataSource = null;
     }
 
+    /**
+     * Release the data source and stop the trace writer. Called if the data source is destroyed.
+     */
+    public synchronized void close() {
+        doDisconnect();
+        if (writer != null) writer.close();
+        writer = null;
+    }
+
     @Override
     public boolean isInstanceConnected() {
         return dataSource != null;
@@ -76,27 +91,143 @@ public class TraceDataSource extends AbstractDataSource {
         setSource(source);
     }
 
-    public void setTraceFile(String file) {
-        if (MString.isEmptyTrim(file)) log = Log.getLog(TraceDataSource.class);
-        else log = new FileLogger("", new File(file));
+    /**
+     * Set the trace target. If the file is empty the trace is written synchronously to the log,
+     * otherwise asynchronously by a TraceWriter into the rolling file.
+     *
+     * @param file The file or empty
+     */
+    public synchronized void setTraceFile(String file) {
+        if (writer != null) writer.close();
+        if (MString.isEmptyTrim(file)) writer = null;
+        else writer = new TraceWriter(new File(file));
         traceFile = file;
     }
 
     public boolean isTrace() {
-        return log != null && trace;
+        return trace;
     }
 
-    public long startTrace(String... attr) {
-        if (isTrace()) {
-            return System.currentTimeMillis();
+    public long startTrace(String sql) {
+        if (trace || statistics != null) {
+            return System.nanoTime();
         }
         return 0;
     }
 
-    public void stopTrace(long time, String... attr) {
+    public void stopTrace(long time, String sql) {
+        stopTrace(time, sql, false, -1, 0, null, false);
+    }
+
+    /**
+     * Trace and record the execution of a statement.
+     *
+     * @param time Value of startTrace
+     * @param sql The statement
+     * @param prepared true if the sql is a prepared statement, otherwise the sql is normalized
+     * @param rows Updated rows or -1
+     * @param batch Size of the batch or 0
+     * @param binds Sampled bind values or null
+     * @param error true if the execution failed
+     */
+    public void stopTrace(
+            long time,
+            String sql,
+            boolean prepared,
+            long rows,
+            int batch,
+            Object[] binds,
+            boolean error) {
         if (time == 0) return;
-        long delta = System.currentTimeMillis() - time;
-        log.i(source, delta, attr);
+        long delta = System.nanoTime() - time;
+        if (trace) {
+            TraceWriter w = writer;
+            if (w != null) w.write(source, delta, sql);
+            else log.i(source, delta / 1000000, sql);
+        }
+        TraceStatistics s = statistics;
+        if (s != null)
+            s.record(
+                    prepared ? sql : SqlFingerprint.normalize(sql),
+                    delta,
+                    rows,
+                    batch,
+                    binds,
+                    error);
+    }
+
+    /**
+     * Wrap the result of a query to count the read rows if statistics are enabled.
+     *
+     * @param time Value of startTrace
+     * @param sql The statement
+     * @param prepared true if the sql is a prepared statement
+     * @param res The result
+     * @param statement The traced statement
+     * @return The result or a wrapper
+     */
+    public ResultSet traceResult(
+            long time, String sql, boolean prepared, ResultSet res, Statement statement) {
+        TraceStatistics s = statistics;
+        if (time == 0 || s == null) return res;
+        return s.wrap(prepared ? sql : SqlFingerprint.normalize(sql), res, statement);
+    }
+
+    /**
+     * Return true if the bind values of the next execution should be captured.
+     *
+     * @return true if sampled
+     */
+    public boolean isBindSampled() {
+        return statistics != null
+                && bindSampleRate > 0
+                && ThreadLocalRandom.current().nextDouble() < bindSampleRate;
+    }
+
+    /**
+     * Enable or disable the collection of statement statistics. If disabled the statistics are
+     * removed.
+     *
+     * @param enabled
+     */
+    public synchronized void setStatisticsEnabled(boolean enabled) {
+        if (enabled && statistics == null) statistics = new TraceStatistics();
+        else if (!enabled) statistics = null;
+    }
+
+    public boolean isStatisticsEnabled() {
+        return statistics != null;
+    }
+
+    /**
+     * Return the statistics or null if not enabled.
+     *
+     * @return The statistics or null
+     */
+    public TraceStatistics getStatistics() {
+        return statistics;
+    }
+
+    public double getBindSampleRate() {
+        return bindSampleRate;
+    }
+
+    /**
+     * Set the part of the executions (0 - 1) the bind values are captured for.
+     *
+     * @param bindSampleRate
+     */
+    public void setBindSampleRate(double bindSampleRate) {
+        this.bindSampleRate = bindSampleRate;
+    }
+
+    /**
+     * Return the asynchronous trace writer or null if the trace is written to the log.
+     *
+     * @return The writer or null
+     */
+    public TraceWriter getTraceWriter() {
+        return writer;
     }
 
     public String getTraceFile() {
@@ -0,0 +1,360 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.karaf.datasource;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.sql.analytics.LatencyHistogram;
+import de.mhus.lib.sql.analytics.SqlRedact;
+import de.mhus.lib.sql.analytics.StatisticsMap;
+
+/**
+ * Statistics of the statements executed by a trace data source. The values are collected per sql
+ * in a concurrent map. Prepared statements are collected by the sql as is, other statements by
+ * the normalized sql. If more then maxStatements different statements are seen the rest is
+ * collected in one overflow entry. Sampled bind values of parameters named like one of the redact
+ * names are not stored.
+ */
+public class TraceStatistics {
+
+    private static final CfgInt CFG_MAX_STATEMENTS =
+            new CfgInt(TraceStatistics.class, "maxStatements", 1000);
+
+    public static final String OVERFLOW = StatisticsMap.OVERFLOW;
+    public static final int SAMPLES = 3;
+    private static final int MAX_VALUE_LENGTH = 100;
+    private static final Set<String> KEYWORDS =
+            new HashSet<>(
+                    Arrays.asList(
+                            "select", "set", "where", "on", "and", "or", "not", "is", "null",
+                            "like", "ilike", "in", "between", "any", "all", "some", "case", "when",
+                            "then", "else"));
+
+    private final StatisticsMap<Statistic> statistics =
+            new StatisticsMap<>(CFG_MAX_STATEMENTS.value(), Statistic::new);
+    private String[] redact = SqlRedact.getDefaultRedact();
+
+    /**
+     * Record an execution.
+     *
+     * @param sql The sql, normalized if not prepared
+     * @param nanos Runtime in nanoseconds
+     * @param rows Updated rows or -1
+     * @param batch Size of the batch or 0 if not a batch
+     * @param binds Sampled bind values or null
+     * @param error true if the execution failed
+     */
+    public void record(
+            String sql, long nanos, long rows, int batch, Object[] binds, boolean error) {
+        Statistic statistic = getStatistic(sql);
+        statistic.histogram.record(nanos);
+        if (error) statistic.errors.increment();
+        if (rows > 0) statistic.rows.add(rows);
+        if (batch > 0) {
+            statistic.batches.increment();
+            statistic.batchRows.add(batch);
+            statistic.maxBatch.accumulate(batch);
+        }
+        if (binds != null) {
+            boolean[] redacted = statistic.redacted;
+            boolean overflow = statistics.isOverflow(statistic);
+            if (redacted == null || overflow) {
+                redacted = findRedacted(sql);
+                if (!overflow) statistic.redacted = redacted;
+            }
+            statistic.addSample(formatBinds(binds, redacted));
+        }
+    }
+
+    /**
+     * Wrap the result set to count the rows read until the result set is closed.
+     *
+     * @param sql The sql, normalized if not prepared
+     * @param res The result set
+     * @param statement The traced statement the result set belongs to
+     * @return The wrapped result set
+     */
+    public ResultSet wrap(String sql, ResultSet res, Statement statement) {
+        if (res == null) return null;
+        return new TracedResultSet(res, statement, getStatistic(sql));
+    }
+
+    protected Statistic getStatistic(String sql) {
+        return statistics.get(sql);
+    }
+
+    /**
+     * Find the parameters of the sql with values to redact. The name of a parameter is the column
+     * it is compared with or the column of the insert column list. If the name of a parameter is
+     * not found, the value is redacted if the sql contains one of the redact names.
+     *
+     * @param sql The sql
+     * @return Redact flag per parameter
+     */
+    protected boolean[] findRedacted(String sql) {
+        List<String> names = findParameterNames(sql);
+        boolean secret = sql != null && isRedacted(sql);
+        boolean[] out = new boolean[names.size()];
+        for (int i = 0; i < out.length; i++) {
+            String name = names.get(i);
+            out[i] = name == null ? secret : isRedacted(name);
+        }
+        return out;
+    }
+
+    protected boolean isRedacted(String name) {
+        return SqlRedact.isRedacted(name, redact);
+    }
+
+    /**
+     * Return the name of each '?' parameter of the sql or null if not found.
+     *
+     * @param sql The sql
+     * @return The names in order of the parameters
+     */
+    protected static List<String> findParameterNames(String sql) {
+        ArrayList<String> out = new ArrayList<>();
+        if (sql == null) return out;
+        int len = sql.length();
+        String last = null;
+        // identifiers and position of the open brackets
+        ArrayList<Group> groups = new ArrayList<>();
+        Group closed = null;
+        Group columns = null;
+        int valuesDepth = -1;
+        int pos = 0;
+        while (pos < len) {
+            char c = sql.charAt(pos);
+            if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, pos + 1);
+                if (end < 0) end = len;
+                if (c == '"') {
+                    last = sql.substring(pos + 1, end);
+                    if (!groups.isEmpty()) groups.get(groups.size() - 1).names.add(last);
+                }
+                pos = end + 1;
+            } else if (isNamePart(c)) {
+                int end = pos + 1;
+                while (end < len && isNamePart(sql.charAt(end))) end++;
+                String word = sql.substring(pos, end);
+                String lower = word.toLowerCase();
+                int next = end;
+                while (next < len && Character.isWhitespace(sql.charAt(next))) next++;
+                boolean function = next < len && sql.charAt(next) == '(';
+                if (lower.equals("values")) {
+                    columns = closed;
+                    valuesDepth = groups.size();
+                } else if (!function && !Character.isDigit(c) && !KEYWORDS.contains(lower)) {
+                    last = word;
+                    if (!groups.isEmpty()) groups.get(groups.size() - 1).names.add(word);
+                }
+                pos = end;
+            } else {
+                if (c == '(') {
+                    groups.add(new Group());
+                } else if (c == ')') {
+                    if (!groups.isEmpty()) closed = groups.remove(groups.size() - 1);
+                } else if (c == ',') {
+                    if (!groups.isEmpty()) groups.get(groups.size() - 1).position++;
+                } else if (c == '?') {
+                    if (columns != null && groups.size() > valuesDepth) {
+                        int position = groups.get(valuesDepth).position;
+                        List<String> names = columns.names;
+                        out.add(position < names.size() ? names.get(position) : null);
+                    } else out.add(last);
+                }
+                pos++;
+            }
+        }
+        return out;
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private static class Group {
+        private final List<String> names = new ArrayList<>();
+        private int position;
+    }
+
+    protected static String formatBinds(Object[] binds, boolean[] redacted) {
+        int last = binds.length;
+        while (last > 0 && binds[last - 1] == null) last--;
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < last; i++) {
+            if (i > 0) out.append(", ");
+            Object value = binds[i];
+            if (value == null) out.append("null");
+            else if (i >= redacted.length || redacted[i]) out.append(SqlRedact.REDACTED);
+            else if (value instanceof InputStream || value instanceof Reader)
+                out.append("[stream]");
+            else if (value instanceof byte[])
+                out.append("[binary ").append(((byte[]) value).length).append("]");
+            else if (value instanceof Number || value instanceof Boolean) out.append(value);
+            else {
+                String text = String.valueOf(value);
+                if (text.length() > MAX_VALUE_LENGTH)
+                    text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+                out.append('\'').append(text).append('\'');
+            }
+        }
+        return out.append(']').toString();
+    }
+
+    /**
+     * Returns all statistics including the overflow entry if used.
+     *
+     * @return The statistics
+     */
+    public Collection<Statistic> getData() {
+        return statistics.getData();
+    }
+
+    /**
+     * Returns the statistics ordered by the total runtime.
+     *
+     * @param max Maximum entries
+     * @return The top statistics
+     */
+    public List<Statistic> getTop(int max) {
+        return statistics.getTop(max);
+    }
+
+    public String[] getRedact() {
+        return redact;
+    }
+
+    /**
+     * Set the lower case parts of parameter names the sampled values are redacted for.
+     *
+     * @param redact
+     */
+    public void setRedact(String[] redact) {
+        this.redact = redact;
+        for (Statistic statistic : statistics.values()) statistic.redacted = null;
+    }
+
+    public static class Statistic implements StatisticsMap.Entry {
+
+        private final String sql;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder batchRows = new LongAdder();
+        private final LongAccumulator maxBatch = new LongAccumulator(Long::max, 0);
+        private final AtomicReferenceArray<String> samples = new AtomicReferenceArray<>(SAMPLES);
+        private final AtomicInteger sampleIndex = new AtomicInteger();
+        private volatile boolean[] redacted;
+
+        public Statistic(String sql) {
+            this.sql = sql;
+        }
+
+        protected void addRows(long rows) {
+            this.rows.add(rows);
+        }
+
+        protected void addSample(String binds) {
+            samples.set(Math.floorMod(sampleIndex.getAndIncrement(), SAMPLES), binds);
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Updated or read rows.
+         *
+         * @return The rows
+         */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getBatches() {
+            return batches.sum();
+        }
+
+        public long getBatchRows() {
+            return batchRows.sum();
+        }
+
+        public long getMaxBatch() {
+            return maxBatch.get();
+        }
+
+        /**
+         * Total runtime in nanoseconds.
+         *
+         * @return The runtime
+         */
+        @Override
+        public long getTotal() {
+            return histogram.getTotal();
+        }
+
+        public long getAverage() {
+            return histogram.getAverage();
+        }
+
+        public long getMax() {
+            return histogram.getMax();
+        }
+
+        public long getPercentile(double percentile) {
+            return histogram.getPercentile(percentile);
+        }
+
+        /**
+         * Return the last sampled bind values.
+         *
+         * @return The samples
+         */
+        public List<String> getSamples() {
+            ArrayList<String> out = new ArrayList<>(SAMPLES);
+            for (int i = 0; i < SAMPLES; i++) {
+                String sample = samples.get(i);
+                if (sample != null) out.add(sample);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.karaf.datasource;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.logging.Log;
+
+/**
+ * Asynchronous trace sink. Trace records are written into a preallocated ring buffer without
+ * locking and drained by a background thread into a rolling file. If the buffer is full the record
+ * is dropped and counted. The background thread sleeps while the buffer is empty and is woken up by
+ * the next record.
+ *
+ * <p>Format of a line: time millis, thread id, runtime in nanoseconds, source and sql separated by
+ * tabs.
+ */
+public class TraceWriter {
+
+    private static final CfgInt CFG_BUFFER_SIZE =
+            new CfgInt(TraceWriter.class, "bufferSize", 65536);
+    private static final CfgLong CFG_MAX_FILE_SIZE =
+            new CfgLong(TraceWriter.class, "maxFileSize", 100 * 1024 * 1024);
+    private static final CfgInt CFG_MAX_FILES = new CfgInt(TraceWriter.class, "maxFiles", 5);
+    private static final CfgLong CFG_CLOSE_TIMEOUT =
+            new CfgLong(TraceWriter.class, "closeTimeout", 5000);
+
+    private static final Log log = Log.getLog(TraceWriter.class);
+
+    private final File file;
+    private final int mask;
+    private final long[] times;
+    private final long[] threads;
+    private final long[] runtimes;
+    private final String[] sources;
+    private final String[] sqls;
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final long maxFileSize = CFG_MAX_FILE_SIZE.value();
+    private final int maxFiles = CFG_MAX_FILES.value();
+    private volatile boolean running = true;
+    private volatile boolean sleeping;
+    private final Thread thread;
+
+    public TraceWriter(File file) {
+        this.file = file;
+        int size = Integer.highestOneBit(Math.max(16, CFG_BUFFER_SIZE.value() - 1) << 1);
+        mask = size - 1;
+        times = new long[size];
+        threads = new long[size];
+        runtimes = new long[size];
+        sources = new String[size];
+        sqls = new String[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) published.set(i, -1);
+        thread = new Thread(this::drain, "trace-writer-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add a record to the buffer. The method does not block, if the buffer is full the record is
+     * dropped.
+     *
+     * @param source Name of the data source
+     * @param runtime Runtime in nanoseconds
+     * @param sql The statement
+     */
+    public void write(String source, long runtime, String sql) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int index = (int) (seq & mask);
+        times[index] = System.currentTimeMillis();
+        threads[index] = Thread.currentThread().getId();
+        runtimes[index] = runtime;
+        sources[index] = source;
+        sqls[index] = sql;
+        // volatile write, the drain thread checks the slot after announcing its sleep
+        published.set(index, seq);
+        if (sleeping) LockSupport.unpark(thread);
+    }
+
+    private void drain() {
+        OutputStream out = null;
+        long size = 0;
+        StringBuilder line = new StringBuilder();
+        while (running || published.get((int) (tail & mask)) == tail) {
+            try {
+                long current = tail;
+                int index = (int) (current & mask);
+                if (published.get(index) != current) {
+                    if (out != null) out.flush();
+                    sleeping = true;
+                    if (running && published.get(index) != current) LockSupport.park(this);
+                    sleeping = false;
+                    continue;
+                }
+                line.setLength(0);
+                line.append(times[index])
+                        .append('\t')
+                        .append(threads[index])
+                        .append('\t')
+                        .append(runtimes[index])
+                        .append('\t')
+                        .append(sources[index])
+                        .append('\t');
+                appendSql(line, sqls[index]);
+                line.append('\n');
+                sources[index] = null;
+                sqls[index] = null;
+                tail = current + 1;
+
+                if (out == null || size >= maxFileSize) {
+                    if (out != null) out.close();
+                    if (size >= maxFileSize) rotate();
+                    size = file.exists() ? file.length() : 0;
+                    out = new BufferedOutputStream(new FileOutputStream(file, true));
+                }
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                size += bytes.length;
+                written.increment();
+            } catch (IOException e) {
+                log.w("write trace failed", file, e);
+                LockSupport.parkNanos(1000000000L);
+            }
+        }
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.d(e);
+            }
+        }
+    }
+
+    private static void appendSql(StringBuilder line, String sql) {
+        if (sql == null) return;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            line.append(c == '\n' || c == '\r' || c == '\t' ? ' ' : c);
+        }
+    }
+
+    private void rotate() {
+        for (int i = maxFiles - 1; i > 0; i--) {
+            File from = new File(file.getPath() + "." + i);
+            if (!from.exists()) continue;
+            File to = new File(file.getPath() + "." + (i + 1));
+            if (i + 1 >= maxFiles) from.delete();
+            else from.renameTo(to);
+        }
+        if (maxFiles > 1) file.renameTo(new File(file.getPath() + ".1"));
+        else file.delete();
+    }
+
+    /**
+     * Stop the background thread after the buffer is drained. Waits until the records are written
+     * or the timeout is reached.
+     *
+     * @param timeout Max time to wait in milliseconds
+     */
+    public void close(long timeout) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stop the background thread after the buffer is drained. */
+    public void close() {
+        close(CFG_CLOSE_TIMEOUT.value());
+    }
+
+    public boolean isClosed() {
+        return !thread.isAlive();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Return the count of records in the buffer.
+     *
+     * @return The count
+     */
+    public long getPending() {
+        return head.get() - tail;
+    }
+}
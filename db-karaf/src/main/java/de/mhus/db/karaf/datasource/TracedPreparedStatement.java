@@ -36,6 +36,7 @@ import java.sql.SQLWarning;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Calendar;
 
 public class TracedPreparedStatement implements PreparedStatement {
@@ -44,6 +45,8 @@ public class TracedPreparedStatement implements PreparedStatement {
     private TracedConnection con;
     private TraceDataSource ds;
     private String sql;
+    private Object[] binds;
+    private int batchSize;
 
     public TracedPreparedStatement(
             PreparedStatement prepareStatement, String sql, TracedConnection tracedConnection) {
@@ -51,6 +54,28 @@ public class TracedPreparedStatement implements PreparedStatement {
         con = tracedConnection;
         ds = (TraceDataSource) con.getDataSource();
         this.sql = sql;
+        if (ds.isBindSampled()) binds = new Object[8];
+    }
+
+    private void bind(int parameterIndex, Object value) {
+        if (parameterIndex < 1) return;
+        if (parameterIndex > binds.length)
+            binds = Arrays.copyOf(binds, Math.max(parameterIndex, binds.length * 2));
+        binds[parameterIndex - 1] = value;
+    }
+
+    /**
+     * Return the captured bind values of the current execution and decide if the values of the
+     * next execution are captured. Parameters are kept by the driver between executions, so the
+     * captured values are kept too.
+     *
+     * @return The values or null
+     */
+    private Object[] takeBinds() {
+        Object[] out = binds;
+        if (ds.isBindSampled()) binds = out == null ? new Object[8] : out.clone();
+        else binds = null;
+        return out;
     }
 
     @Override
@@ -71,10 +96,13 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public ResultSet executeQuery() throws SQLException {
         long time = ds.startTrace(sql);
+        boolean error = true;
         try {
-            return instance.executeQuery();
+            ResultSet res = ds.traceResult(time, sql, true, instance.executeQuery(), this);
+            error = false;
+            return res;
         } finally {
-            ds.stopTrace(time, sql);
+            ds.stopTrace(time, sql, true, -1, 0, takeBinds(), error);
         }
     }
 
@@ -96,15 +124,18 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public int executeUpdate() throws SQLException {
         long time = ds.startTrace(sql);
+        int rows = -1;
         try {
-            return instance.executeUpdate();
+            rows = instance.executeUpdate();
+            return rows;
         } finally {
-            ds.stopTrace(time, sql);
+            ds.stopTrace(time, sql, true, rows, 0, takeBinds(), rows < 0);
         }
     }
 
     @Override
     public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        if (binds != null) bind(parameterIndex, null);
         instance.setNull(parameterIndex, sqlType);
     }
 
@@ -120,11 +151,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBoolean(parameterIndex, x);
     }
 
     @Override
     public void setByte(int parameterIndex, byte x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setByte(parameterIndex, x);
     }
 
@@ -135,6 +168,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setShort(int parameterIndex, short x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setShort(parameterIndex, x);
     }
 
@@ -145,6 +179,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setInt(int parameterIndex, int x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setInt(parameterIndex, x);
     }
 
@@ -155,6 +190,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setLong(int parameterIndex, long x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setLong(parameterIndex, x);
     }
 
@@ -165,11 +201,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setFloat(int parameterIndex, float x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setFloat(parameterIndex, x);
     }
 
     @Override
     public void setDouble(int parameterIndex, double x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setDouble(parameterIndex, x);
     }
 
@@ -185,16 +223,19 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBigDecimal(parameterIndex, x);
     }
 
     @Override
     public void setString(int parameterIndex, String x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setString(parameterIndex, x);
     }
 
     @Override
     public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBytes(parameterIndex, x);
     }
 
@@ -210,11 +251,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setDate(int parameterIndex, Date x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setDate(parameterIndex, x);
     }
 
     @Override
     public void setTime(int parameterIndex, Time x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setTime(parameterIndex, x);
     }
 
@@ -230,11 +273,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setTimestamp(parameterIndex, x);
     }
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setAsciiStream(parameterIndex, x, length);
     }
 
@@ -252,6 +297,7 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void setUnicodeStream(int parameterIndex, InputStream x, int length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setUnicodeStream(parameterIndex, x, length);
     }
 
@@ -262,6 +308,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBinaryStream(parameterIndex, x, length);
     }
 
@@ -278,10 +325,12 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void clearParameters() throws SQLException {
         instance.clearParameters();
+        if (binds != null) Arrays.fill(binds, null);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setObject(parameterIndex, x, targetSqlType);
     }
 
@@ -297,6 +346,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setObject(int parameterIndex, Object x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setObject(parameterIndex, x);
     }
 
@@ -318,10 +368,13 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public boolean execute() throws SQLException {
         long time = ds.startTrace(sql);
+        boolean error = true;
         try {
-            return instance.execute();
+            boolean ret = instance.execute();
+            error = false;
+            return ret;
         } finally {
-            ds.stopTrace(time, sql);
+            ds.stopTrace(time, sql, true, -1, 0, takeBinds(), error);
         }
     }
 
@@ -338,41 +391,55 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void clearBatch() throws SQLException {
         instance.clearBatch();
+        batchSize = 0;
     }
 
     @Override
     public void addBatch() throws SQLException {
         instance.addBatch();
+        batchSize++;
     }
 
     @Override
     public int[] executeBatch() throws SQLException {
         long time = ds.startTrace(sql);
+        int[] ret = null;
+        int batch = batchSize;
+        batchSize = 0;
         try {
-            return instance.executeBatch();
+            ret = instance.executeBatch();
+            return ret;
         } finally {
-            ds.stopTrace(time, sql);
+            long rows = 0;
+            if (ret != null) {
+                for (int r : ret) if (r > 0) rows += r;
+            }
+            ds.stopTrace(time, sql, true, rows, Math.max(1, batch), takeBinds(), ret == null);
         }
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, int length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setRef(int parameterIndex, Ref x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setRef(parameterIndex, x);
     }
 
     @Override
     public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBlob(parameterIndex, x);
     }
 
     @Override
     public void setClob(int parameterIndex, Clob x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setClob(parameterIndex, x);
     }
 
@@ -383,6 +450,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setArray(int parameterIndex, Array x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setArray(parameterIndex, x);
     }
 
@@ -398,6 +466,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setDate(parameterIndex, x, cal);
     }
 
@@ -408,6 +477,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setTime(parameterIndex, x, cal);
     }
 
@@ -423,11 +493,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setTimestamp(parameterIndex, x, cal);
     }
 
     @Override
     public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        if (binds != null) bind(parameterIndex, null);
         instance.setNull(parameterIndex, sqlType, typeName);
     }
 
@@ -443,6 +515,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setURL(int parameterIndex, URL x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setURL(parameterIndex, x);
     }
 
@@ -463,11 +536,13 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setRowId(parameterIndex, x);
     }
 
     @Override
     public void setNString(int parameterIndex, String value) throws SQLException {
+        if (binds != null) bind(parameterIndex, value);
         instance.setNString(parameterIndex, value);
     }
 
@@ -484,16 +559,19 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void setNCharacterStream(int parameterIndex, Reader value, long length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, value);
         instance.setNCharacterStream(parameterIndex, value, length);
     }
 
     @Override
     public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        if (binds != null) bind(parameterIndex, value);
         instance.setNClob(parameterIndex, value);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setClob(parameterIndex, reader, length);
     }
 
@@ -510,11 +588,13 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream, long length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, inputStream);
         instance.setBlob(parameterIndex, inputStream, length);
     }
 
     @Override
     public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setNClob(parameterIndex, reader, length);
     }
 
@@ -530,12 +610,14 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        if (binds != null) bind(parameterIndex, xmlObject);
         instance.setSQLXML(parameterIndex, xmlObject);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
     }
 
@@ -566,6 +648,7 @@ public class TracedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setAsciiStream(parameterIndex, x, length);
     }
 
@@ -577,47 +660,56 @@ public class TracedPreparedStatement implements PreparedStatement {
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, long length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, long length)
             throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setAsciiStream(parameterIndex, x);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        if (binds != null) bind(parameterIndex, x);
         instance.setBinaryStream(parameterIndex, x);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setCharacterStream(parameterIndex, reader);
     }
 
     @Override
     public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        if (binds != null) bind(parameterIndex, value);
         instance.setNCharacterStream(parameterIndex, value);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setClob(parameterIndex, reader);
     }
 
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        if (binds != null) bind(parameterIndex, inputStream);
         instance.setBlob(parameterIndex, inputStream);
     }
 
     @Override
     public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        if (binds != null) bind(parameterIndex, reader);
         instance.setNClob(parameterIndex, reader);
     }
 }
@@ -18,6 +18,7 @@ package de.mhus.db.karaf.xdb.adb;
 import java.lang.management.ManagementFactory;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import javax.management.MBeanServer;
@@ -32,9 +33,13 @@ import de.mhus.db.osgi.adb.CommonAdbService;
 import de.mhus.db.osgi.api.adb.AdbOsgiUtil;
 import de.mhus.db.osgi.api.adb.AdbService;
 import de.mhus.db.osgi.api.adb.CommonDbConsumer;
+import de.mhus.lib.adb.transaction.LockStatistics;
+import de.mhus.lib.adb.transaction.LockStrategy;
 import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.console.ConsoleTable;
 import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPoolMetrics;
+import de.mhus.lib.sql.analytics.LatencyHistogram;
 import de.mhus.osgi.api.karaf.AbstractCmd;
 
 @Command(scope = "xdb", name = "adb", description = "Control ADB specific attributes")
@@ -54,6 +59,9 @@ public class CmdAdbControl extends AbstractCmd {
                             + " cleanup  <instance> <serviceName> <unused also (true)>- cleanup pool\n"
                             + " datasource <instance> <name> - change datasource (be aware!)\n"
                             + " mapping  <instance> - print service mappings\n"
+                            + " pool     <serviceName> [reset] - pool metrics\n"
+                            + " locks    <serviceName> [enable|disable|reset|top <n>]"
+                            + " - lock statistics\n"
                             + " status - <instance> status\n"
                             + " instances\n"
                             + " start <instance>\n"
@@ -165,6 +173,81 @@ public class CmdAdbControl extends AbstractCmd {
             System.out.println("Size  : " + pool.getSize());
             System.out.println("Unused: " + pool.getUsedSize());
 
+        } else if (cmd.equals("pool")) {
+
+            AdbService service = AdbOsgiUtil.getService(args[0]);
+            DbPool pool = service.getManager().getPool();
+            DbPoolMetrics metrics = pool.getMetrics();
+            if (args.length > 1 && args[1].equals("reset")) pool.resetPeakUsedSize();
+            System.out.println("Pool      : " + pool.getPoolId());
+            System.out.println("Size      : " + pool.getSize());
+            System.out.println("Used      : " + pool.getUsedSize());
+            System.out.println("Peak Used : " + pool.getPeakUsedSize());
+            System.out.println("Borrowed  : " + pool.getBorrowCount());
+            System.out.println("Failures  : " + pool.getBorrowFailures());
+            System.out.println("Created   : " + pool.getCreationCount());
+            System.out.println("Create Err: " + pool.getCreationFailures());
+            System.out.println("Lifetime  : " + pool.getClosedByLifetime());
+            System.out.println("Unused    : " + pool.getClosedByUnused());
+            ConsoleTable table = new ConsoleTable(tblOpt);
+            table.setHeaderValues("Latency (us)", "Count", "Avg", "p50", "p95", "p99", "Max");
+            addLatency(table, "Borrow", metrics.getBorrowWait());
+            addLatency(table, "Create", metrics.getCreation());
+            addLatency(table, "Validate", metrics.getValidation());
+            table.print();
+
+        } else if (cmd.equals("locks")) {
+
+            AdbService service = AdbOsgiUtil.getService(args[0]);
+            LockStrategy strategy = service.getManager().getSchema().getLockStrategy();
+            if (strategy == null) {
+                System.out.println("No lock strategy");
+                return null;
+            }
+            String action = args.length > 1 ? args[1] : "";
+            if (action.equals("enable")) strategy.setStatisticsEnabled(true);
+            else if (action.equals("disable")) strategy.setStatisticsEnabled(false);
+            LockStatistics stats = strategy.getStatistics();
+            if (stats == null) {
+                System.out.println(
+                        "Statistics disabled for " + strategy.getClass().getSimpleName());
+                return null;
+            }
+            if (action.equals("reset")) stats.reset();
+            if (action.equals("top")) {
+                int size = args.length > 2 ? MCast.toint(args[2], 10) : 10;
+                ConsoleTable table = new ConsoleTable(tblOpt);
+                table.setHeaderValues("Key", "Count", "Wait");
+                for (Map.Entry<String, LockStatistics.KeyStatistics> entry :
+                        stats.getTopContendedKeys(size))
+                    table.addRowValues(
+                            entry.getKey(),
+                            entry.getValue().getCount(),
+                            entry.getValue().getWaitTime());
+                table.print();
+                return null;
+            }
+            System.out.println("Strategy : " + strategy.getClass().getSimpleName());
+            System.out.println("Acquired : " + stats.getAcquired());
+            System.out.println("Timeouts : " + stats.getTimeouts());
+            System.out.println("Histogram: " + stats.getHistogramAsString());
+            ConsoleTable table = new ConsoleTable(tblOpt);
+            table.setHeaderValues(
+                    "Prefix", "Holders", "Waiters", "Acquired", "Timeouts", "Errors", "Wait");
+            for (Map.Entry<String, LockStatistics.PrefixStatistics> entry :
+                    new TreeMap<>(stats.getPrefixes()).entrySet()) {
+                LockStatistics.PrefixStatistics p = entry.getValue();
+                table.addRowValues(
+                        entry.getKey(),
+                        p.getHolders(),
+                        p.getWaiters(),
+                        p.getAcquired(),
+                        p.getTimeouts(),
+                        p.getErrors(),
+                        p.getWaitTime());
+            }
+            table.print();
+
         } else if (cmd.equals("jmx-all")) {
             MBeanServer server = ManagementFactory.getPlatformMBeanServer();
             for (ObjectInstance instance : server.queryMBeans(null, null)) {
@@ -177,4 +260,15 @@ public class CmdAdbControl extends AbstractCmd {
 
         return null;
     }
+
+    private void addLatency(ConsoleTable table, String name, LatencyHistogram histogram) {
+        table.addRowValues(
+                name,
+                histogram.getCount(),
+                histogram.getAverage() / 1000,
+                histogram.getPercentile(50) / 1000,
+                histogram.getPercentile(95) / 1000,
+                histogram.getPercentile(99) / 1000,
+                histogram.getMax() / 1000);
+    }
 }
@@ -17,6 +17,9 @@ package de.mhus.db.karaf.xdb.adb.sql;
 
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
@@ -35,6 +38,10 @@ import de.mhus.lib.sql.analytics.SqlRuntimeAnalyzer;
 import de.mhus.lib.sql.analytics.SqlRuntimeAnalyzer.Container;
 import de.mhus.lib.sql.analytics.SqlRuntimeWarning;
 import de.mhus.lib.sql.analytics.SqlRuntimeWriter;
+import de.mhus.lib.sql.analytics.SqlSlowQueryRecorder;
+import de.mhus.lib.sql.analytics.SqlSlowQueryRecorder.Entry;
+import de.mhus.lib.sql.analytics.SqlStatisticsAnalyzer;
+import de.mhus.lib.sql.analytics.SqlStatisticsAnalyzer.Statistic;
 import de.mhus.osgi.api.karaf.AbstractCmd;
 import de.mhus.osgi.api.util.OsgiBundleClassLoader;
 
@@ -50,9 +57,11 @@ public class CmdSql extends AbstractCmd {
             required = true,
             description =
                     "Command:\n"
-                            + " set - sets analytics tool (analyzer,writer,warning,reporter,<class>),\n"
+                            + " set - sets analytics tool"
+                            + " (analyzer,statistics,slow,writer,warning,reporter,<class>),\n"
                             + " reset - remove analytics tool,\n"
-                            + " list - print analysis data,\n"
+                            + " list [max] - print analysis data,\n"
+                            + " show <nr> - print details of a recorded slow query,\n"
                             + "",
             multiValued = false)
     String cmd;
@@ -74,6 +83,9 @@ public class CmdSql extends AbstractCmd {
                     SqlAnalyzer analyzer = null;
                     if (parameters == null || parameters[0].equals("analyzer"))
                         analyzer = new SqlRuntimeAnalyzer();
+                    else if (parameters[0].equals("statistics"))
+                        analyzer = new SqlStatisticsAnalyzer();
+                    else if (parameters[0].equals("slow")) analyzer = new SqlSlowQueryRecorder();
                     else if (parameters[0].equals("writer")) analyzer = new SqlRuntimeWriter();
                     else if (parameters[0].equals("warning")) analyzer = new SqlRuntimeWarning();
                     else if (parameters[0].equals("reporter")) analyzer = new SqlReporter();
@@ -104,7 +116,49 @@ public class CmdSql extends AbstractCmd {
             case "list":
                 {
                     SqlAnalyzer analyzer = SqlAnalytics.getAnalyzer();
-                    if (analyzer instanceof SqlRuntimeAnalyzer) {
+                    if (analyzer instanceof SqlStatisticsAnalyzer) {
+                        int max = parameters == null ? 100 : M.to(parameters[0], 100);
+                        ConsoleTable table = new ConsoleTable(tblOpt);
+                        table.setHeaderValues(
+                                "Count", "Errors", "Rows", "Total", "Avg", "p50", "p95", "p99",
+                                "Max", "Fetch", "Sql");
+                        for (Statistic d : ((SqlStatisticsAnalyzer) analyzer).getTop(max)) {
+                            table.addRowValues(
+                                    d.getCount(),
+                                    d.getErrors(),
+                                    d.getRows(),
+                                    toMillis(d.getTotal()),
+                                    toMillis(d.getAverage()),
+                                    toMillis(d.getPercentile(50)),
+                                    toMillis(d.getPercentile(95)),
+                                    toMillis(d.getPercentile(99)),
+                                    toMillis(d.getMax()),
+                                    toMillis(d.getFetchTotal()),
+                                    d.getSql());
+                        }
+                        table.print(System.out);
+                    } else if (analyzer instanceof SqlSlowQueryRecorder) {
+                        int max = parameters == null ? 100 : M.to(parameters[0], 100);
+                        ConsoleTable table = new ConsoleTable(tblOpt);
+                        table.setHeaderValues(
+                                "Nr", "Time", "Runtime", "Rows", "Connection", "Caller", "Plan",
+                                "Sql");
+                        int nr = 0;
+                        for (Entry e : ((SqlSlowQueryRecorder) analyzer).getEntries()) {
+                            if (nr >= max) break;
+                            table.addRowValues(
+                                    nr,
+                                    new Date(e.getTime()),
+                                    toMillis(e.getRuntime()),
+                                    e.getRows(),
+                                    e.getConnectionId(),
+                                    e.getCaller(),
+                                    e.getPlan() != null,
+                                    e.getQuery());
+                            nr++;
+                        }
+                        table.print(System.out);
+                    } else if (analyzer instanceof SqlRuntimeAnalyzer) {
                         Collection<Container> data = ((SqlRuntimeAnalyzer) analyzer).getData();
                         ConsoleTable table = new ConsoleTable(tblOpt);
                         table.setHeaderValues("Count", "Runtime", "R/C", "Sql");
@@ -130,10 +184,47 @@ public class CmdSql extends AbstractCmd {
                     }
                 }
                 break;
+            case "show":
+                {
+                    SqlAnalyzer analyzer = SqlAnalytics.getAnalyzer();
+                    if (!(analyzer instanceof SqlSlowQueryRecorder)) {
+                        System.out.println("Slow query recorder not set");
+                        break;
+                    }
+                    List<Entry> entries = ((SqlSlowQueryRecorder) analyzer).getEntries();
+                    int nr = parameters == null ? 0 : M.to(parameters[0], 0);
+                    if (nr < 0 || nr >= entries.size()) {
+                        System.out.println("Entry not found");
+                        break;
+                    }
+                    Entry e = entries.get(nr);
+                    System.out.println("Time      : " + new Date(e.getTime()));
+                    System.out.println("Runtime   : " + toMillis(e.getRuntime()) + " ms");
+                    System.out.println("Rows      : " + e.getRows());
+                    System.out.println("Connection: " + e.getConnectionId());
+                    System.out.println("Caller    : " + e.getCaller());
+                    if (e.getError() != null) System.out.println("Error     : " + e.getError());
+                    System.out.println("Original  : " + e.getOriginal());
+                    System.out.println("Query     : " + e.getQuery());
+                    if (e.getAttributes() != null) {
+                        System.out.println("Attributes:");
+                        for (Map.Entry<String, String> a : e.getAttributes().entrySet())
+                            System.out.println("  " + a.getKey() + "=" + a.getValue());
+                    }
+                    if (e.getPlan() != null) {
+                        System.out.println("Plan:");
+                        System.out.println(e.getPlan());
+                    }
+                }
+                break;
             default:
                 System.out.println("Unknown cmd");
         }
 
         return null;
     }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000d);
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.karaf.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.db.karaf.datasource.TraceStatistics.Statistic;
+
+public class TraceStatisticsTest {
+
+    @Test
+    public void testParameterNames() {
+        assertEquals(
+                Arrays.asList("name", "password"),
+                TraceStatistics.findParameterNames(
+                        "SELECT * FROM u WHERE name = ? AND password LIKE ?"));
+        assertEquals(
+                Arrays.asList("id", "user_pw", "x", "id", "user_pw", "x"),
+                TraceStatistics.findParameterNames(
+                        "INSERT INTO u (id, \"user_pw\", x) VALUES (?, ?, lower(?)), (?, ?, ?)"));
+        assertEquals(
+                Arrays.asList("a", "b", "b"),
+                TraceStatistics.findParameterNames(
+                        "INSERT INTO u (a, b) VALUES (?, ?) ON CONFLICT (a) DO UPDATE SET b = ?"));
+        // quoted values are no names
+        assertEquals(
+                Arrays.asList("token", "id", "id"),
+                TraceStatistics.findParameterNames(
+                        "UPDATE u SET token = ? WHERE 'name' = 'x' AND id IN (?, ?)"));
+        assertEquals(
+                Arrays.asList((String) null), TraceStatistics.findParameterNames("SELECT ?"));
+    }
+
+    @Test
+    public void testRedactedSamples() {
+        TraceStatistics statistics = new TraceStatistics();
+        String sql = "UPDATE u SET password = ?, name = ? WHERE id = ?";
+        statistics.record(sql, 1000, 1, 0, new Object[] {"geheim", "max", 5}, false);
+        assertEquals("[***, 'max', 5]", getStatistic(statistics, sql).getSamples().get(0));
+
+        // parameters without name are redacted if the sql contains a redact name
+        sql = "SELECT ? FROM u WHERE secret IS NOT NULL";
+        statistics.record(sql, 1000, 1, 0, new Object[] {"geheim"}, false);
+        assertEquals("[***]", getStatistic(statistics, sql).getSamples().get(0));
+        sql = "SELECT ? FROM u";
+        statistics.record(sql, 1000, 1, 0, new Object[] {"x", null}, false);
+        assertEquals("['x']", getStatistic(statistics, sql).getSamples().get(0));
+
+        statistics.setRedact(new String[] {"name"});
+        sql = "UPDATE u SET password = ?, name = ? WHERE id = ?";
+        statistics.record(sql, 1000, 1, 0, new Object[] {"geheim", "max", 5}, false);
+        assertEquals("['geheim', ***, 5]", getStatistic(statistics, sql).getSamples().get(1));
+    }
+
+    @Test
+    public void testResultSetWrapper() throws Exception {
+        TraceStatistics statistics = new TraceStatistics();
+        Statement statement = stub(Statement.class, 0);
+        ResultSet res = stub(ResultSet.class, 3);
+
+        ResultSet wrapped = statistics.wrap("SELECT 1", res, statement);
+        assertSame(statement, wrapped.getStatement());
+        assertSame(res, wrapped.unwrap(ResultSet.class));
+        assertTrue(wrapped.isWrapperFor(ResultSet.class));
+        assertFalse(wrapped.isWrapperFor(Statement.class));
+
+        while (wrapped.next()) wrapped.getString(1);
+        wrapped.close();
+        // a second close does not count again
+        wrapped.close();
+        assertEquals(3, getStatistic(statistics, "SELECT 1").getRows());
+    }
+
+    private Statistic getStatistic(TraceStatistics statistics, String sql) {
+        for (Statistic statistic : statistics.getData())
+            if (statistic.getSql().equals(sql)) return statistic;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> iface, int rows) {
+        int[] count = new int[1];
+        return (T)
+                Proxy.newProxyInstance(
+                        iface.getClassLoader(),
+                        new Class<?>[] {iface},
+                        (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "next":
+                                    return count[0]++ < rows;
+                                case "isWrapperFor":
+                                    return false;
+                                case "getString":
+                                    return "value";
+                                default:
+                                    return null;
+                            }
+                        });
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.karaf.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.tests.TestUtil;
+
+public class TraceWriterTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        dir = Files.createTempDirectory("tracewriter").toFile();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestUtil.clearCfg();
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testWriteAndClose() throws Exception {
+        File file = new File(dir, "trace.log");
+        TraceWriter writer = new TraceWriter(file);
+        for (int i = 0; i < 100; i++) writer.write("src", i, "SELECT\t" + i + "\nFROM x");
+        writer.close();
+
+        assertTrue(writer.isClosed());
+        assertEquals(0, writer.getPending());
+        assertEquals(100, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(100, lines.size());
+        String[] parts = lines.get(7).split("\t");
+        assertEquals(5, parts.length);
+        assertEquals("7", parts[2]);
+        assertEquals("src", parts[3]);
+        assertEquals("SELECT 7 FROM x", parts[4]);
+    }
+
+    @Test
+    public void testWakeUp() throws Exception {
+        File file = new File(dir, "trace.log");
+        TraceWriter writer = new TraceWriter(file);
+        try {
+            // the drain thread is sleeping, the first record must wake it up
+            Thread.sleep(100);
+            writer.write("src", 1, "SELECT 1");
+            long start = System.currentTimeMillis();
+            while (writer.getWritten() == 0 && System.currentTimeMillis() - start < 5000)
+                Thread.sleep(10);
+            assertEquals(1, writer.getWritten());
+            assertFalse(writer.isClosed());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testRotateByBytes() throws Exception {
+        TestUtil.setCfg(TraceWriter.class, "maxFileSize", "150");
+        File file = new File(dir, "trace.log");
+        TraceWriter writer = new TraceWriter(file);
+        // 100 characters but 200 bytes in UTF-8
+        String sql = MString.rep('ä', 100);
+        writer.write("src", 1, sql);
+        writer.write("src", 1, sql);
+        writer.close();
+
+        assertEquals(2, writer.getWritten());
+        assertTrue(new File(dir, "trace.log.1").exists());
+        assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+    }
+}
@@ -16,21 +16,28 @@
 package de.mhus.db.osgi.adb.cluster;
 
 import java.net.URL;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
+import de.mhus.lib.annotations.jmx.JmxManaged;
 import de.mhus.lib.core.M;
 import de.mhus.lib.core.MCast;
-import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.MThread;
+import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.core.concurrent.Lock;
+import de.mhus.lib.core.jmx.MJmx;
 import de.mhus.lib.core.logging.ITracer;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.INodeFactory;
@@ -43,13 +50,23 @@ import de.mhus.lib.sql.DbResult;
 import de.mhus.lib.sql.DbStatement;
 import de.mhus.lib.sql.DefaultDbPool;
 import de.mhus.lib.sql.Dialect;
+import de.mhus.lib.sql.JdbcConnection;
 import de.mhus.osgi.api.util.DataSourceUtil;
 import io.opentracing.Scope;
 
-public class ClusterViaDatabase extends MLog implements ClusterApi {
+@JmxManaged(descrition = "Cluster locks via database")
+public class ClusterViaDatabase extends MJmx implements ClusterApi {
 
     private static final CfgInt CFG_INIT_RETRY_SEC =
             new CfgInt(ClusterViaDatabase.class, "initRetrySec", 30);
+    private static final CfgBoolean CFG_BLOCKING =
+            new CfgBoolean(ClusterViaDatabase.class, "blockingLock", true);
+    private static final CfgLong CFG_WAIT_SLICE =
+            new CfgLong(ClusterViaDatabase.class, "lockWaitSlice", 5000);
+    private static final CfgLong CFG_BACKOFF_MIN =
+            new CfgLong(ClusterViaDatabase.class, "lockBackoffMin", 20);
+    private static final CfgLong CFG_BACKOFF_MAX =
+            new CfgLong(ClusterViaDatabase.class, "lockBackoffMax", 2000);
 
     private String dsName;
     private DataSource ds;
@@ -61,6 +78,14 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
 
     private boolean startInit;
 
+    private AtomicLong metricWaits = new AtomicLong();
+    private AtomicLong metricWaitTime = new AtomicLong();
+    private AtomicLong metricMaxWaitTime = new AtomicLong();
+    private AtomicLong metricAttempts = new AtomicLong();
+    private AtomicLong metricTimeouts = new AtomicLong();
+    private AtomicLong metricLockWaitTimeouts = new AtomicLong();
+    private AtomicLong metricSerializationFailures = new AtomicLong();
+
     public ClusterViaDatabase(String dsName, String prefix) {
         this.dsName = dsName;
         this.prefix = prefix;
@@ -116,8 +141,10 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
         }
     }
 
-    private Con tryLock(String value) {
-        log().t("Try Lock", value);
+    private Con tryLock(String value, long wait) {
+        log().t("Try Lock", value, wait);
+        Dialect dialect = pool.getDialect();
+        String waitSql = wait > 0 ? dialect.getLockWaitTimeoutSql(wait) : null;
         DbConnection con = null;
         try {
             con = pool.getConnection();
@@ -129,11 +156,12 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
                                     + table
                                     + " WHERE "
                                     + key
-                                    + "=$key$ FOR UPDATE NOWAIT");
+                                    + "=$key$"
+                                    + dialect.getForUpdateClause(waitSql == null ? 0 : wait));
             Map<String, Object> attributes = new HashMap<>();
             attributes.put("key", value);
             try {
-                DbResult res = sth.executeQuery(attributes);
+                DbResult res = selectForUpdate(con, sth, attributes, waitSql);
                 if (res.next()) {
                     res.close();
                     log().t("=== Lock1", value);
@@ -141,8 +169,10 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
                 }
                 res.close();
             } catch (SQLException e) {
-                if (!e.getMessage().contains("timeout")) throw e;
+                if (!isRetryable(dialect, e)) throw e;
                 sth.close();
+                con.rollback();
+                resetLockWait(con, waitSql);
                 con.close();
                 log().t("--- No0", value, e);
                 return null;
@@ -156,6 +186,8 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
             } catch (SQLIntegrityConstraintViolationException e) {
             }
             if (!done) {
+                con.rollback();
+                resetLockWait(con, waitSql);
                 con.close();
                 log().t("--- No1", value);
                 return null;
@@ -164,7 +196,7 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
             con.commit();
 
             try {
-                DbResult res = sth.executeQuery(attributes);
+                DbResult res = selectForUpdate(con, sth, attributes, waitSql);
                 if (res.next()) {
                     res.close();
                     log().t("=== Lock2", value);
@@ -172,15 +204,17 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
                 }
                 res.close();
             } catch (SQLException e) {
-                if (!e.getMessage().contains("timeout")) throw e;
+                if (!isRetryable(dialect, e)) throw e;
                 sth.close();
-                con.commit();
+                con.rollback();
+                resetLockWait(con, waitSql);
                 con.close();
                 log().t("--- No2", value, e);
                 return null;
             }
             sth.close();
             con.commit();
+            resetLockWait(con, waitSql);
             con.close();
             log().t("--- No3", value);
             return null;
@@ -192,6 +226,7 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
                 } catch (Exception e1) {
                     log().e(e1);
                 }
+                resetLockWait(con, waitSql);
                 con.close();
             }
             log().t("--- No3", value);
@@ -199,6 +234,158 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
         }
     }
 
+    /**
+     * Check if the attempt can be retried. Serialization failures and dead locks (40001) are
+     * counted separately from lock wait timeouts.
+     */
+    private boolean isRetryable(Dialect dialect, SQLException e) {
+        if (dialect.isLockTimeout(e)) {
+            metricLockWaitTimeouts.incrementAndGet();
+            return true;
+        }
+        if (dialect.isSerializationFailure(e)) {
+            metricSerializationFailures.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private DbResult selectForUpdate(
+            DbConnection con, DbStatement sth, Map<String, Object> attributes, String waitSql)
+            throws Exception {
+        if (waitSql != null) {
+            Connection jdbc = ((JdbcConnection) con.instance()).getConnection();
+            try (Statement s = jdbc.createStatement()) {
+                s.execute(waitSql);
+            }
+        }
+        DbResult res = sth.executeQuery(attributes);
+        resetLockWait(con, waitSql);
+        return res;
+    }
+
+    private void resetLockWait(DbConnection con, String waitSql) {
+        if (waitSql == null) return;
+        String resetSql = pool.getDialect().getLockWaitTimeoutResetSql();
+        if (resetSql == null) return;
+        Connection jdbc = ((JdbcConnection) con.instance()).getConnection();
+        try (Statement s = jdbc.createStatement()) {
+            s.execute(resetSql);
+        } catch (Exception e) {
+            log().d("reset lock wait timeout failed", e);
+        }
+    }
+
+    /**
+     * Acquire the lock. Every attempt blocks in the database up to the wait slice if the dialect
+     * supports lock wait timeouts. Between the attempts the thread will sleep with an exponential
+     * backoff and jitter.
+     *
+     * @param value Name of the lock
+     * @param timeout Timeout in milliseconds or less then zero to wait forever
+     * @return The connection holding the lock or null if timed out
+     */
+    private Con acquire(String value, long timeout) {
+        long start = System.currentTimeMillis();
+        long backoff = CFG_BACKOFF_MIN.value();
+        try {
+            while (true) {
+                metricAttempts.incrementAndGet();
+                long left = timeout - (System.currentTimeMillis() - start);
+                long wait = CFG_BLOCKING.value() ? CFG_WAIT_SLICE.value() : 0;
+                if (timeout >= 0) wait = Math.max(0, Math.min(wait, left));
+                Con con = tryLock(value, wait);
+                if (con != null) return con;
+                if (timeout >= 0 && MPeriod.isTimeOut(start, timeout)) {
+                    metricTimeouts.incrementAndGet();
+                    return null;
+                }
+                left = timeout - (System.currentTimeMillis() - start);
+                long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                if (timeout >= 0) sleep = Math.min(sleep, Math.max(1, left));
+                MThread.sleep(sleep);
+                backoff = Math.min(backoff * 2, CFG_BACKOFF_MAX.value());
+            }
+        } finally {
+            long waitTime = System.currentTimeMillis() - start;
+            metricWaits.incrementAndGet();
+            metricWaitTime.addAndGet(waitTime);
+            metricMaxWaitTime.accumulateAndGet(waitTime, Math::max);
+        }
+    }
+
+    /**
+     * Number of lock acquisitions including timed out ones.
+     *
+     * @return count
+     */
+    @JmxManaged(descrition = "Lock acquisitions including timed out ones")
+    public long getLockWaitCount() {
+        return metricWaits.get();
+    }
+
+    /**
+     * Total time in milliseconds spent to acquire locks.
+     *
+     * @return time
+     */
+    @JmxManaged(descrition = "Total time in milliseconds spent to acquire locks")
+    public long getLockWaitTime() {
+        return metricWaitTime.get();
+    }
+
+    /**
+     * Maximum time in milliseconds spent for one lock acquisition.
+     *
+     * @return time
+     */
+    @JmxManaged(descrition = "Maximum time in milliseconds spent for one lock acquisition")
+    public long getLockMaxWaitTime() {
+        return metricMaxWaitTime.get();
+    }
+
+    /**
+     * Average time in milliseconds spent for one lock acquisition.
+     *
+     * @return time
+     */
+    @JmxManaged(descrition = "Average time in milliseconds spent for one lock acquisition")
+    public long getLockAvgWaitTime() {
+        long cnt = metricWaits.get();
+        return cnt == 0 ? 0 : metricWaitTime.get() / cnt;
+    }
+
+    @JmxManaged(descrition = "Attempts to acquire a lock in the database")
+    public long getLockAttemptCount() {
+        return metricAttempts.get();
+    }
+
+    @JmxManaged(descrition = "Lock acquisitions failed because of the timeout")
+    public long getLockTimeoutCount() {
+        return metricTimeouts.get();
+    }
+
+    @JmxManaged(descrition = "Attempts ended by a lock wait timeout of the database")
+    public long getLockWaitTimeoutCount() {
+        return metricLockWaitTimeouts.get();
+    }
+
+    @JmxManaged(descrition = "Attempts ended by a serialization failure or dead lock (40001)")
+    public long getSerializationFailureCount() {
+        return metricSerializationFailures.get();
+    }
+
+    @JmxManaged(descrition = "Reset the lock metrics")
+    public void resetLockMetrics() {
+        metricWaits.set(0);
+        metricWaitTime.set(0);
+        metricMaxWaitTime.set(0);
+        metricAttempts.set(0);
+        metricTimeouts.set(0);
+        metricLockWaitTimeouts.set(0);
+        metricSerializationFailures.set(0);
+    }
+
     private class Con {
         DbConnection con;
         DbStatement sth;
@@ -235,53 +422,28 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
             this.name = name;
         }
 
-        @SuppressWarnings("resource")
         @Override
         public Lock lock() {
-            Scope scope = null;
-            try {
-                while (true) {
-                    Con con = tryLock(name);
-                    if (con != null) {
-                        this.con = con;
-                        lockStart = System.currentTimeMillis();
-                        lockCnt++;
-                        lockOwner = MSystem.findCalling(3) + " " + Thread.currentThread().getId();
-                        lockStacktrace = MCast.toString("", Thread.currentThread().getStackTrace());
-                        return this;
-                    }
-                    if (scope != null)
-                        scope = ITracer.get().enter("DbLock.lock", "name", getName());
-                    MThread.sleep(200);
-                }
-            } finally {
-                if (scope != null) scope.close();
-            }
+            // find the caller here, a delegation to lock(long) would add a stack frame
+            doLock(-1, MSystem.findCalling(3));
+            return this;
         }
 
-        @SuppressWarnings("resource")
         @Override
         public boolean lock(long timeout) {
-            long start = System.currentTimeMillis();
-            Scope scope = null;
-            try {
-                while (true) {
-                    Con con = tryLock(name);
-                    if (con != null) {
-                        this.con = con;
-                        lockStart = System.currentTimeMillis();
-                        lockCnt++;
-                        lockOwner = MSystem.findCalling(3) + " " + Thread.currentThread().getId();
-                        lockStacktrace = MCast.toString("", Thread.currentThread().getStackTrace());
-                        return true;
-                    }
-                    if (scope != null)
-                        scope = ITracer.get().enter("waitUntilUnlock", "name", getName());
-                    if (MPeriod.isTimeOut(start, timeout)) return false;
-                    MThread.sleep(200);
-                }
-            } finally {
-                if (scope != null) scope.close();
+            return doLock(timeout, MSystem.findCalling(3));
+        }
+
+        private boolean doLock(long timeout, String caller) {
+            try (Scope scope = ITracer.get().enter("DbLock.lock", "name", getName())) {
+                Con con = acquire(name, timeout);
+                if (con == null) return false;
+                this.con = con;
+                lockStart = System.currentTimeMillis();
+                lockCnt++;
+                lockOwner = caller + " " + Thread.currentThread().getId();
+                lockStacktrace = MCast.toString("", Thread.currentThread().getStackTrace());
+                return true;
             }
         }
 